@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shiro.subject.Subject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import sonia.scm.plugins.autologin.AutoLoginAuthenticationFilter;
+import sonia.scm.plugins.autologin.AutoLoginAuthenticationHandler;
+import sonia.scm.plugins.autologin.AutoLoginConfig;
+import sonia.scm.plugins.autologin.AutoLoginMetrics;
+import sonia.scm.plugins.autologin.RemoteIdentity;
+import sonia.scm.user.User;
+import sonia.scm.web.security.AuthenticationResult;
+
+/**
+ * Benchmarks of the authentication of known auto login users through the
+ * {@link AutoLoginAuthenticationHandler} and the
+ * {@link AutoLoginAuthenticationFilter}, single- and multi-threaded.
+ * 
+ * @author Clemens Rabe
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthenticationBenchmark
+{
+
+  /** The number of known users. */
+  private static final int USERS = 1000;
+
+  /**
+   * The plugin set up against in-memory stand-ins, shared by all threads.
+   */
+  @State(Scope.Benchmark)
+  public static class Plugin
+  {
+
+    /** The size of the principal cache, 0 disables the cache. */
+    @Param(
+    { "0", "1000" })
+    public int cacheSize;
+
+    /** The users of the user manager. */
+    ConcurrentMap<String, User> users;
+
+    /** The authentication handler. */
+    AutoLoginAuthenticationHandler handler;
+
+    /** The authentication filter. */
+    AutoLoginAuthenticationFilter filter;
+
+    /** The source of the user indices of the threads. */
+    final AtomicInteger threads = new AtomicInteger();
+
+    /**
+     * Create the handler and the filter.
+     */
+    @Setup
+    public void setup()
+    {
+      users = StandIns.users();
+
+      for (int i = 0; i < USERS; i++)
+      {
+        User user = StandIns.autoLoginUser("user" + i);
+
+        users.put(user.getName(), user);
+      }
+
+      AutoLoginConfig config = new AutoLoginConfig();
+
+      config.setGroups("developers, testers");
+      config.setCacheSize(cacheSize);
+
+      handler = new AutoLoginAuthenticationHandler(
+          StandIns.userManager(users), StandIns.storeFactory(),
+          StandIns.adminContext(), new AutoLoginMetrics());
+      handler.setConfig(config);
+      filter = new AutoLoginAuthenticationFilter(handler);
+    }
+  }
+
+  /**
+   * The request of a single thread.
+   */
+  @State(Scope.Thread)
+  public static class Client
+  {
+
+    /** The user name. */
+    String username;
+
+    /** The HTTP request. */
+    HttpServletRequest request;
+
+    /** The HTTP response. */
+    HttpServletResponse response;
+
+    /** The subject. */
+    Subject subject;
+
+    /**
+     * Create the request of a known user.
+     * 
+     * @param plugin
+     *          - The plugin.
+     */
+    @Setup
+    public void setup(Plugin plugin)
+    {
+      Map<String, String> headers = new HashMap<String, String>();
+
+      username = "user" + (plugin.threads.getAndIncrement() % USERS);
+      headers.put("X_REMOTE_USER", "/C=DE/O=Example Inc./CN=" + username);
+      request = StandIns.request(headers, "127.0.0.1");
+      response = StandIns.response();
+      subject = StandIns.subject(plugin.handler, request,
+          plugin.users);
+    }
+
+    /**
+     * Get the request for the next invocation. The identity resolved by the
+     * previous invocation is removed, as it would be for a new request.
+     * 
+     * @return The HTTP request.
+     */
+    HttpServletRequest next()
+    {
+      request.removeAttribute(RemoteIdentity.ATTRIBUTE);
+
+      return request;
+    }
+  }
+
+  /**
+   * Authenticate through the handler with a single thread.
+   * 
+   * @param plugin
+   *          - The plugin.
+   * @param client
+   *          - The client.
+   * @return The authentication result.
+   */
+  @Benchmark
+  @Threads(1)
+  public AuthenticationResult handlerSingle(Plugin plugin, Client client)
+  {
+    return plugin.handler.authenticate(client.next(), client.response,
+        client.username, "secret");
+  }
+
+  /**
+   * Authenticate through the handler with as many threads as processors.
+   * 
+   * @param plugin
+   *          - The plugin.
+   * @param client
+   *          - The client.
+   * @return The authentication result.
+   */
+  @Benchmark
+  @Threads(Threads.MAX)
+  public AuthenticationResult handlerMulti(Plugin plugin, Client client)
+  {
+    return plugin.handler.authenticate(client.next(), client.response,
+        client.username, "secret");
+  }
+
+  /**
+   * Authenticate through the filter with a single thread.
+   * 
+   * @param plugin
+   *          - The plugin.
+   * @param client
+   *          - The client.
+   * @return The authenticated user.
+   */
+  @Benchmark
+  @Threads(1)
+  public User filterSingle(Plugin plugin, Client client)
+  {
+    return plugin.filter.authenticate(client.next(), client.response,
+        client.subject);
+  }
+
+  /**
+   * Authenticate through the filter with as many threads as processors.
+   * 
+   * @param plugin
+   *          - The plugin.
+   * @param client
+   *          - The client.
+   * @return The authenticated user.
+   */
+  @Benchmark
+  @Threads(Threads.MAX)
+  public User filterMulti(Plugin plugin, Client client)
+  {
+    return plugin.filter.authenticate(client.next(), client.response,
+        client.subject);
+  }
+}
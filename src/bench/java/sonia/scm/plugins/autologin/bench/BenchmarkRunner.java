@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the auto login plugin with allocation profiling.
+ * An optional argument restricts the benchmarks to those matching the given
+ * regular expression.
+ * 
+ * @author Clemens Rabe
+ */
+public final class BenchmarkRunner
+{
+
+  private BenchmarkRunner()
+  {
+  }
+
+  /**
+   * Run the benchmarks.
+   * 
+   * @param args
+   *          - An optional regular expression selecting the benchmarks.
+   * @throws RunnerException
+   *           - If the benchmarks fail.
+   */
+  public static void main(String[] args) throws RunnerException
+  {
+    String include = BenchmarkRunner.class.getPackage().getName() + ".*";
+
+    if (args.length > 0)
+    {
+      include = args[0];
+    }
+
+    ChainedOptionsBuilder options = new OptionsBuilder().include(include)
+        .addProfiler(GCProfiler.class).warmupIterations(5)
+        .measurementIterations(5).forks(1);
+
+    new Runner(options.build()).run();
+  }
+}
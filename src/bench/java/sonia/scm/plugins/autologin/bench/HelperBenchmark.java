@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin.bench;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import sonia.scm.plugins.autologin.AutoLoginHelper;
+
+/**
+ * Benchmarks of the {@link AutoLoginHelper} methods.
+ * 
+ * @author Clemens Rabe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HelperBenchmark
+{
+
+  /** The kind of header value. */
+  @Param(
+  { "short", "slash", "rfc4514" })
+  public String kind;
+
+  /** The header value. */
+  private String headerValue;
+
+  /** The comma separated list of groups. */
+  private String groups = "developers, testers ,release-managers,,ci";
+
+  /**
+   * Select the header value.
+   */
+  @Setup
+  public void setup()
+  {
+    if ("slash".equals(kind))
+    {
+      headerValue = "/C=DE/ST=Bavaria/L=Munich/O=Example Inc./OU=Development"
+          + "/CN=jdoe/emailAddress=jdoe@example.com";
+    } else if ("rfc4514".equals(kind))
+    {
+      headerValue = "emailAddress=jdoe@example.com+UID=jdoe,"
+          + "CN=John Doe\\, Jr.,OU=Development,OU=Engineering,"
+          + "O=Example Inc.,L=Munich,ST=Bavaria,DC=example,DC=com,C=DE";
+    } else
+    {
+      headerValue = "jdoe";
+    }
+  }
+
+  /**
+   * Extract the user name from the header value.
+   * 
+   * @return The user name.
+   */
+  @Benchmark
+  public String extractUsername()
+  {
+    return AutoLoginHelper.extractUsername(headerValue);
+  }
+
+  /**
+   * Split the list of groups.
+   * 
+   * @return The set of groups.
+   */
+  @Benchmark
+  public Set<String> splitGroups()
+  {
+    return AutoLoginHelper.splitGroups(groups);
+  }
+
+  /**
+   * Generate a random password.
+   * 
+   * @return The password.
+   */
+  @Benchmark
+  public String generateRandomPassword()
+  {
+    return AutoLoginHelper.generateRandomPassword(30);
+  }
+}
@@ -0,0 +1,680 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import sonia.scm.plugins.autologin.AutoLoginAuthenticationFilter;
+import sonia.scm.plugins.autologin.AutoLoginAuthenticationHandler;
+import sonia.scm.plugins.autologin.AutoLoginConfig;
+import sonia.scm.plugins.autologin.AutoLoginMetrics;
+import sonia.scm.plugins.autologin.LatencyHistogram;
+import sonia.scm.plugins.autologin.StripedCounter;
+import sonia.scm.user.User;
+import sonia.scm.web.security.AuthenticationResult;
+import sonia.scm.web.security.AuthenticationState;
+
+/**
+ * End-to-end load test of the {@link AutoLoginAuthenticationFilter} and the
+ * {@link AutoLoginAuthenticationHandler}. Thousands of clients, each running
+ * on its own virtual thread if the JVM supports them and on a platform thread
+ * otherwise, send a mix of requests of known users, requests of new users,
+ * hook requests without the HTTP header and configuration updates through the
+ * in-memory {@link StandIns}. The throughput and the latency percentiles of
+ * each kind of request are written to a JSON report. The percentiles are the
+ * upper bounds of power-of-two buckets and may be up to twice the actual
+ * latency.
+ * 
+ * The options are given as <code>name=value</code> arguments, separated by
+ * white space or commas:
+ * <ul>
+ * <li><code>clients</code> - The number of concurrent clients (2000).</li>
+ * <li><code>users</code> - The number of known users (10000).</li>
+ * <li><code>warmup</code> - The warm-up time in seconds (5).</li>
+ * <li><code>duration</code> - The measurement time in seconds (20).</li>
+ * <li><code>known-user</code>, <code>new-user</code>, <code>hook</code> and
+ * <code>config-update</code> - The weights of the kinds of requests (900, 50,
+ * 49 and 1).</li>
+ * <li><code>audit</code> - Enable the audit log (false).</li>
+ * <li><code>require-header</code> - Require the HTTP header, so the hook
+ * requests send a wrong password that has to be rejected (false).</li>
+ * <li><code>threads</code> - <code>virtual</code> or <code>platform</code>
+ * (virtual).</li>
+ * <li><code>report</code> - The report file (target/loadtest.json).</li>
+ * </ul>
+ * 
+ * @author Clemens Rabe
+ */
+public final class LoadTest
+{
+
+  /** The kinds of requests sent by the clients. */
+  enum Operation
+  {
+    KNOWN_USER("known-user", 900), NEW_USER("new-user", 50), HOOK("hook", 49),
+    CONFIG_UPDATE("config-update", 1);
+
+    /** The name used for the options and in the report. */
+    private final String name;
+
+    /** The default weight. */
+    private final int weight;
+
+    private Operation(String name, int weight)
+    {
+      this.name = name;
+      this.weight = weight;
+    }
+  }
+
+  /** The latencies of all requests of one kind. */
+  private static final class Result
+  {
+
+    /** The latencies of the successful and failed requests. */
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    /** The number of failed requests. */
+    final StripedCounter errors = new StripedCounter();
+  }
+
+  /** The character set of the report. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** The options. */
+  private final Map<String, String> options;
+
+  /** The weights of the operations. */
+  private final int[] weights = new int[Operation.values().length];
+
+  /** The sum of all weights. */
+  private int totalWeight;
+
+  /** The number of known users. */
+  private final int users;
+
+  /** The users of the user manager. */
+  private final ConcurrentMap<String, User> userMap;
+
+  /** The authentication handler. */
+  private final AutoLoginAuthenticationHandler handler;
+
+  /** The authentication filter. */
+  private final AutoLoginAuthenticationFilter filter;
+
+  /** The two configurations stored alternately by the configuration updates. */
+  private final AutoLoginConfig[] configs;
+
+  /** The number of configuration updates. */
+  private final AtomicInteger configUpdates = new AtomicInteger();
+
+  /** The results of the operations. */
+  private final Result[] results = new Result[Operation.values().length];
+
+  /** The results of all operations together. */
+  private final Result total = new Result();
+
+  /** True as long as the clients send requests. */
+  private volatile boolean running = true;
+
+  /** True while the latencies are recorded. */
+  private volatile boolean recording;
+
+  /** The measurement time in nanoseconds. */
+  private long measuredNanos;
+
+  /**
+   * Constructor.
+   * 
+   * @param options
+   *          - The options.
+   * @param users
+   *          - The number of known users.
+   * @param userMap
+   *          - The users of the user manager.
+   * @param handler
+   *          - The authentication handler.
+   * @param configs
+   *          - The two configurations stored by the configuration updates.
+   */
+  private LoadTest(Map<String, String> options, int users,
+      ConcurrentMap<String, User> userMap,
+      AutoLoginAuthenticationHandler handler, AutoLoginConfig[] configs)
+  {
+    this.options = options;
+    this.users = users;
+    this.userMap = userMap;
+    this.handler = handler;
+    this.configs = configs;
+    filter = new AutoLoginAuthenticationFilter(handler);
+
+    for (Operation operation : Operation.values())
+    {
+      weights[operation.ordinal()] = intOption(options, operation.name,
+          operation.weight);
+      totalWeight += weights[operation.ordinal()];
+      results[operation.ordinal()] = new Result();
+    }
+
+    if (totalWeight <= 0)
+    {
+      throw new IllegalArgumentException("the sum of all weights must be > 0");
+    }
+  }
+
+  /**
+   * Run the load test.
+   * 
+   * @param args
+   *          - The options as <code>name=value</code> pairs.
+   * @throws Exception
+   *           - If the load test fails.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    Map<String, String> options = parseOptions(args);
+    int users = intOption(options, "users", 10000);
+    ConcurrentMap<String, User> userMap = StandIns.users();
+
+    for (int i = 0; i < users; i++)
+    {
+      User user = StandIns.autoLoginUser("user" + i);
+
+      userMap.put(user.getName(), user);
+    }
+
+    AutoLoginConfig[] configs = new AutoLoginConfig[2];
+
+    for (int i = 0; i < configs.length; i++)
+    {
+      configs[i] = new AutoLoginConfig();
+      configs[i].setGroups("developers, testers");
+      configs[i].setAuditEnabled(Boolean.parseBoolean(option(options,
+          "audit", "false")));
+      configs[i].setRequireHeader(Boolean.parseBoolean(option(options,
+          "require-header", "false")));
+      configs[i].setCacheTtl(300 + i);
+    }
+
+    File baseDirectory = Files.createTempDirectory("autologin-loadtest")
+        .toFile();
+    AutoLoginAuthenticationHandler handler = new AutoLoginAuthenticationHandler(
+        StandIns.userManager(userMap), StandIns.storeFactory(),
+        StandIns.adminContext(), new AutoLoginMetrics());
+
+    try
+    {
+      handler.storeConfig(configs[0]);
+      handler.init(StandIns.contextProvider(baseDirectory));
+
+      LoadTest test = new LoadTest(options, users, userMap, handler,
+          configs);
+      String executor = test.run();
+      File report = new File(option(options, "report",
+          "target/loadtest.json"));
+
+      test.writeReport(report, executor, userMap.size() - users);
+      System.out.println("Wrote " + report);
+    } finally
+    {
+      handler.close();
+      delete(baseDirectory);
+    }
+  }
+
+  /**
+   * Start the clients, wait for the warm-up and the measurement and stop the
+   * clients.
+   * 
+   * @return The kind of threads of the clients.
+   * @throws InterruptedException
+   *           - If the test is interrupted.
+   */
+  private String run() throws InterruptedException
+  {
+    int clients = intOption(options, "clients", 2000);
+    ExecutorService executor = null;
+    String kind = "virtual";
+
+    if (kind.equals(option(options, "threads", kind)))
+    {
+      executor = virtualThreadExecutor();
+    }
+
+    if (executor == null)
+    {
+      // Each client runs until the end of the test, so each one needs a thread
+      executor = Executors.newFixedThreadPool(clients);
+      kind = "platform";
+    }
+
+    System.out.println("Starting " + clients + " clients on " + kind
+        + " threads");
+
+    for (int i = 0; i < clients; i++)
+    {
+      final String remoteAddr = "10." + ((i >>> 16) & 0xff) + "."
+          + ((i >>> 8) & 0xff) + "." + (i & 0xff);
+      final String prefix = "new" + i + "-";
+
+      executor.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          runClient(remoteAddr, prefix);
+        }
+      });
+    }
+
+    Thread.sleep(TimeUnit.SECONDS.toMillis(intOption(options, "warmup", 5)));
+    long start = System.nanoTime();
+
+    recording = true;
+    Thread.sleep(TimeUnit.SECONDS.toMillis(intOption(options, "duration", 20)));
+    recording = false;
+    measuredNanos = System.nanoTime() - start;
+    running = false;
+    executor.shutdown();
+
+    if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+    {
+      System.err.println("Clients did not stop in time");
+    }
+
+    return kind;
+  }
+
+  /**
+   * Send requests until the test ends.
+   * 
+   * @param remoteAddr
+   *          - The address of the client.
+   * @param prefix
+   *          - The prefix of the names of new users created by the client.
+   */
+  private void runClient(String remoteAddr, String prefix)
+  {
+    HttpServletResponse response = StandIns.response();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    Operation[] operations = Operation.values();
+    int created = 0;
+
+    while (running)
+    {
+      int pick = random.nextInt(totalWeight);
+      int index = 0;
+
+      while (pick >= weights[index])
+      {
+        pick -= weights[index++];
+      }
+
+      Operation operation = operations[index];
+      String username;
+
+      if (operation == Operation.NEW_USER)
+      {
+        username = prefix + created++;
+      } else
+      {
+        username = "user" + random.nextInt(users);
+      }
+
+      long start = System.nanoTime();
+      boolean success;
+
+      try
+      {
+        success = execute(operation, username, remoteAddr, response);
+      } catch (RuntimeException ex)
+      {
+        success = false;
+      }
+
+      long latency = System.nanoTime() - start;
+
+      if (recording)
+      {
+        record(results[index], latency, success);
+        record(total, latency, success);
+      }
+    }
+  }
+
+  /**
+   * Send a single request.
+   * 
+   * @param operation
+   *          - The kind of request.
+   * @param username
+   *          - The name of the user.
+   * @param remoteAddr
+   *          - The address of the client.
+   * @param response
+   *          - The HTTP response.
+   * @return True if the request had the expected result.
+   */
+  private boolean execute(Operation operation, String username,
+      String remoteAddr, HttpServletResponse response)
+  {
+    Map<String, String> headers = new HashMap<String, String>();
+
+    switch (operation)
+    {
+    case KNOWN_USER:
+    case NEW_USER:
+      headers.put("X_REMOTE_USER", "/C=DE/O=Example Inc./CN=" + username);
+
+      HttpServletRequest request = StandIns.request(headers, remoteAddr);
+
+      return filter.authenticate(request, response,
+          StandIns.subject(handler, request, userMap)) != null;
+
+    case HOOK:
+      // Hooks authenticate with credentials and without the HTTP header,
+      // known auto login users are accepted by the handler anyway. If the
+      // header is required, a wrong password has to be rejected.
+      boolean requireHeader = configs[0].getRequireHeader();
+      AuthenticationResult result = handler.authenticate(
+          StandIns.request(headers, remoteAddr), response, username,
+          requireHeader ? "wrong" : "secret");
+
+      return result != null
+          && (result.getState() == AuthenticationState.SUCCESS) != requireHeader;
+
+    default:
+      // CONFIG_UPDATE, alternating between two configurations
+      handler.storeConfig(configs[configUpdates.incrementAndGet() & 1]);
+
+      return true;
+    }
+  }
+
+  /**
+   * Record the latency of a request.
+   * 
+   * @param result
+   *          - The result to update.
+   * @param latency
+   *          - The latency in nanoseconds.
+   * @param success
+   *          - True if the request had the expected result.
+   */
+  private static void record(Result result, long latency, boolean success)
+  {
+    result.latency.record(latency);
+
+    if (!success)
+    {
+      result.errors.increment();
+    }
+  }
+
+  /**
+   * Write the report.
+   * 
+   * @param file
+   *          - The report file.
+   * @param executor
+   *          - The kind of threads of the clients.
+   * @param createdUsers
+   *          - The number of users created during the test.
+   * @throws IOException
+   *           - If the report can't be written.
+   */
+  private void writeReport(File file, String executor, int createdUsers)
+      throws IOException
+  {
+    double duration = measuredNanos / 1e9;
+    StringBuilder json = new StringBuilder();
+
+    json.append("{\n");
+    json.append("  \"threads\": \"").append(executor).append("\",\n");
+    json.append("  \"clients\": ")
+        .append(intOption(options, "clients", 2000)).append(",\n");
+    json.append("  \"users\": ").append(users).append(",\n");
+    json.append("  \"createdUsers\": ").append(createdUsers).append(",\n");
+    json.append("  \"warmupSeconds\": ")
+        .append(intOption(options, "warmup", 5)).append(",\n");
+    json.append("  \"durationSeconds\": ")
+        .append(String.format(Locale.ROOT, "%.3f", duration)).append(",\n");
+    json.append("  \"percentiles\": \"upper bounds of power-of-two buckets,")
+        .append(" up to twice the actual latency\",\n");
+    json.append("  \"operations\": {\n");
+
+    for (Operation operation : Operation.values())
+    {
+      json.append("    \"").append(operation.name).append("\": ");
+      appendResult(json, results[operation.ordinal()], duration,
+          weights[operation.ordinal()]);
+      json.append(",\n");
+    }
+
+    json.setLength(json.length() - 2);
+    json.append("\n  },\n");
+    json.append("  \"total\": ");
+    appendResult(json, total, duration, totalWeight);
+    json.append("\n}\n");
+
+    File parent = file.getAbsoluteFile().getParentFile();
+
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+    {
+      throw new IOException("can't create directory " + parent);
+    }
+
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+
+    try
+    {
+      writer.write(json.toString());
+    } finally
+    {
+      writer.close();
+    }
+
+    System.out.print(json);
+  }
+
+  /**
+   * Append a result as JSON object.
+   * 
+   * @param json
+   *          - The JSON to append to.
+   * @param result
+   *          - The result.
+   * @param duration
+   *          - The measurement time in seconds.
+   * @param weight
+   *          - The weight of the result.
+   */
+  private static void appendResult(StringBuilder json, Result result,
+      double duration, int weight)
+  {
+    LatencyHistogram.Snapshot snapshot = result.latency.snapshot();
+
+    json.append("{ \"weight\": ").append(weight);
+    json.append(", \"count\": ").append(snapshot.getCount());
+    json.append(", \"errors\": ").append(result.errors.sum());
+    json.append(", \"throughput\": ").append(
+        String.format(Locale.ROOT, "%.1f", snapshot.getCount()
+            / Math.max(duration, 1e-9)));
+    json.append(", \"meanNanos\": ").append(snapshot.getMean());
+    json.append(", \"p50Nanos\": ").append(snapshot.getPercentile(50.0));
+    json.append(", \"p99Nanos\": ").append(snapshot.getPercentile(99.0));
+    json.append(", \"p999Nanos\": ").append(snapshot.getPercentile(99.9));
+    json.append(" }");
+  }
+
+  /**
+   * Create an executor starting a virtual thread for each task, if the JVM
+   * supports virtual threads.
+   * 
+   * @return The executor or null.
+   */
+  private static ExecutorService virtualThreadExecutor()
+  {
+    try
+    {
+      Method method = Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor");
+
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException ex)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Parse the options.
+   * 
+   * @param args
+   *          - The arguments of the command line.
+   * @return The options.
+   */
+  private static Map<String, String> parseOptions(String[] args)
+  {
+    Map<String, String> options = new HashMap<String, String>();
+
+    for (String arg : args)
+    {
+      for (String option : arg.trim().split("[,\\s]+"))
+      {
+        if (option.isEmpty())
+        {
+          continue;
+        }
+
+        int separator = option.indexOf('=');
+
+        if (separator <= 0)
+        {
+          throw new IllegalArgumentException("option " + option
+              + " is not of the form name=value");
+        }
+
+        options.put(option.substring(0, separator),
+            option.substring(separator + 1));
+      }
+    }
+
+    return options;
+  }
+
+  /**
+   * Get an option.
+   * 
+   * @param options
+   *          - The options.
+   * @param name
+   *          - The name of the option.
+   * @param defaultValue
+   *          - The value if the option is not given.
+   * @return The value.
+   */
+  private static String option(Map<String, String> options, String name,
+      String defaultValue)
+  {
+    String value = options.get(name);
+
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * Get a numeric option.
+   * 
+   * @param options
+   *          - The options.
+   * @param name
+   *          - The name of the option.
+   * @param defaultValue
+   *          - The value if the option is not given.
+   * @return The value.
+   */
+  private static int intOption(Map<String, String> options, String name,
+      int defaultValue)
+  {
+    int value = Integer.parseInt(option(options, name,
+        String.valueOf(defaultValue)));
+
+    if (value < 0)
+    {
+      throw new IllegalArgumentException("option " + name
+          + " must not be negative");
+    }
+
+    return value;
+  }
+
+  /**
+   * Delete a file or directory recursively.
+   * 
+   * @param file
+   *          - The file or directory.
+   */
+  private static void delete(File file)
+  {
+    File[] children = file.listFiles();
+
+    if (children != null)
+    {
+      for (File child : children)
+      {
+        delete(child);
+      }
+    }
+
+    if (!file.delete())
+    {
+      System.err.println("Can't delete " + file);
+    }
+  }
+}
@@ -0,0 +1,406 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin.bench;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+
+import sonia.scm.SCMContextProvider;
+import sonia.scm.plugins.autologin.AutoLoginAuthenticationHandler;
+import sonia.scm.store.Store;
+import sonia.scm.store.StoreFactory;
+import sonia.scm.user.User;
+import sonia.scm.user.UserManager;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.AuthenticationResult;
+import sonia.scm.web.security.AuthenticationState;
+import sonia.scm.web.security.PrivilegedAction;
+
+/**
+ * In-memory stand-ins for the SCM-Manager, servlet and Shiro interfaces used
+ * by the auto login plugin. The stand-ins are dynamic proxies implementing
+ * only the methods the plugin calls, all other methods return default values.
+ * 
+ * @author Clemens Rabe
+ */
+public final class StandIns
+{
+
+  static
+  {
+    // Required to build subjects from cached principals
+    SecurityUtils.setSecurityManager(new DefaultSecurityManager());
+  }
+
+  private StandIns()
+  {
+  }
+
+  /**
+   * Create an auto login user.
+   * 
+   * @param name
+   *          - The user name.
+   * @return The user.
+   */
+  public static User autoLoginUser(String name)
+  {
+    User user = new User();
+
+    user.setName(name);
+    user.setDisplayName(name);
+    user.setMail(name.concat("@example.com"));
+    user.setType(AutoLoginAuthenticationHandler.TYPE);
+
+    return user;
+  }
+
+  /**
+   * Create a user manager backed by the given map.
+   * 
+   * @param users
+   *          - The users keyed by their names.
+   * @return The user manager.
+   */
+  public static UserManager userManager(
+      final ConcurrentMap<String, User> users)
+  {
+    return proxy(UserManager.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        String name = method.getName();
+
+        if ("get".equals(name))
+        {
+          User user = users.get(args[0]);
+
+          return user == null ? null : user.clone();
+        } else if ("create".equals(name) || "modify".equals(name))
+        {
+          User user = (User) args[0];
+
+          users.put(user.getName(), user.clone());
+        } else if ("delete".equals(name))
+        {
+          users.remove(((User) args[0]).getName());
+        } else if ("getAll".equals(name))
+        {
+          return users.values();
+        } else if ("contains".equals(name))
+        {
+          return users.containsKey(args[0]);
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Create a store factory whose stores keep their value in memory.
+   * 
+   * @return The store factory.
+   */
+  public static StoreFactory storeFactory()
+  {
+    return proxy(StoreFactory.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        if ("getStore".equals(method.getName()))
+        {
+          return store();
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Create a context provider with the given base directory.
+   * 
+   * @param baseDirectory
+   *          - The base directory.
+   * @return The context provider.
+   */
+  public static SCMContextProvider contextProvider(final File baseDirectory)
+  {
+    return proxy(SCMContextProvider.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        if ("getBaseDirectory".equals(method.getName()))
+        {
+          return baseDirectory;
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Create an administration context running all actions directly.
+   * 
+   * @return The administration context.
+   */
+  public static AdministrationContext adminContext()
+  {
+    return proxy(AdministrationContext.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        if ("runAsAdmin".equals(method.getName())
+            && args[0] instanceof PrivilegedAction)
+        {
+          ((PrivilegedAction) args[0]).run();
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Create a HTTP request with the given headers.
+   * 
+   * @param headers
+   *          - The HTTP headers.
+   * @param remoteAddr
+   *          - The address of the client.
+   * @return The request.
+   */
+  public static HttpServletRequest request(final Map<String, String> headers,
+      final String remoteAddr)
+  {
+    final Map<String, Object> attributes = new HashMap<String, Object>();
+
+    return proxy(HttpServletRequest.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        String name = method.getName();
+
+        if ("getHeader".equals(name))
+        {
+          return headers.get(args[0]);
+        } else if ("getRemoteAddr".equals(name))
+        {
+          return remoteAddr;
+        } else if ("getAttribute".equals(name))
+        {
+          return attributes.get(args[0]);
+        } else if ("setAttribute".equals(name))
+        {
+          attributes.put((String) args[0], args[1]);
+        } else if ("removeAttribute".equals(name))
+        {
+          attributes.remove(args[0]);
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Create a HTTP response ignoring everything.
+   * 
+   * @return The response.
+   */
+  public static HttpServletResponse response()
+  {
+    return proxy(HttpServletResponse.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Create a subject whose login authenticates directly against the given
+   * handler and stores new users, as the realm of SCM-Manager does.
+   * 
+   * @param handler
+   *          - The authentication handler.
+   * @param request
+   *          - The HTTP request passed to the handler.
+   * @param users
+   *          - The users of the user manager.
+   * @return The subject.
+   */
+  public static Subject subject(final AutoLoginAuthenticationHandler handler,
+      final HttpServletRequest request, final ConcurrentMap<String, User> users)
+  {
+    final HttpServletResponse response = response();
+    final PrincipalCollection[] principals = new PrincipalCollection[1];
+
+    return proxy(Subject.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        String name = method.getName();
+
+        if ("login".equals(name))
+        {
+          UsernamePasswordToken token = (UsernamePasswordToken) args[0];
+          AuthenticationResult result = handler.authenticate(request,
+              response, token.getUsername(), new String(token.getPassword()));
+
+          if (result == null
+              || result.getState() != AuthenticationState.SUCCESS)
+          {
+            throw new AuthenticationException("login failed");
+          }
+
+          users.putIfAbsent(result.getUser().getName(), result.getUser());
+          principals[0] = new SimplePrincipalCollection(result.getUser(),
+              "scm");
+        } else if ("getPrincipals".equals(name))
+        {
+          return principals[0];
+        } else if ("isAuthenticated".equals(name))
+        {
+          return principals[0] != null;
+        } else if ("logout".equals(name))
+        {
+          principals[0] = null;
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Create a store keeping its value in memory.
+   * 
+   * @return The store.
+   */
+  private static Store<?> store()
+  {
+    final Object[] value = new Object[1];
+
+    return proxy(Store.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        if ("get".equals(method.getName()))
+        {
+          return value[0];
+        } else if ("set".equals(method.getName()))
+        {
+          value[0] = args[0];
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Get the default value of the return type of the given method.
+   * 
+   * @param method
+   *          - The method.
+   * @return The default value.
+   */
+  private static Object defaultValue(Method method)
+  {
+    Class<?> type = method.getReturnType();
+
+    if (type == boolean.class)
+    {
+      return Boolean.FALSE;
+    } else if (type == int.class)
+    {
+      return Integer.valueOf(0);
+    } else if (type == long.class)
+    {
+      return Long.valueOf(0L);
+    }
+
+    return null;
+  }
+
+  /**
+   * Create a dynamic proxy.
+   * 
+   * @param type
+   *          - The interface to implement.
+   * @param handler
+   *          - The invocation handler.
+   * @return The proxy.
+   */
+  private static <T> T proxy(Class<T> type, InvocationHandler handler)
+  {
+    return type.cast(Proxy.newProxyInstance(StandIns.class.getClassLoader(),
+        new Class<?>[] { type }, handler));
+  }
+
+  /**
+   * Create a new map of users.
+   * 
+   * @return The map of users.
+   */
+  public static ConcurrentMap<String, User> users()
+  {
+    return new ConcurrentHashMap<String, User>();
+  }
+}
@@ -0,0 +1,522 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only audit log of the auto login decisions. Request threads only put
+ * the events into a lock-free {@link RingBuffer}; if it is full, the event is
+ * dropped and counted instead of blocking the request. A background thread
+ * writes the events in batches into memory-mapped segment files of a fixed
+ * size. When a segment is full, it is truncated to its content and a new one
+ * is started. The oldest segments are deleted to keep the configured number
+ * of segments.
+ * <p>
+ * Each event is written as one line of tab separated fields: time, decision,
+ * user name, client address, header and whether the user was created.
+ * 
+ * @author Clemens Rabe
+ */
+public class AuditLog implements Closeable
+{
+
+  /** The prefix of the segment file names. */
+  public static final String SEGMENT_PREFIX = "autologin-audit-";
+
+  /** The suffix of the segment file names. */
+  public static final String SEGMENT_SUFFIX = ".log";
+
+  /** The name of the request attribute marking a created user. */
+  public static final String CREATED_ATTRIBUTE = AuditLog.class.getName()
+      + ".created";
+
+  /** The maximum number of events written in one batch. */
+  private static final int BATCH_SIZE = 1024;
+
+  /** The time in milliseconds the writer sleeps if there are no events. */
+  private static final long IDLE_INTERVAL = 50L;
+
+  /** The maximum time in milliseconds to wait for the writer on close. */
+  private static final long CLOSE_TIMEOUT = 10000L;
+
+  /** The charset of the segment files. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** the logger for AuditLog */
+  private static final Logger logger = LoggerFactory.getLogger(AuditLog.class);
+
+  /**
+   * The decisions recorded in the audit log.
+   */
+  public enum Decision
+  {
+    /** The user was logged in through the authentication handler. */
+    LOGIN,
+
+    /** The user was logged in using the principal cache. */
+    CACHED,
+
+    /** The login of the user failed. */
+    FAILED,
+
+    /** The header of an untrusted client was ignored. */
+    UNTRUSTED,
+
+    /** The user was logged in using a ticket cookie. */
+    TICKET
+  }
+
+  /** The directory of the segment files. */
+  private final File directory;
+
+  /** The size of a segment file in bytes. */
+  private final int segmentSize;
+
+  /** The maximum number of segment files. */
+  private final int maxSegments;
+
+  /** The events waiting to be written. */
+  private final RingBuffer<Event> buffer;
+
+  /** The number of dropped events. */
+  private final StripedCounter dropped = new StripedCounter();
+
+  /** The number of written events. */
+  private final AtomicLong written = new AtomicLong();
+
+  /** The background writer. */
+  private final Thread writer;
+
+  /** The flag whether the writer shall continue. */
+  private volatile boolean running = true;
+
+  /** The current segment file, only used by the writer. */
+  private File segmentFile;
+
+  /** The mapped content of the current segment, only used by the writer. */
+  private MappedByteBuffer segment;
+
+  /**
+   * Constructor. The background writer is started immediately.
+   * 
+   * @param directory
+   *          - The directory of the segment files.
+   * @param bufferSize
+   *          - The maximum number of events waiting to be written.
+   * @param segmentSize
+   *          - The size of a segment file in bytes.
+   * @param maxSegments
+   *          - The maximum number of segment files.
+   */
+  public AuditLog(File directory, int bufferSize, int segmentSize,
+      int maxSegments)
+  {
+    this.directory = directory;
+    this.buffer = new RingBuffer<Event>(bufferSize);
+    this.segmentSize = Math.max(4096, segmentSize);
+    this.maxSegments = Math.max(1, maxSegments);
+
+    writer = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        writeEvents();
+      }
+    }, "autologin-audit-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Record a decision. The call never blocks; if the buffer is full, the
+   * event is dropped.
+   * 
+   * @param decision
+   *          - The decision.
+   * @param username
+   *          - The user name or null.
+   * @param address
+   *          - The address of the client.
+   * @param header
+   *          - The name of the HTTP header carrying the identity or null.
+   * @param created
+   *          - True if the user was created by this login.
+   */
+  public void record(Decision decision, String username, String address,
+      String header, boolean created)
+  {
+    if (!running
+        || !buffer.offer(new Event(System.currentTimeMillis(), decision,
+            username, address, header, created)))
+    {
+      dropped.increment();
+    }
+  }
+
+  /**
+   * Get the directory of the segment files.
+   * 
+   * @return The directory.
+   */
+  public File getDirectory()
+  {
+    return directory;
+  }
+
+  /**
+   * Get the number of events dropped because the buffer was full.
+   * 
+   * @return The number of dropped events.
+   */
+  public long getDropped()
+  {
+    return dropped.sum();
+  }
+
+  /**
+   * Get the number of written events.
+   * 
+   * @return The number of written events.
+   */
+  public long getWritten()
+  {
+    return written.get();
+  }
+
+  /**
+   * Stop the background writer after it has written all buffered events.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    // The writer is not interrupted, as an interrupt closes the channel of a
+    // segment being mapped. It notices the flag within the idle interval.
+    running = false;
+
+    try
+    {
+      writer.join(CLOSE_TIMEOUT);
+    } catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The loop of the background writer.
+   */
+  private void writeEvents()
+  {
+    List<Event> batch = new ArrayList<Event>(BATCH_SIZE);
+    SimpleDateFormat format = new SimpleDateFormat(
+        "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+    StringBuilder line = new StringBuilder(256);
+
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    try
+    {
+      while (true)
+      {
+        if (buffer.drainTo(batch, BATCH_SIZE) == 0)
+        {
+          if (!running)
+          {
+            break;
+          }
+
+          try
+          {
+            Thread.sleep(IDLE_INTERVAL);
+          } catch (InterruptedException ex)
+          {
+            Thread.currentThread().interrupt();
+            break;
+          }
+
+          continue;
+        }
+
+        try
+        {
+          for (Event event : batch)
+          {
+            line.setLength(0);
+            event.format(line, format);
+            append(line.toString().getBytes(UTF8));
+          }
+
+          written.addAndGet(batch.size());
+        } catch (IOException ex)
+        {
+          logger.warn("can't write audit log", ex);
+          dropped.add(batch.size());
+        }
+
+        batch.clear();
+      }
+    } finally
+    {
+      finishSegment();
+    }
+  }
+
+  /**
+   * Append a line to the current segment, starting a new segment if needed.
+   * 
+   * @param bytes
+   *          - The encoded line.
+   * @throws IOException
+   *           if a new segment can't be created.
+   */
+  private void append(byte[] bytes) throws IOException
+  {
+    if (segment != null && segment.remaining() < bytes.length)
+    {
+      finishSegment();
+    }
+
+    if (segment == null)
+    {
+      startSegment();
+    }
+
+    // Lines longer than a segment are cut
+    segment.put(bytes, 0, Math.min(bytes.length, segment.remaining()));
+  }
+
+  /**
+   * Create and map a new segment file and delete the oldest segments.
+   * 
+   * @throws IOException
+   *           if the segment can't be created.
+   */
+  private void startSegment() throws IOException
+  {
+    if (!directory.isDirectory() && !directory.mkdirs())
+    {
+      throw new IOException("can't create directory " + directory);
+    }
+
+    File file;
+    long time = System.currentTimeMillis();
+
+    do
+    {
+      file = new File(directory, SEGMENT_PREFIX + time++ + SEGMENT_SUFFIX);
+    } while (file.exists());
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    try
+    {
+      segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+          segmentSize);
+      segmentFile = file;
+    } finally
+    {
+      raf.close();
+    }
+
+    deleteOldSegments();
+  }
+
+  /**
+   * Flush the current segment and truncate it to its content.
+   */
+  private void finishSegment()
+  {
+    if (segment == null)
+    {
+      return;
+    }
+
+    int length = segment.position();
+
+    segment.force();
+    segment = null;
+
+    try
+    {
+      RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw");
+
+      try
+      {
+        raf.setLength(length);
+      } finally
+      {
+        raf.close();
+      }
+    } catch (IOException ex)
+    {
+      // Platforms without support for truncating mapped files keep the
+      // trailing zeros.
+      logger.debug("can't truncate audit segment {}", segmentFile);
+    }
+
+    segmentFile = null;
+  }
+
+  /**
+   * Delete the oldest segment files exceeding the maximum number of segments.
+   */
+  private void deleteOldSegments()
+  {
+    String[] names = directory.list();
+
+    if (names == null)
+    {
+      return;
+    }
+
+    List<String> segments = new ArrayList<String>();
+
+    for (String name : names)
+    {
+      if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+      {
+        segments.add(name);
+      }
+    }
+
+    String[] sorted = segments.toArray(new String[segments.size()]);
+
+    // The names contain the creation time with the same number of digits
+    Arrays.sort(sorted);
+
+    for (int i = 0; i < sorted.length - maxSegments; i++)
+    {
+      if (!new File(directory, sorted[i]).delete())
+      {
+        logger.warn("can't delete audit segment {}", sorted[i]);
+      }
+    }
+  }
+
+  /**
+   * A recorded decision.
+   */
+  private static final class Event
+  {
+
+    /** The time of the decision. */
+    private final long time;
+
+    /** The decision. */
+    private final Decision decision;
+
+    /** The user name or null. */
+    private final String username;
+
+    /** The address of the client. */
+    private final String address;
+
+    /** The name of the HTTP header or null. */
+    private final String header;
+
+    /** The flag whether the user was created. */
+    private final boolean created;
+
+    private Event(long time, Decision decision, String username,
+        String address, String header, boolean created)
+    {
+      this.time = time;
+      this.decision = decision;
+      this.username = username;
+      this.address = address;
+      this.header = header;
+      this.created = created;
+    }
+
+    /**
+     * Format the event as a line of the audit log.
+     * 
+     * @param line
+     *          - The builder receiving the line.
+     * @param format
+     *          - The format of the time.
+     */
+    private void format(StringBuilder line, SimpleDateFormat format)
+    {
+      line.append(format.format(new Date(time))).append('\t');
+      line.append(decision.name()).append('\t');
+      appendField(line, username);
+      line.append('\t');
+      appendField(line, address);
+      line.append('\t');
+      appendField(line, header);
+      line.append('\t').append(created).append('\n');
+    }
+
+    /**
+     * Append a field, replacing control characters, so a field can't break
+     * the line structure.
+     * 
+     * @param line
+     *          - The builder receiving the line.
+     * @param value
+     *          - The value or null.
+     */
+    private static void appendField(StringBuilder line, String value)
+    {
+      if (value == null)
+      {
+        line.append('-');
+        return;
+      }
+
+      for (int i = 0; i < value.length(); i++)
+      {
+        char c = value.charAt(i);
+
+        line.append(Character.isISOControl(c) ? '?' : c);
+      }
+    }
+  }
+}
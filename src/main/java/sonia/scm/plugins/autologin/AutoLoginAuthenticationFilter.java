@@ -28,12 +28,18 @@
  */
 package sonia.scm.plugins.autologin;
 
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authc.AuthenticationException;
-import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.mgt.SecurityManager;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.Subject;
+import org.apache.shiro.subject.support.DelegatingSubject;
+import org.apache.shiro.util.ThreadContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +47,7 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import sonia.scm.plugin.ext.Extension;
+import sonia.scm.plugins.autologin.AutoLoginMetrics.Outcome;
 import sonia.scm.user.User;
 import sonia.scm.web.filter.AutoLoginModule;
 
@@ -93,34 +100,165 @@ public class AutoLoginAuthenticationFilter implements AutoLoginModule
   public User authenticate(HttpServletRequest request,
       HttpServletResponse response, Subject subject)
   {
-    String headerValue = request.getHeader(authenticationHandler.getConfig()
-        .getVariableName());
+    long start = System.nanoTime();
+
+    try
+    {
+      return authenticateRequest(request, response, subject);
+    } finally
+    {
+      authenticationHandler.getMetrics().getFilterLatency()
+          .record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Authenticate the user of the given request.
+   * 
+   * @param request
+   *          The HTTP request.
+   * @param response
+   *          The HTTP response.
+   * @param subject
+   *          The subject object.
+   * @return Return a User object or null.
+   */
+  private User authenticateRequest(HttpServletRequest request,
+      HttpServletResponse response, Subject subject)
+  {
+    AutoLoginMetrics metrics = authenticationHandler.getMetrics();
+    CompiledAutoLoginConfig config = authenticationHandler
+        .getCompiledConfig(request);
+    RemoteIdentity identity = config.resolveIdentity(request);
+    AuditLog auditLog = authenticationHandler.getComponents().getAuditLog();
     User user = null;
 
-    if (headerValue != null)
+    if (!identity.isTrusted())
+    {
+      logger.warn("Ignoring http header variable {} of untrusted client {}",
+          identity.getSource().getName(), request.getRemoteAddr());
+      metrics.increment(Outcome.UNTRUSTED_PROXY);
+
+      if (auditLog != null)
+      {
+        auditLog.record(AuditLog.Decision.UNTRUSTED, null,
+            request.getRemoteAddr(), identity.getSource().getName(), false);
+      }
+    } else if (identity.isPresent() && identity.getUsername() == null)
+    {
+      logger.debug("Ignoring http header variable {} without a user name",
+          identity.getSource().getName());
+      metrics.increment(Outcome.HEADER_MISSING);
+    } else if (identity.isPresent())
     {
-      String remoteUser = AutoLoginHelper.extractUsername(headerValue);
-      logger.debug(authenticationHandler.getConfig().getVariableName() + " => "
-          + remoteUser);
+      String key = identity.getKey();
+      LruCache<String, PrincipalCollection> principalCache = config
+          .getPrincipalCache();
+      PrincipalCollection principals = principalCache.get(key);
+
+      boolean ticket = false;
+
+      if (principals == null)
+      {
+        principals = authenticationHandler.restorePrincipals(config, key);
+      }
 
-      try
+      if (principals == null && config.getTicketEnabled())
       {
-        subject.login(new UsernamePasswordToken(remoteUser, AutoLoginHelper
-            .generateRandomPassword(30), request.getRemoteAddr()));
-        user = subject.getPrincipals().oneByType(User.class);
-      } catch (AuthenticationException ex)
+        principals = readTicket(request, config, key);
+        ticket = principals != null;
+      }
+
+      if (principals != null)
       {
-        logger.warn("Can't login user {}", remoteUser);
+        user = loginCached(request, subject, principals);
+
+        if (user == null)
+        {
+          // The realm rejects disabled users
+          principalCache.remove(key);
+        }
+      }
+
+      if (user != null)
+      {
+        metrics.increment(ticket ? Outcome.TICKET_HIT
+            : Outcome.PRINCIPAL_CACHE_HIT);
+        authenticationHandler.getComponents().recordLogin(user.getName());
+        logger.debug("Using {} of user {}", ticket ? "ticket"
+            : "cached principals", user.getName());
+
+        if (auditLog != null)
+        {
+          auditLog.record(ticket ? AuditLog.Decision.TICKET
+              : AuditLog.Decision.CACHED, user.getName(),
+              request.getRemoteAddr(), identity.getSource().getName(), false);
+        }
+      } else
+      {
+        String remoteUser = identity.getUsername();
+
+        logger.debug("{} => {}", identity.getSource().getName(), remoteUser);
+
+        AutoLoginToken token = new AutoLoginToken(remoteUser,
+            request.getRemoteAddr());
+
+        // The handler recognizes the login of the filter by the token of the
+        // request
+        request.setAttribute(AutoLoginToken.ATTRIBUTE, token);
+
+        try
+        {
+          subject.login(token);
+          user = subject.getPrincipals().oneByType(User.class);
+
+          if (user != null)
+          {
+            principalCache.put(key, subject.getPrincipals());
+
+            if (config.getTicketEnabled())
+            {
+              issueTicket(request, response, config, key,
+                  subject.getPrincipals());
+            }
+          }
+
+          if (auditLog != null)
+          {
+            AuditLog.Decision decision = user != null ? AuditLog.Decision.LOGIN
+                : AuditLog.Decision.FAILED;
+
+            auditLog.record(decision, remoteUser, request.getRemoteAddr(),
+                identity.getSource().getName(),
+                request.getAttribute(AuditLog.CREATED_ATTRIBUTE) != null);
+          }
+        } catch (AuthenticationException ex)
+        {
+          logger.warn("Can't login user {}", remoteUser);
+          metrics.increment(Outcome.LOGIN_FAILED);
+
+          if (auditLog != null)
+          {
+            auditLog.record(AuditLog.Decision.FAILED, remoteUser,
+                request.getRemoteAddr(), identity.getSource().getName(),
+                false);
+          }
+        } finally
+        {
+          request.removeAttribute(AutoLoginToken.ATTRIBUTE);
+        }
       }
     } else
     {
-      logger.debug("Can't determine auto login using http header variable {}",
-          authenticationHandler.getConfig().getVariableName());
+      logger.debug("Can't determine auto login using http header variables {}",
+          config.getHeaderSources());
+      metrics.increment(Outcome.HEADER_MISSING);
     }
 
     if (user != null)
     {
       logger.debug("Auto-Login successfull.");
+      metrics.increment(Outcome.LOGIN_SUCCESS);
     } else
     {
       logger.debug("Auto-Login failed.");
@@ -128,4 +266,133 @@ public class AutoLoginAuthenticationFilter implements AutoLoginModule
 
     return user;
   }
+
+  /**
+   * Read and verify the ticket cookie of the request and restore the
+   * principals it holds.
+   * 
+   * @param request
+   *          The HTTP request.
+   * @param config
+   *          The compiled plugin configuration.
+   * @param key
+   *          The key of the header value of the request.
+   * @return The principals of a valid ticket or null.
+   */
+  private PrincipalCollection readTicket(HttpServletRequest request,
+      CompiledAutoLoginConfig config, String key)
+  {
+    Cookie[] cookies = request.getCookies();
+
+    if (cookies != null)
+    {
+      for (Cookie cookie : cookies)
+      {
+        if (AutoLoginTicket.COOKIE_NAME.equals(cookie.getName()))
+        {
+          long now = System.currentTimeMillis();
+
+          return authenticationHandler.restorePrincipals(AutoLoginTicket
+              .decode(cookie.getValue(), key, config.getEntityTag(), now), now);
+        }
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Issue a ticket cookie holding the principals of the logged in user.
+   * 
+   * @param request
+   *          The HTTP request.
+   * @param response
+   *          The HTTP response.
+   * @param config
+   *          The compiled plugin configuration.
+   * @param key
+   *          The key of the header value of the request.
+   * @param principals
+   *          The principals created by the realm.
+   */
+  private void issueTicket(HttpServletRequest request,
+      HttpServletResponse response, CompiledAutoLoginConfig config,
+      String key, PrincipalCollection principals)
+  {
+    PrincipalRecord record = PrincipalRecord.of(principals,
+        System.currentTimeMillis() + config.getTicketLifetime());
+
+    if (record == null)
+    {
+      return;
+    }
+
+    String path = request.getContextPath();
+
+    // Cookie of the servlet API 2.5 does not support the HttpOnly flag
+    StringBuilder cookie = new StringBuilder(AutoLoginTicket.COOKIE_NAME);
+
+    cookie.append('=').append(
+        AutoLoginTicket.encode(record, key, config.getEntityTag()));
+    cookie.append("; Path=").append(
+        path == null || path.isEmpty() ? "/" : path);
+    cookie.append("; Max-Age=").append(config.getTicketLifetime() / 1000L);
+    cookie.append("; HttpOnly");
+
+    if (request.isSecure())
+    {
+      cookie.append("; Secure");
+    }
+
+    response.addHeader("Set-Cookie", cookie.toString());
+    authenticationHandler.getMetrics().increment(Outcome.TICKET_ISSUED);
+  }
+
+  /**
+   * Build an authenticated subject from cached principals, using the security
+   * manager, session and host of the given subject. The new subject replaces
+   * the given one on the current thread if it is bound there. This avoids the
+   * complete login through the realm chain for users that have been
+   * auto-logged in recently.
+   * 
+   * @param request
+   *          The HTTP request.
+   * @param subject
+   *          The subject object.
+   * @param principals
+   *          The cached or restored principals of the user.
+   * @return The user of the principals or null if the user is not active.
+   */
+  private User loginCached(HttpServletRequest request, Subject subject,
+      PrincipalCollection principals)
+  {
+    User user = principals.oneByType(User.class);
+
+    if (user == null || !user.isActive())
+    {
+      return null;
+    }
+
+    SecurityManager securityManager = subject instanceof DelegatingSubject
+        ? ((DelegatingSubject) subject).getSecurityManager()
+        : SecurityUtils.getSecurityManager();
+    Subject.Builder builder = new Subject.Builder(securityManager)
+        .principals(principals).authenticated(true)
+        .host(request.getRemoteAddr());
+    Session session = subject.getSession(false);
+
+    if (session != null)
+    {
+      builder.sessionId(session.getId());
+    }
+
+    Subject cachedSubject = builder.buildSubject();
+
+    if (ThreadContext.getSubject() == subject)
+    {
+      ThreadContext.bind(cachedSubject);
+    }
+
+    return user;
+  }
 }
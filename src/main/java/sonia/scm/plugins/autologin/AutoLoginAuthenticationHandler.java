@@ -32,22 +32,39 @@ package sonia.scm.plugins.autologin;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import sonia.scm.HandlerEvent;
 import sonia.scm.SCMContextProvider;
+import sonia.scm.event.ScmEventBus;
 import sonia.scm.plugin.ext.Extension;
+import sonia.scm.plugins.autologin.AutoLoginMetrics.Outcome;
+import sonia.scm.plugins.autologin.CompiledAutoLoginConfig.NegativeResult;
 import sonia.scm.user.User;
+import sonia.scm.user.UserEvent;
 import sonia.scm.user.UserManager;
+import sonia.scm.web.security.AdministrationContext;
 import sonia.scm.web.security.AuthenticationHandler;
 import sonia.scm.web.security.AuthenticationResult;
 
+import org.apache.shiro.subject.PrincipalCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.eventbus.Subscribe;
+
 import sonia.scm.store.Store;
 import sonia.scm.store.StoreFactory;
 
@@ -68,19 +85,60 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
   /** The type used for the store. */  
   public static final String STORETYPE = "autoLogin";
 
+  /** The store type of the profile names. */
+  public static final String PROFILES_STORETYPE = "autoLogin-profiles";
+
+  /** The prefix of the store type of a profile. */
+  public static final String PROFILE_STORETYPE_PREFIX = "autoLogin-profile-";
+
   /** the logger for AutoLoginAuthenticationHandler */
   private static final Logger logger = LoggerFactory
       .getLogger(AutoLoginAuthenticationHandler.class);
 
-  /** The configuration of the plugin. */
-  private AutoLoginConfig config;
+  /**
+   * The compiled configuration of the plugin. It is replaced as a whole, so
+   * each request works on a consistent view of the configuration.
+   */
+  private volatile CompiledAutoLoginConfig compiledConfig = CompiledAutoLoginConfig
+      .compile(new AutoLoginConfig());
+
+  /**
+   * The table selecting the profile of a request, replaced as a whole like
+   * the compiled configuration.
+   */
+  private volatile ProfileTable profileTable = new ProfileTable(
+      compiledConfig);
 
   /** The store of the configuration. */
   private Store<AutoLoginConfig> store;
 
+  /** The store of the profile names. */
+  private Store<AutoLoginProfiles> profilesStore;
+
+  /** The factory of the profile stores. */
+  private StoreFactory storeFactory;
+
   /** The user manager. */
   private UserManager userManager;
 
+  /** The context to create users with administrative privileges. */
+  private AdministrationContext adminContext;
+
+  /** The metrics of the hot path. */
+  private AutoLoginMetrics metrics;
+
+  /** The flag whether the handler is registered at the event bus. */
+  private boolean subscribed;
+
+  /** The concurrent creations of users, keyed by the user name. */
+  private final SingleFlight<String, User> provisioning = new SingleFlight<String, User>();
+
+  /** The background components, set up for each new configuration. */
+  private final AutoLoginComponents components;
+
+  /** The persisted principal caches, set by {@link #init}. */
+  private volatile WarmStartSnapshot warmStart;
+
   /**
    * Constructor.
    * 
@@ -88,13 +146,32 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
    *          - The user manager.
    * @param storeFactory
    *          - The factory to get the store.
+   * @param adminContext
+   *          - The context to create users with administrative privileges.
+   * @param metrics
+   *          - The metrics of the hot path.
    */
   @Inject
   public AutoLoginAuthenticationHandler(UserManager userManager,
-      StoreFactory storeFactory)
+      StoreFactory storeFactory, AdministrationContext adminContext,
+      AutoLoginMetrics metrics)
   {
     this.userManager = userManager;
+    this.adminContext = adminContext;
+    this.metrics = metrics;
+    this.storeFactory = storeFactory;
     store = storeFactory.getStore(AutoLoginConfig.class, STORETYPE);
+    profilesStore = storeFactory.getStore(AutoLoginProfiles.class,
+        PROFILES_STORETYPE);
+    components = new AutoLoginComponents(userManager, adminContext,
+        new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            invalidatePrincipals();
+          }
+        });
   }
 
   /**
@@ -103,12 +180,30 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
   @Override
   public void init(SCMContextProvider context)
   {
-    config = store.get();
+    AutoLoginConfig config = store.get();
 
     if (config == null)
     {
       config = new AutoLoginConfig();
     }
+
+    // Register first, so users created while the Bloom filter is built are
+    // not missed.
+    ScmEventBus.getInstance().register(this);
+    subscribed = true;
+    components.start(context.getBaseDirectory());
+    setConfig(config);
+    loadProfiles();
+
+    WarmStartSnapshot snapshot = new WarmStartSnapshot(new File(new File(
+        context.getBaseDirectory(), "config"), WarmStartSnapshot.FILENAME));
+
+    if (config.getWarmStart())
+    {
+      loadWarmStart(snapshot);
+    }
+
+    warmStart = snapshot;
   }
 
   /**
@@ -117,6 +212,91 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
   @Override
   public void close() throws IOException
   {
+    if (subscribed)
+    {
+      ScmEventBus.getInstance().unregister(this);
+      subscribed = false;
+    }
+
+    WarmStartSnapshot snapshot = warmStart;
+
+    if (snapshot != null)
+    {
+      saveWarmStart(snapshot);
+    }
+
+    components.close();
+  }
+
+  /**
+   * Restore the persisted principals of the given header key, if the
+   * snapshot of the last shutdown contains them. The restored principals are
+   * stored in the principal cache with their remaining time-to-live.
+   * 
+   * @param config
+   *          - The compiled configuration of the request.
+   * @param key
+   *          - The key of the principal cache.
+   * @return The restored principals or null.
+   */
+  public PrincipalCollection restorePrincipals(CompiledAutoLoginConfig config,
+      String key)
+  {
+    WarmStartSnapshot snapshot = warmStart;
+    PrincipalRecord record = snapshot != null ? snapshot.take(
+        config.getEntityTag(), key) : null;
+    long now = System.currentTimeMillis();
+    PrincipalCollection principals = restorePrincipals(record, now);
+
+    if (principals == null)
+    {
+      return null;
+    }
+
+    if (record.getExpires() == PrincipalRecord.NEVER)
+    {
+      config.getPrincipalCache().put(key, principals);
+    } else
+    {
+      config.getPrincipalCache().put(key, principals,
+          record.getExpires() - now);
+    }
+
+    logger.debug("restored the cached principals of user {}",
+        record.getUsername());
+
+    return principals;
+  }
+
+  /**
+   * Restore the principals of a record. The user is looked up in the user
+   * manager again, so only active auto login users are restored.
+   * 
+   * @param record
+   *          - The record or null.
+   * @param now
+   *          - The current time in milliseconds.
+   * @return The restored principals or null if the record is missing or
+   *         expired or the user is no active auto login user.
+   */
+  public PrincipalCollection restorePrincipals(PrincipalRecord record,
+      long now)
+  {
+    if (record == null || record.isExpired(now))
+    {
+      return null;
+    }
+
+    User user = userManager.get(record.getUsername());
+
+    if (user == null || !TYPE.equals(user.getType()) || !user.isActive())
+    {
+      return null;
+    }
+
+    user.setPassword(null);
+
+    return record.toPrincipals(user);
   }
 
   /**
@@ -133,40 +313,153 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
   public AuthenticationResult authenticate(HttpServletRequest request,
       HttpServletResponse response, String username, String password)
   {
-    // Extract REMOTE_USER and act only if it is the same as username
-	// Since hooks can be sent without the REMOTE_USER header, the
-	// header is only verified if available. Otherwise the user is
-	// verified the usual way.
-    String headerValue = request.getHeader(getConfig().getVariableName());
-
-    if (headerValue != null)
-    {
-      String remoteUser = AutoLoginHelper.extractUsername(headerValue);
-      
-      // No header variable -> return NOT_FOUND
-      if (remoteUser == null)
+    long start = System.nanoTime();
+
+    try
+    {
+      return authenticateUser(request, username, password);
+    } finally
+    {
+      metrics.getHandlerLatency().record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Authenticate the given user.
+   * 
+   * @param request
+   *          - The HTTP request.
+   * @param username
+   *          - The user name.
+   * @param password
+   *          - The password or the credential of the {@link AutoLoginToken}
+   *          of the request.
+   * @return The authentication result.
+   */
+  private AuthenticationResult authenticateUser(HttpServletRequest request,
+      String username, String password)
+  {
+    CompiledAutoLoginConfig config = profileTable.select(request);
+
+    // Logins of the AutoLoginAuthenticationFilter carry the credential of the
+    // AutoLoginToken stored in the request. In this case the filter has
+    // already verified the header variable and no other handler is able to
+    // authenticate the user.
+    boolean asserted = AutoLoginToken.isAsserted(request, username, password);
+    RemoteIdentity identity = config.resolveIdentity(request);
+
+    if (!asserted)
+    {
+      // The header value is rewritten to the canonical name, so the name
+      // given with the credentials has to be rewritten as well.
+      username = config.getUsernameRewriter().rewrite(username);
+
+      // Extract REMOTE_USER and act only if it is the same as username
+      // Since hooks can be sent without the REMOTE_USER header, the
+      // header is only verified if available. Otherwise the user is
+      // verified the usual way, unless the header is required. The header
+      // of untrusted clients is treated as missing.
+      if (!identity.isPresent())
       {
-        return AuthenticationResult.NOT_FOUND;
-      }
+        if (config.getRequireHeader())
+        {
+          // Leave the password to the other handlers, which reject auto
+          // login users.
+          metrics.increment(Outcome.HEADER_MISSING);
 
-      // Different user -> return NOT_FOUND
-      if (!remoteUser.equals(username))
+          return AuthenticationResult.NOT_FOUND;
+        }
+      } else
       {
-        if (logger.isDebugEnabled())
+        String remoteUser = identity.getUsername();
+
+        // No header variable -> return NOT_FOUND
+        if (remoteUser == null)
         {
-          logger.debug("remote user is {}, but user {} shall be authenticated",
-              remoteUser, username);
+          return AuthenticationResult.NOT_FOUND;
         }
 
-        return AuthenticationResult.NOT_FOUND;
+        // Different user -> return NOT_FOUND
+        if (!remoteUser.equals(username))
+        {
+          if (logger.isDebugEnabled())
+          {
+            logger.debug(
+                "remote user is {}, but user {} shall be authenticated",
+                remoteUser, username);
+          }
+
+          metrics.increment(Outcome.USER_MISMATCH);
+
+          return AuthenticationResult.NOT_FOUND;
+        }
       }
     }
 
+    boolean headerPresent = asserted || identity.isPresent();
+    boolean creatable = config.getAllowUnknown() && headerPresent;
+    UsernameBloomFilter known = components.getKnownUsers();
+    boolean missing = known != null && !known.mightContain(username);
+
+    // Names missing in the Bloom filter are definitely no auto login users
+    if (missing && !creatable)
+    {
+      metrics.increment(Outcome.BLOOM_FILTER_MISS);
+
+      return asserted ? AuthenticationResult.FAILED
+          : AuthenticationResult.NOT_FOUND;
+    }
+
     // The request originated from the AutoLoginAuthenticationFilter...
     AuthenticationResult result = null;
+    LruCache<String, NegativeResult> negativeCache = config.getNegativeCache();
+    NegativeResult negative = negativeCache.get(username);
+
+    // Skip the user manager for users known not to be authenticated here.
+    // Unknown users are only cached as long as they can't be created.
+    if (negative == NegativeResult.WRONG_TYPE
+        || (negative == NegativeResult.UNKNOWN && !creatable))
+    {
+      if (logger.isDebugEnabled())
+      {
+        logger.debug("user {} not authenticated by auto login plugin ({})",
+            username, negative);
+      }
+
+      metrics.increment(Outcome.NEGATIVE_CACHE_HIT);
+
+      return asserted ? AuthenticationResult.FAILED
+          : AuthenticationResult.NOT_FOUND;
+    }
+
+    // Users known to be missing are created, so the rate limit is checked
+    // before the user manager is asked and rejections stay cheap.
+    boolean reserved = false;
+
+    if (creatable && (missing || negative == NegativeResult.UNKNOWN))
+    {
+      if (!config.getCreationRateLimiter().tryAcquire(request.getRemoteAddr()))
+      {
+        logger.debug("creation of user {} by {} rejected by rate limit",
+            username, request.getRemoteAddr());
+        metrics.increment(Outcome.CREATION_RATE_LIMITED);
 
-    // Search for the user in the user manager
-    User user = userManager.get(username);
+        return asserted ? AuthenticationResult.FAILED
+            : AuthenticationResult.NOT_FOUND;
+      }
+
+      reserved = true;
+    }
+
+    // Search for the user in the user manager, the provisioning checks again
+    // for reserved names.
+    User user = reserved ? null : userManager.get(username);
+
+    if (known != null && !creatable
+        && (user == null || !TYPE.equals(user.getType())))
+    {
+      metrics.increment(Outcome.BLOOM_FILTER_FALSE_POSITIVE);
+    }
 
     if (user != null)
     {
@@ -181,12 +474,12 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
         }
 
         user.setPassword(null);
-
-        // Set groups
-        Set<String> groups = AutoLoginHelper.splitGroups(config.getGroups());
+        metrics.increment(Outcome.AUTHENTICATED);
+        components.recordLogin(username);
 
         // result = new AuthenticationResult(user, AuthenticationState.SUCCESS);
-        result = new AuthenticationResult(user, groups);
+        result = new AuthenticationResult(user, resolveGroups(config, identity,
+            username));
       } else
       {
         if (logger.isDebugEnabled())
@@ -194,26 +487,40 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
           logger.debug("{} is not an {} user", username, TYPE);
         }
 
-        result = AuthenticationResult.NOT_FOUND;
+        negativeCache.put(username, NegativeResult.WRONG_TYPE);
+        metrics.increment(Outcome.WRONG_TYPE);
+
+        result = asserted ? AuthenticationResult.FAILED
+            : AuthenticationResult.NOT_FOUND;
       }
     // Create user if requested and REMOTE_USER variable is set
     // (don't create users when called from a hook).
-    } else if (config.getAllowUnknown() && (headerValue != null))
+    } else if (creatable)
     {
       // Create user when enabled
-      user = createAutoLoginUser(username);
+      user = provisionAutoLoginUser(config, username, request.getRemoteAddr(),
+          reserved);
 
-      // Set groups
-      Set<String> groups = AutoLoginHelper.splitGroups(config.getGroups());
+      if (user != null)
+      {
+        // result = new AuthenticationResult(user, AuthenticationState.SUCCESS);
+        result = new AuthenticationResult(user, resolveGroups(config, identity,
+            username));
 
-      // result = new AuthenticationResult(user, AuthenticationState.SUCCESS);
-      result = new AuthenticationResult(user, groups);
+        if (logger.isDebugEnabled())
+        {
+          logger.debug("user {} successfully created by auto login plugin",
+              username);
+        }
 
-      if (logger.isDebugEnabled())
-      {
-        logger.debug("user {} successfully created by auto login plugin",
-            username);
+        metrics.increment(Outcome.AUTO_CREATED);
+        components.recordLogin(username);
+        request.setAttribute(AuditLog.CREATED_ATTRIBUTE, Boolean.TRUE);
       }
+    } else
+    {
+      negativeCache.put(username, NegativeResult.UNKNOWN);
+      metrics.increment(Outcome.UNKNOWN_USER);
     }
 
     if (result == null)
@@ -224,22 +531,163 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
             username);
       }
 
-      result = AuthenticationResult.NOT_FOUND;
+      result = asserted ? AuthenticationResult.FAILED
+          : AuthenticationResult.NOT_FOUND;
     }
 
     return result;
   }
 
   /**
-   * Set the plugin configuration and store it in the store.
+   * Get the groups of an authenticated user.
+   * 
+   * @param config
+   *          - The compiled plugin configuration.
+   * @param identity
+   *          - The identity of the client.
+   * @param username
+   *          - The user name.
+   * @return The groups of the user.
+   */
+  private Set<String> resolveGroups(CompiledAutoLoginConfig config,
+      RemoteIdentity identity, String username)
+  {
+    GroupMembership currentMembership = components.getMembership();
+    Set<String> memberGroups = currentMembership != null ? currentMembership
+        .getGroups(username) : null;
+
+    return config.getGroups(identity, username, memberGroups);
+  }
+
+  /**
+   * Invalidate the cached results of a user whenever the user is changed in
+   * the user manager.
+   * 
+   * @param event
+   *          - The user event.
+   */
+  @Subscribe
+  public void onEvent(UserEvent event)
+  {
+    HandlerEvent type = event.getEventType();
+
+    if (type == HandlerEvent.CREATE || type == HandlerEvent.MODIFY
+        || type == HandlerEvent.DELETE)
+    {
+      User user = event.getItem();
+
+      if (type != HandlerEvent.DELETE && TYPE.equals(user.getType()))
+      {
+        components.addKnownUser(user.getName());
+      }
+
+      // Only the principals of users swept for inactivity or patched from
+      // the directory file are dropped, so these background changes don't
+      // drop the principals of all other users.
+      boolean changed = components.isChangedInBackground(user.getName());
+
+      for (CompiledAutoLoginConfig config : profileTable.getConfigs())
+      {
+        config.getNegativeCache().remove(user.getName());
+      }
+
+      if (changed)
+      {
+        invalidatePrincipals(user.getName());
+      } else if (type != HandlerEvent.CREATE)
+      {
+        // The principal cache is keyed by the header value, so all entries
+        // are dropped to get rid of stale or deleted users.
+        invalidatePrincipals();
+      }
+    }
+  }
+
+  /**
+   * Drop the cached principals of all profiles, e.g. because the groups of
+   * the users changed.
+   */
+  private void invalidatePrincipals()
+  {
+    WarmStartSnapshot snapshot = warmStart;
+
+    if (snapshot != null)
+    {
+      snapshot.clear();
+    }
+
+    for (CompiledAutoLoginConfig config : profileTable.getConfigs())
+    {
+      config.getPrincipalCache().invalidateAll();
+    }
+  }
+
+  /**
+   * Drop the cached principals of the given user in all profiles.
+   * 
+   * @param username
+   *          - The user name.
+   */
+  private void invalidatePrincipals(final String username)
+  {
+    WarmStartSnapshot snapshot = warmStart;
+
+    if (snapshot != null)
+    {
+      snapshot.remove(username);
+    }
+
+    for (CompiledAutoLoginConfig config : profileTable.getConfigs())
+    {
+      final LruCache<String, PrincipalCollection> principalCache = config
+          .getPrincipalCache();
+      final List<String> keys = new ArrayList<String>();
+
+      principalCache.visit(new LruCache.Visitor<String, PrincipalCollection>()
+      {
+        @Override
+        public void visit(String key, PrincipalCollection principals,
+            long remainingMillis)
+        {
+          User cached = principals.oneByType(User.class);
+
+          if (cached != null && username.equals(cached.getName()))
+          {
+            keys.add(key);
+          }
+        }
+      });
+
+      for (String key : keys)
+      {
+        principalCache.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Set the plugin configuration and store it in the store, unless it is
+   * equal to the current configuration.
    * 
    * @param config
    *          - The plugin configuration.
+   * @return True if the configuration was changed and stored.
    */
-  public void storeConfig(AutoLoginConfig config)
+  public synchronized boolean storeConfig(AutoLoginConfig config)
   {
-    this.config = config;
+    // Saving the form unchanged must neither rewrite the store nor drop the
+    // caches of the compiled configuration.
+    if (config.equals(compiledConfig.getConfig()))
+    {
+      logger.debug("configuration unchanged, skipping store");
+
+      return false;
+    }
+
+    setConfig(config);
     store.set(config);
+
+    return true;
   }
 
   /**
@@ -249,34 +697,372 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
    */
   public AutoLoginConfig getConfig()
   {
-    return config;
+    return compiledConfig.getConfig();
+  }
+
+  /**
+   * Get the compiled plugin configuration. Callers should fetch it once per
+   * request to work on a consistent configuration.
+   * 
+   * @return The compiled plugin configuration.
+   */
+  public CompiledAutoLoginConfig getCompiledConfig()
+  {
+    return compiledConfig;
+  }
+
+  /**
+   * Get the compiled configuration of the profile selected by a request.
+   * Callers should fetch it once per request to work on a consistent
+   * configuration.
+   * 
+   * @param request
+   *          - The HTTP request.
+   * @return The compiled configuration of the profile or the default one.
+   */
+  public CompiledAutoLoginConfig getCompiledConfig(HttpServletRequest request)
+  {
+    return profileTable.select(request);
+  }
+
+  /**
+   * Get the names of all profiles.
+   * 
+   * @return The sorted names.
+   */
+  public Set<String> getProfileNames()
+  {
+    return profileTable.getProfileNames();
+  }
+
+  /**
+   * Get a profile.
+   * 
+   * @param name
+   *          - The name of the profile.
+   * @return The profile or null if it does not exist.
+   */
+  public AutoLoginProfile getProfile(String name)
+  {
+    return profileTable.getProfile(name);
+  }
+
+  /**
+   * Set a profile and store it in its own store, unless it is equal to the
+   * current profile of the same name.
+   * 
+   * @param profile
+   *          - The profile.
+   * @return True if the profile was changed and stored.
+   * @throws IllegalArgumentException
+   *           - If the profile is invalid or selects the same requests as
+   *           another profile.
+   */
+  public synchronized boolean storeProfile(AutoLoginProfile profile)
+  {
+    ProfileTable current = profileTable;
+
+    if (profile.equals(current.getProfile(profile.getName())))
+    {
+      return false;
+    }
+
+    ProfileTable table = current.with(profile);
+
+    storeFactory.getStore(AutoLoginProfile.class,
+        PROFILE_STORETYPE_PREFIX + profile.getName()).set(profile);
+
+    if (current.getProfile(profile.getName()) == null)
+    {
+      storeProfileNames(table);
+    }
+
+    profileTable = table;
+
+    return true;
+  }
+
+  /**
+   * Remove a profile and clear its store.
+   * 
+   * @param name
+   *          - The name of the profile.
+   * @return True if the profile existed.
+   */
+  public synchronized boolean removeProfile(String name)
+  {
+    ProfileTable current = profileTable;
+
+    if (current.getProfile(name) == null)
+    {
+      return false;
+    }
+
+    ProfileTable table = current.without(name);
+
+    storeProfileNames(table);
+
+    // Stores can't be deleted, so the store of the profile is overwritten
+    // with an empty profile without name, which is never loaded.
+    storeFactory.getStore(AutoLoginProfile.class,
+        PROFILE_STORETYPE_PREFIX + name).set(new AutoLoginProfile());
+    profileTable = table;
+
+    return true;
+  }
+
+  /**
+   * Load the profiles of the stores. Invalid profiles are skipped.
+   */
+  private synchronized void loadProfiles()
+  {
+    AutoLoginProfiles names = profilesStore.get();
+    ProfileTable table = profileTable;
+
+    if (names == null)
+    {
+      return;
+    }
+
+    for (String name : names.getNames())
+    {
+      AutoLoginProfile profile = storeFactory.getStore(AutoLoginProfile.class,
+          PROFILE_STORETYPE_PREFIX + name).get();
+
+      if (profile == null || profile.getName() == null)
+      {
+        logger.warn("profile {} not found", name);
+        continue;
+      }
+
+      try
+      {
+        profile.setName(name);
+        table = table.with(profile);
+      } catch (IllegalArgumentException ex)
+      {
+        logger.warn("skipping profile {}: {}", name, ex.getMessage());
+      }
+    }
+
+    profileTable = table;
+    logger.info("loaded {} profiles", table.getProfileNames().size());
+  }
+
+  /**
+   * Load the principal caches persisted on the last shutdown. Only the
+   * entries of the current configurations are kept.
+   * 
+   * @param snapshot
+   *          - The snapshot of the principal caches.
+   */
+  private void loadWarmStart(WarmStartSnapshot snapshot)
+  {
+    Set<String> entityTags = new HashSet<String>();
+
+    for (CompiledAutoLoginConfig compiled : profileTable.getConfigs())
+    {
+      entityTags.add(compiled.getEntityTag());
+    }
+
+    try
+    {
+      logger.info("loaded {} cached principals", snapshot.load(entityTags));
+    } catch (IOException ex)
+    {
+      logger.warn("can't read cached principals", ex);
+    }
+  }
+
+  /**
+   * Persist the principal caches, or remove the file if the warm start is
+   * disabled.
+   * 
+   * @param snapshot
+   *          - The snapshot of the principal caches.
+   */
+  private void saveWarmStart(WarmStartSnapshot snapshot)
+  {
+    File file = snapshot.getFile();
+
+    if (!compiledConfig.getConfig().getWarmStart())
+    {
+      if (file.exists() && !file.delete())
+      {
+        logger.warn("can't delete cached principals {}", file);
+      }
+
+      return;
+    }
+
+    try
+    {
+      logger.info("wrote {} cached principals",
+          snapshot.write(profileTable.getConfigs()));
+    } catch (IOException ex)
+    {
+      logger.warn("can't write cached principals", ex);
+    }
+  }
+
+  /**
+   * Store the names of the profiles of a table.
+   * 
+   * @param table
+   *          - The table.
+   */
+  private void storeProfileNames(ProfileTable table)
+  {
+    AutoLoginProfiles names = new AutoLoginProfiles();
+
+    names.getNames().addAll(table.getProfileNames());
+    profilesStore.set(names);
   }
 
   /**
-   * Set the plugin configuration.
+   * Set the plugin configuration. The configuration is compiled before it is
+   * published to the request threads.
    * 
    * @param config
    *          - The plugin configuration.
    */
-  public void setConfig(AutoLoginConfig config)
+  public synchronized void setConfig(AutoLoginConfig config)
+  {
+    CompiledAutoLoginConfig compiled = CompiledAutoLoginConfig.compile(config);
+
+    components.apply(compiled);
+    compiledConfig = compiled;
+    profileTable = profileTable.withDefault(compiled);
+  }
+
+  /**
+   * Get the background components: the enrichment, the group membership, the
+   * audit log, the login times, the sweeper and the Bloom filter.
+   * 
+   * @return The background components.
+   */
+  public AutoLoginComponents getComponents()
   {
-    this.config = config;
+    return components;
   }
 
   /**
-   * Create a new user and save it in the user database.
+   * Get the metrics of the hot path.
    * 
+   * @return The metrics.
+   */
+  public AutoLoginMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * Get the statistics of concurrent user creations.
+   * 
+   * @return The coalescing of concurrent user creations.
+   */
+  public SingleFlight<String, User> getProvisioning()
+  {
+    return provisioning;
+  }
+
+  /**
+   * Create a new user, which is stored by the realm. Concurrent logins of
+   * the same unknown user are coalesced, so only one thread creates the user
+   * while the others wait for and share its result.
+   * 
+   * @param config
+   *          - The compiled plugin configuration.
+   * @param username
+   *          - The user name.
+   * @param remoteAddr
+   *          - The address of the client, used for the rate limit.
+   * @param reserved
+   *          - True if a token of the rate limit has already been taken. It
+   *          is given back unless this call creates the user.
+   * @return The user object or null if the user could not be created.
+   */
+  private User provisionAutoLoginUser(final CompiledAutoLoginConfig config,
+      final String username, final String remoteAddr, final boolean reserved)
+  {
+    final AtomicBoolean created = new AtomicBoolean();
+
+    try
+    {
+      return provisioning.execute(username, new Callable<User>()
+      {
+        @Override
+        public User call()
+        {
+          // Another login may have created the user in the meantime
+          User user = userManager.get(username);
+
+          if (user == null)
+          {
+            // Only actual creations take a token of the rate limit
+            if (!reserved
+                && !config.getCreationRateLimiter().tryAcquire(remoteAddr))
+            {
+              logger.debug("creation of user {} by {} rejected by rate limit",
+                  username, remoteAddr);
+              metrics.increment(Outcome.CREATION_RATE_LIMITED);
+
+              return null;
+            }
+
+            user = createAutoLoginUser(config, username);
+            created.set(true);
+            components.addKnownUser(username);
+            // The realm of scm-manager stores the returned user
+          } else if (TYPE.equals(user.getType()))
+          {
+            user.setPassword(null);
+          } else
+          {
+            user = null;
+          }
+
+          return user;
+        }
+      }, config.getProvisioningTimeout());
+    } catch (TimeoutException ex)
+    {
+      logger.warn("timeout while waiting for the creation of user {}",
+          username);
+    } catch (ExecutionException ex)
+    {
+      logger.warn("can't create user ".concat(username), ex.getCause());
+    } catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    } finally
+    {
+      if (reserved && !created.get())
+      {
+        config.getCreationRateLimiter().release(remoteAddr);
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Create a new user object.
+   * 
+   * @param config
+   *          - The compiled plugin configuration.
    * @param username
    *          - The user name.
    * @return The user object.
    */
-  private User createAutoLoginUser(String username)
+  private User createAutoLoginUser(CompiledAutoLoginConfig config,
+      String username)
   {
     User user = new User();
 
     user.setName(username);
     user.setDisplayName(username);
-    user.setMail(username + "@" + config.getEmailDomain());
+    user.setMail(config.getMail(username));
 
     // Do not encrypt password, because this would allow others to
     // login with the common password!
@@ -284,6 +1070,15 @@ public class AutoLoginAuthenticationHandler implements AuthenticationHandler
 
     user.setType(TYPE);
 
+    // Never waits for the directory file, users created before it is loaded
+    // are patched later.
+    DirectoryEnrichment currentEnrichment = components.getEnrichment();
+
+    if (currentEnrichment != null)
+    {
+      currentEnrichment.enrich(user);
+    }
+
     return user;
   }
 }
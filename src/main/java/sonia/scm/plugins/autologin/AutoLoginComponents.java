@@ -0,0 +1,515 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sonia.scm.user.User;
+import sonia.scm.user.UserManager;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+/**
+ * Owner of the background components of the plugin: the enrichment from the
+ * directory file, the per-user groups of the membership file, the audit log,
+ * the login times with the sweeper of inactive users and the Bloom filter of
+ * auto login users. The components are started, replaced and stopped whenever
+ * the configuration changes, so the authentication handler only has to pass
+ * on each new configuration.
+ * 
+ * @author Clemens Rabe
+ */
+public class AutoLoginComponents implements Closeable
+{
+
+  /** the logger for AutoLoginComponents */
+  private static final Logger logger = LoggerFactory
+      .getLogger(AutoLoginComponents.class);
+
+  /** The minimum expected number of names of the Bloom filter. */
+  private static final int MIN_KNOWN_USERS = 1024;
+
+  /** The user manager. */
+  private final UserManager userManager;
+
+  /** The context to change users with administrative privileges. */
+  private final AdministrationContext adminContext;
+
+  /** Called whenever the membership file has been reloaded. */
+  private final Runnable membershipListener;
+
+  /** The home directory of SCM-Manager, known after start(). */
+  private File baseDirectory;
+
+  /** The configuration the components were set up with last. */
+  private volatile CompiledAutoLoginConfig config;
+
+  /** The enrichment of new users, null if it is disabled. */
+  private volatile DirectoryEnrichment enrichment;
+
+  /** The per-user groups, null if they are disabled. */
+  private volatile GroupMembership membership;
+
+  /** The audit log, null if it is disabled. */
+  private volatile AuditLog auditLog;
+
+  /** The login times of the auto login users, known after start(). */
+  private volatile LastLoginTracker lastLogins;
+
+  /** The sweeper of inactive users, null if it is disabled. */
+  private volatile UserSweeper sweeper;
+
+  /**
+   * The Bloom filter of the names of all auto login users, or null if it is
+   * disabled or not built yet.
+   */
+  private volatile UsernameBloomFilter knownUsers;
+
+  /** The lock protecting the users added while the Bloom filter is built. */
+  private final Object knownUsersLock = new Object();
+
+  /** The users added while the Bloom filter is built, null otherwise. */
+  private List<String> pendingKnownUsers;
+
+  /** The flag whether a full Bloom filter is rebuilt in the background. */
+  private final AtomicBoolean rebuildingKnownUsers = new AtomicBoolean();
+
+  /**
+   * Constructor.
+   * 
+   * @param userManager
+   *          - The user manager.
+   * @param adminContext
+   *          - The context to change users with administrative privileges.
+   * @param membershipListener
+   *          - Called whenever the membership file has been reloaded.
+   */
+  public AutoLoginComponents(UserManager userManager,
+      AdministrationContext adminContext, Runnable membershipListener)
+  {
+    this.userManager = userManager;
+    this.adminContext = adminContext;
+    this.membershipListener = membershipListener;
+  }
+
+  /**
+   * Restore the login times from the home directory of SCM-Manager. The
+   * components needing the home directory or the user manager are started by
+   * the next call of {@link #apply(CompiledAutoLoginConfig)}.
+   * 
+   * @param directory
+   *          - The home directory of SCM-Manager.
+   */
+  public synchronized void start(File directory)
+  {
+    LastLoginTracker tracker = new LastLoginTracker(new File(new File(
+        directory, "config"), LastLoginTracker.FILENAME));
+
+    try
+    {
+      logger.info("restored {} login times", tracker.load());
+    } catch (IOException ex)
+    {
+      logger.warn("can't read login times", ex);
+    }
+
+    baseDirectory = directory;
+    lastLogins = tracker;
+  }
+
+  /**
+   * Set up the components for a new configuration. Components whose settings
+   * did not change keep running.
+   * 
+   * @param compiled
+   *          - The compiled plugin configuration.
+   */
+  public synchronized void apply(CompiledAutoLoginConfig compiled)
+  {
+    CompiledAutoLoginConfig previous = config;
+    File directoryFile = compiled.getDirectoryFile();
+    DirectoryEnrichment currentEnrichment = enrichment;
+
+    config = compiled;
+
+    if (currentEnrichment == null ? directoryFile != null : !currentEnrichment
+        .getFile().equals(directoryFile))
+    {
+      enrichment = null;
+      close(currentEnrichment, "directory enrichment");
+
+      if (directoryFile != null)
+      {
+        enrichment = new DirectoryEnrichment(directoryFile, userManager,
+            adminContext);
+      }
+    }
+
+    File membershipFile = compiled.getMembershipFile();
+    GroupMembership currentMembership = membership;
+
+    if (currentMembership == null ? membershipFile != null : !currentMembership
+        .getFile().equals(membershipFile))
+    {
+      membership = null;
+      close(currentMembership, "group membership");
+
+      if (membershipFile != null)
+      {
+        membership = new GroupMembership(membershipFile, membershipListener);
+      }
+    }
+
+    // The audit log needs the home directory, so it is started after start()
+    if (baseDirectory != null
+        && (auditLog == null ? compiled.getAuditEnabled() : previous == null
+            || !compiled.hasSameAudit(previous)))
+    {
+      AuditLog currentAuditLog = auditLog;
+
+      auditLog = null;
+      close(currentAuditLog, "audit log");
+      auditLog = compiled.createAuditLog(baseDirectory);
+    }
+
+    // The sweeper needs the login times, so it is started after start()
+    LastLoginTracker tracker = lastLogins;
+    UserSweeper currentSweeper = sweeper;
+
+    if (tracker != null
+        && (currentSweeper == null ? compiled.getInactiveUserAge() > 0L
+            : !currentSweeper.hasSettings(compiled)))
+    {
+      sweeper = null;
+      close(currentSweeper, "user sweeper");
+
+      if (compiled.getInactiveUserAge() > 0L)
+      {
+        sweeper = new UserSweeper(userManager, adminContext, tracker,
+            compiled.getInactiveUserAge(), compiled.getDeleteInactiveUsers(),
+            compiled.getSweepBatchSize());
+      }
+    }
+
+    UsernameBloomFilter known = knownUsers;
+
+    // The Bloom filter must not miss users created meanwhile, so it is built
+    // once the handler receives the user events, i.e. after start()
+    if (baseDirectory != null
+        && (known == null ? compiled.getBloomFilterFpp() > 0.0 : known
+            .getFpp() != compiled.getBloomFilterFpp()))
+    {
+      rebuildKnownUsers(compiled, MIN_KNOWN_USERS);
+    }
+  }
+
+  /**
+   * Stop all components and write the login times.
+   * 
+   * @throws IOException
+   *           - If the login times can't be written.
+   */
+  @Override
+  public synchronized void close() throws IOException
+  {
+    DirectoryEnrichment currentEnrichment = enrichment;
+    GroupMembership currentMembership = membership;
+    AuditLog currentAuditLog = auditLog;
+    UserSweeper currentSweeper = sweeper;
+
+    enrichment = null;
+    membership = null;
+    auditLog = null;
+    sweeper = null;
+
+    close(currentEnrichment, "directory enrichment");
+    close(currentMembership, "group membership");
+    close(currentAuditLog, "audit log");
+    close(currentSweeper, "user sweeper");
+
+    LastLoginTracker tracker = lastLogins;
+
+    if (tracker != null)
+    {
+      tracker.flush();
+    }
+  }
+
+  /**
+   * Record a login of an auto login user for the sweep of inactive users.
+   * 
+   * @param username
+   *          - The user name.
+   */
+  public void recordLogin(String username)
+  {
+    LastLoginTracker tracker = lastLogins;
+
+    if (tracker != null)
+    {
+      tracker.record(username);
+    }
+  }
+
+  /**
+   * Check whether a user was changed by a background component, i.e. swept
+   * for inactivity or patched from the directory file. The mark of the user
+   * is removed.
+   * 
+   * @param username
+   *          - The user name.
+   * @return True if the user was changed in the background.
+   */
+  public boolean isChangedInBackground(String username)
+  {
+    UserSweeper currentSweeper = sweeper;
+    DirectoryEnrichment currentEnrichment = enrichment;
+    boolean swept = currentSweeper != null && currentSweeper.isSwept(username);
+    boolean patched = currentEnrichment != null
+        && currentEnrichment.isPatched(username);
+
+    return swept || patched;
+  }
+
+  /**
+   * Add a user to the Bloom filter of auto login users. Once the filter is
+   * full, it is rebuilt with twice the capacity in the background, as this is
+   * called by the event bus and by logins.
+   * 
+   * @param username
+   *          - The user name.
+   */
+  public void addKnownUser(String username)
+  {
+    synchronized (knownUsersLock)
+    {
+      if (pendingKnownUsers != null)
+      {
+        pendingKnownUsers.add(username);
+      }
+    }
+
+    UsernameBloomFilter known = knownUsers;
+
+    if (known != null && known.add(username)
+        && known.size() > known.getCapacity()
+        && rebuildingKnownUsers.compareAndSet(false, true))
+    {
+      final UsernameBloomFilter full = known;
+      Thread rebuilder = new Thread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            synchronized (AutoLoginComponents.this)
+            {
+              if (full == knownUsers)
+              {
+                rebuildKnownUsers(config, full.getCapacity() * 2);
+              }
+            }
+          } catch (RuntimeException ex)
+          {
+            logger.warn("can't rebuild the Bloom filter of auto login users",
+                ex);
+          } finally
+          {
+            rebuildingKnownUsers.set(false);
+          }
+        }
+      }, "autologin-bloom-filter");
+
+      rebuilder.setDaemon(true);
+      rebuilder.start();
+    }
+  }
+
+  /**
+   * Get the Bloom filter of the names of all auto login users.
+   * 
+   * @return The Bloom filter or null if it is disabled.
+   */
+  public UsernameBloomFilter getKnownUsers()
+  {
+    return knownUsers;
+  }
+
+  /**
+   * Get the audit log.
+   * 
+   * @return The audit log or null if it is disabled.
+   */
+  public AuditLog getAuditLog()
+  {
+    return auditLog;
+  }
+
+  /**
+   * Get the enrichment of new users.
+   * 
+   * @return The enrichment or null if it is disabled.
+   */
+  public DirectoryEnrichment getEnrichment()
+  {
+    return enrichment;
+  }
+
+  /**
+   * Get the per-user groups.
+   * 
+   * @return The group membership or null if it is disabled.
+   */
+  public GroupMembership getMembership()
+  {
+    return membership;
+  }
+
+  /**
+   * Get the login times of the auto login users.
+   * 
+   * @return The login times or null before start().
+   */
+  public LastLoginTracker getLastLogins()
+  {
+    return lastLogins;
+  }
+
+  /**
+   * Get the sweeper of inactive users.
+   * 
+   * @return The sweeper or null if it is disabled.
+   */
+  public UserSweeper getSweeper()
+  {
+    return sweeper;
+  }
+
+  /**
+   * Build the Bloom filter of auto login users from the user manager.
+   * 
+   * @param compiled
+   *          - The compiled plugin configuration.
+   * @param minCapacity
+   *          - The minimum expected number of names.
+   */
+  private synchronized void rebuildKnownUsers(CompiledAutoLoginConfig compiled,
+      int minCapacity)
+  {
+    if (compiled.getBloomFilterFpp() <= 0.0)
+    {
+      knownUsers = null;
+      return;
+    }
+
+    final List<String> names = new ArrayList<String>();
+
+    synchronized (knownUsersLock)
+    {
+      pendingKnownUsers = new ArrayList<String>();
+    }
+
+    adminContext.runAsAdmin(new PrivilegedAction()
+    {
+      @Override
+      public void run()
+      {
+        Collection<User> users = userManager.getAll();
+
+        if (users != null)
+        {
+          for (User user : users)
+          {
+            if (AutoLoginAuthenticationHandler.TYPE.equals(user.getType()))
+            {
+              names.add(user.getName());
+            }
+          }
+        }
+      }
+    });
+
+    UsernameBloomFilter known = new UsernameBloomFilter(Math.max(minCapacity,
+        names.size() * 2), compiled.getBloomFilterFpp());
+
+    for (String name : names)
+    {
+      known.add(name);
+    }
+
+    // Users created while the names were collected. The filter is published
+    // only once it contains them, and within the lock, so every later user is
+    // added to the published filter.
+    synchronized (knownUsersLock)
+    {
+      for (String name : pendingKnownUsers)
+      {
+        known.add(name);
+      }
+
+      pendingKnownUsers = null;
+      knownUsers = known;
+    }
+
+    logger.info("built Bloom filter of {} auto login users", names.size());
+  }
+
+  /**
+   * Stop a component, logging a failure.
+   * 
+   * @param component
+   *          - The component or null.
+   * @param name
+   *          - The name of the component for the log.
+   */
+  private static void close(Closeable component, String name)
+  {
+    if (component != null)
+    {
+      try
+      {
+        component.close();
+      } catch (IOException ex)
+      {
+        logger.warn("can't close ".concat(name), ex);
+      }
+    }
+  }
+}
@@ -29,6 +29,12 @@
 
 package sonia.scm.plugins.autologin;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
@@ -47,18 +53,108 @@ import com.google.inject.Singleton;
 public class AutoLoginConfig
 {
 
+  /** The configuration fields keyed by their XML element names. */
+  private static final SortedMap<String, Field> FIELDS = fields();
+
   @XmlElement(name = "variable-name")
   private String variableName = "X_REMOTE_USER";
 
+  @XmlElement(name = "header-sources")
+  private String headerSources = "";
+
+  @XmlElement(name = "trusted-proxies")
+  private String trustedProxies = "";
+
   @XmlElement(name = "groups")
   private String groups = "";
 
+  @XmlElement(name = "group-rules")
+  private String groupRules = "";
+
   @XmlElement(name = "allow-unknown")
   private boolean allowUnknown = true;
 
+  @XmlElement(name = "require-header")
+  private boolean requireHeader = false;
+
   @XmlElement(name = "email-domain")
   private String emailDomain = "example.com";
 
+  @XmlElement(name = "username-attribute")
+  private String usernameAttribute = "CN";
+
+  @XmlElement(name = "username-rewrite-rules")
+  private String usernameRewriteRules = "";
+
+  @XmlElement(name = "provisioning-timeout")
+  private int provisioningTimeout = 5000;
+
+  @XmlElement(name = "cache-size")
+  private int cacheSize = 1000;
+
+  @XmlElement(name = "cache-ttl")
+  private int cacheTtl = 300;
+
+  @XmlElement(name = "ticket-enabled")
+  private boolean ticketEnabled = false;
+
+  @XmlElement(name = "ticket-lifetime")
+  private int ticketLifetime = 300;
+
+  @XmlElement(name = "negative-cache-size")
+  private int negativeCacheSize = 1000;
+
+  @XmlElement(name = "negative-cache-ttl")
+  private int negativeCacheTtl = 30;
+
+  @XmlElement(name = "warm-start")
+  private boolean warmStart = true;
+
+  @XmlElement(name = "directory-file")
+  private String directoryFile = "";
+
+  @XmlElement(name = "membership-file")
+  private String membershipFile = "";
+
+  @XmlElement(name = "creation-rate")
+  private int creationRate = 0;
+
+  @XmlElement(name = "creation-burst")
+  private int creationBurst = 10;
+
+  @XmlElement(name = "creation-rate-per-address")
+  private int creationRatePerAddress = 0;
+
+  @XmlElement(name = "creation-burst-per-address")
+  private int creationBurstPerAddress = 5;
+
+  @XmlElement(name = "bloom-filter-fpp")
+  private double bloomFilterFpp = 0.01;
+
+  @XmlElement(name = "audit-enabled")
+  private boolean auditEnabled = false;
+
+  @XmlElement(name = "audit-directory")
+  private String auditDirectory = "";
+
+  @XmlElement(name = "audit-buffer-size")
+  private int auditBufferSize = 8192;
+
+  @XmlElement(name = "audit-segment-size")
+  private int auditSegmentSize = 16;
+
+  @XmlElement(name = "audit-segments")
+  private int auditSegments = 10;
+
+  @XmlElement(name = "inactive-user-days")
+  private int inactiveUserDays = 0;
+
+  @XmlElement(name = "inactive-user-action")
+  private String inactiveUserAction = "disable";
+
+  @XmlElement(name = "sweep-batch-size")
+  private int sweepBatchSize = 100;
+
   /**
    * Get the name of the HTTP header variable containing the user name.
    * 
@@ -80,6 +176,55 @@ public class AutoLoginConfig
     this.variableName = variableName;
   }
 
+  /**
+   * Get the ordered list of HTTP headers carrying the identity of the client.
+   * 
+   * @return Comma separated list of header names, each optionally followed by
+   *         a colon and the extraction mode. An empty list uses the HTTP
+   *         header variable.
+   */
+  public String getHeaderSources()
+  {
+    return headerSources;
+  }
+
+  /**
+   * Set the ordered list of HTTP headers carrying the identity of the client.
+   * 
+   * @param headerSources
+   *          - Comma separated list of header names, each optionally followed
+   *          by a colon and the extraction mode <code>plain</code> or a DN
+   *          attribute.
+   */
+  public void setHeaderSources(String headerSources)
+  {
+    this.headerSources = headerSources;
+  }
+
+  /**
+   * Get the list of trusted proxy networks. The HTTP header variable is only
+   * evaluated for requests from these networks.
+   * 
+   * @return Comma separated list of IPv4 and IPv6 networks in CIDR notation.
+   *         An empty list trusts all clients.
+   */
+  public String getTrustedProxies()
+  {
+    return trustedProxies;
+  }
+
+  /**
+   * Set the list of trusted proxy networks.
+   * 
+   * @param trustedProxies
+   *          - Comma separated list of IPv4 and IPv6 networks in CIDR
+   *          notation. An empty list trusts all clients.
+   */
+  public void setTrustedProxies(String trustedProxies)
+  {
+    this.trustedProxies = trustedProxies;
+  }
+
   /**
    * Get the comma separated list of groups for authenticated users.
    * 
@@ -100,6 +245,29 @@ public class AutoLoginConfig
     this.groups = groups;
   }
   
+  /**
+   * Get the rules mapping attributes of the client DN or the user name to
+   * groups.
+   * 
+   * @return The rules, one rule per line.
+   */
+  public String getGroupRules()
+  {
+    return groupRules;
+  }
+
+  /**
+   * Set the rules mapping attributes of the client DN or the user name to
+   * groups.
+   * 
+   * @param groupRules
+   *          - The rules, one rule per line.
+   */
+  public void setGroupRules(String groupRules)
+  {
+    this.groupRules = groupRules;
+  }
+
   /**
    * If the flag is set to true, users unknown to SCM-Manager are allowed to log
    * in.
@@ -123,6 +291,29 @@ public class AutoLoginConfig
     this.allowUnknown = allowUnknown;
   }
 
+  /**
+   * If the flag is set to true, requests without the HTTP header variable,
+   * e.g. hooks, are left to the other authentication handlers.
+   * 
+   * @return The flag whether the HTTP header variable is required.
+   */
+  public boolean getRequireHeader()
+  {
+    return requireHeader;
+  }
+
+  /**
+   * Set the flag whether the HTTP header variable is required.
+   * 
+   * @param requireHeader
+   *          - If the flag is set to true, requests without the HTTP header
+   *          variable are left to the other authentication handlers.
+   */
+  public void setRequireHeader(boolean requireHeader)
+  {
+    this.requireHeader = requireHeader;
+  }
+
   /**
    * Get the email domain of the user.
    * 
@@ -144,4 +335,725 @@ public class AutoLoginConfig
     this.emailDomain = emailDomain;
   }
 
+  /**
+   * Get the attribute of a certificate DN containing the user name.
+   * 
+   * @return The attribute, e.g., CN, UID, emailAddress or OU.
+   */
+  public String getUsernameAttribute()
+  {
+    return usernameAttribute;
+  }
+
+  /**
+   * Set the attribute of a certificate DN containing the user name.
+   * 
+   * @param usernameAttribute
+   *          - The attribute, e.g., CN, UID, emailAddress or OU.
+   */
+  public void setUsernameAttribute(String usernameAttribute)
+  {
+    this.usernameAttribute = usernameAttribute;
+  }
+
+  /**
+   * Get the rules rewriting user names to their canonical form.
+   * 
+   * @return The rules, one rule per line.
+   */
+  public String getUsernameRewriteRules()
+  {
+    return usernameRewriteRules;
+  }
+
+  /**
+   * Set the rules rewriting user names to their canonical form.
+   * 
+   * @param usernameRewriteRules
+   *          - The rules, one rule per line.
+   */
+  public void setUsernameRewriteRules(String usernameRewriteRules)
+  {
+    this.usernameRewriteRules = usernameRewriteRules;
+  }
+
+  /**
+   * Get the maximum time in milliseconds a login waits for the concurrent
+   * creation of the same user.
+   * 
+   * @return The timeout in milliseconds.
+   */
+  public int getProvisioningTimeout()
+  {
+    return provisioningTimeout;
+  }
+
+  /**
+   * Set the maximum time in milliseconds a login waits for the concurrent
+   * creation of the same user.
+   * 
+   * @param provisioningTimeout
+   *          - The timeout in milliseconds.
+   */
+  public void setProvisioningTimeout(int provisioningTimeout)
+  {
+    this.provisioningTimeout = provisioningTimeout;
+  }
+
+  /**
+   * Get the maximum number of auto-logged in users kept in the principal
+   * cache.
+   * 
+   * @return The maximum number of cached users. A value of 0 disables the
+   *         cache.
+   */
+  public int getCacheSize()
+  {
+    return cacheSize;
+  }
+
+  /**
+   * Set the maximum number of auto-logged in users kept in the principal
+   * cache.
+   * 
+   * @param cacheSize
+   *          - The maximum number of cached users. A value of 0 disables the
+   *          cache.
+   */
+  public void setCacheSize(int cacheSize)
+  {
+    this.cacheSize = cacheSize;
+  }
+
+  /**
+   * Get the time in seconds an entry is kept in the principal cache.
+   * 
+   * @return The time-to-live in seconds.
+   */
+  public int getCacheTtl()
+  {
+    return cacheTtl;
+  }
+
+  /**
+   * Set the time in seconds an entry is kept in the principal cache.
+   * 
+   * @param cacheTtl
+   *          - The time-to-live in seconds.
+   */
+  public void setCacheTtl(int cacheTtl)
+  {
+    this.cacheTtl = cacheTtl;
+  }
+
+  /**
+   * If the flag is set to true, a signed ticket cookie is issued after a
+   * successful auto login, so further requests of the client skip the login
+   * through the realm.
+   * 
+   * @return The flag whether ticket cookies are issued.
+   */
+  public boolean getTicketEnabled()
+  {
+    return ticketEnabled;
+  }
+
+  /**
+   * Set the flag whether a signed ticket cookie is issued after a successful
+   * auto login.
+   * 
+   * @param ticketEnabled
+   *          - If the flag is set to true, ticket cookies are issued.
+   */
+  public void setTicketEnabled(boolean ticketEnabled)
+  {
+    this.ticketEnabled = ticketEnabled;
+  }
+
+  /**
+   * Get the time in seconds a ticket cookie is valid.
+   * 
+   * @return The lifetime of a ticket in seconds.
+   */
+  public int getTicketLifetime()
+  {
+    return ticketLifetime;
+  }
+
+  /**
+   * Set the time in seconds a ticket cookie is valid.
+   * 
+   * @param ticketLifetime
+   *          - The lifetime of a ticket in seconds.
+   */
+  public void setTicketLifetime(int ticketLifetime)
+  {
+    this.ticketLifetime = ticketLifetime;
+  }
+
+  /**
+   * Get the maximum number of users kept in the negative cache. The negative
+   * cache holds users that are unknown or not auto login users.
+   * 
+   * @return The maximum number of cached users. A value of 0 disables the
+   *         cache.
+   */
+  public int getNegativeCacheSize()
+  {
+    return negativeCacheSize;
+  }
+
+  /**
+   * Set the maximum number of users kept in the negative cache.
+   * 
+   * @param negativeCacheSize
+   *          - The maximum number of cached users. A value of 0 disables the
+   *          cache.
+   */
+  public void setNegativeCacheSize(int negativeCacheSize)
+  {
+    this.negativeCacheSize = negativeCacheSize;
+  }
+
+  /**
+   * Get the time in seconds an entry is kept in the negative cache.
+   * 
+   * @return The time-to-live in seconds.
+   */
+  public int getNegativeCacheTtl()
+  {
+    return negativeCacheTtl;
+  }
+
+  /**
+   * Set the time in seconds an entry is kept in the negative cache.
+   * 
+   * @param negativeCacheTtl
+   *          - The time-to-live in seconds.
+   */
+  public void setNegativeCacheTtl(int negativeCacheTtl)
+  {
+    this.negativeCacheTtl = negativeCacheTtl;
+  }
+
+  /**
+   * Get the flag whether the cached principals are kept across restarts.
+   * 
+   * @return The flag whether the principal caches are persisted.
+   */
+  public boolean getWarmStart()
+  {
+    return warmStart;
+  }
+
+  /**
+   * Set the flag whether the cached principals are kept across restarts.
+   * 
+   * @param warmStart
+   *          - If the flag is set to true, the principal caches are written
+   *          to a file on shutdown and restored on startup.
+   */
+  public void setWarmStart(boolean warmStart)
+  {
+    this.warmStart = warmStart;
+  }
+
+  /**
+   * Get the LDIF or CSV file with the display names and mail addresses of new
+   * users.
+   * 
+   * @return The path of the file. An empty path disables the enrichment.
+   */
+  public String getDirectoryFile()
+  {
+    return directoryFile;
+  }
+
+  /**
+   * Set the LDIF or CSV file with the display names and mail addresses of new
+   * users.
+   * 
+   * @param directoryFile
+   *          - The path of the file. An empty path disables the enrichment.
+   */
+  public void setDirectoryFile(String directoryFile)
+  {
+    this.directoryFile = directoryFile;
+  }
+
+  /**
+   * Get the file with the groups of each user.
+   * 
+   * @return The path of the file. An empty path disables per-user groups.
+   */
+  public String getMembershipFile()
+  {
+    return membershipFile;
+  }
+
+  /**
+   * Set the file with the groups of each user.
+   * 
+   * @param membershipFile
+   *          - The path of the file. An empty path disables per-user groups.
+   */
+  public void setMembershipFile(String membershipFile)
+  {
+    this.membershipFile = membershipFile;
+  }
+
+  /**
+   * Get the maximum number of users created per minute.
+   * 
+   * @return The number of users per minute. A value of 0 disables the limit.
+   */
+  public int getCreationRate()
+  {
+    return creationRate;
+  }
+
+  /**
+   * Set the maximum number of users created per minute.
+   * 
+   * @param creationRate
+   *          - The number of users per minute. A value of 0 disables the
+   *          limit.
+   */
+  public void setCreationRate(int creationRate)
+  {
+    this.creationRate = creationRate;
+  }
+
+  /**
+   * Get the number of users that may be created at once.
+   * 
+   * @return The burst size of the creation rate limit.
+   */
+  public int getCreationBurst()
+  {
+    return creationBurst;
+  }
+
+  /**
+   * Set the number of users that may be created at once.
+   * 
+   * @param creationBurst
+   *          - The burst size of the creation rate limit.
+   */
+  public void setCreationBurst(int creationBurst)
+  {
+    this.creationBurst = creationBurst;
+  }
+
+  /**
+   * Get the maximum number of users created per minute for a single client
+   * address.
+   * 
+   * @return The number of users per minute. A value of 0 disables the limit.
+   */
+  public int getCreationRatePerAddress()
+  {
+    return creationRatePerAddress;
+  }
+
+  /**
+   * Set the maximum number of users created per minute for a single client
+   * address.
+   * 
+   * @param creationRatePerAddress
+   *          - The number of users per minute. A value of 0 disables the
+   *          limit.
+   */
+  public void setCreationRatePerAddress(int creationRatePerAddress)
+  {
+    this.creationRatePerAddress = creationRatePerAddress;
+  }
+
+  /**
+   * Get the number of users that may be created at once for a single client
+   * address.
+   * 
+   * @return The burst size of the creation rate limit per address.
+   */
+  public int getCreationBurstPerAddress()
+  {
+    return creationBurstPerAddress;
+  }
+
+  /**
+   * Set the number of users that may be created at once for a single client
+   * address.
+   * 
+   * @param creationBurstPerAddress
+   *          - The burst size of the creation rate limit per address.
+   */
+  public void setCreationBurstPerAddress(int creationBurstPerAddress)
+  {
+    this.creationBurstPerAddress = creationBurstPerAddress;
+  }
+
+  /**
+   * Get the false-positive probability of the Bloom filter of auto login
+   * users.
+   * 
+   * @return The false-positive probability. A value of 0 disables the filter.
+   */
+  public double getBloomFilterFpp()
+  {
+    return bloomFilterFpp;
+  }
+
+  /**
+   * Set the false-positive probability of the Bloom filter of auto login
+   * users.
+   * 
+   * @param bloomFilterFpp
+   *          - The false-positive probability between 0 and 1. A value of 0
+   *          disables the filter.
+   */
+  public void setBloomFilterFpp(double bloomFilterFpp)
+  {
+    this.bloomFilterFpp = bloomFilterFpp;
+  }
+
+  /**
+   * Get the flag whether the auto login decisions are written to the audit
+   * log.
+   * 
+   * @return The flag whether the audit log is enabled.
+   */
+  public boolean getAuditEnabled()
+  {
+    return auditEnabled;
+  }
+
+  /**
+   * Set the flag whether the auto login decisions are written to the audit
+   * log.
+   * 
+   * @param auditEnabled
+   *          - If the flag is set to true, the audit log is written.
+   */
+  public void setAuditEnabled(boolean auditEnabled)
+  {
+    this.auditEnabled = auditEnabled;
+  }
+
+  /**
+   * Get the directory of the audit log.
+   * 
+   * @return The path of the directory. An empty path uses the directory
+   *         autologin-audit in the SCM-Manager home directory.
+   */
+  public String getAuditDirectory()
+  {
+    return auditDirectory;
+  }
+
+  /**
+   * Set the directory of the audit log.
+   * 
+   * @param auditDirectory
+   *          - The path of the directory. An empty path uses the directory
+   *          autologin-audit in the SCM-Manager home directory.
+   */
+  public void setAuditDirectory(String auditDirectory)
+  {
+    this.auditDirectory = auditDirectory;
+  }
+
+  /**
+   * Get the maximum number of audit events waiting to be written.
+   * 
+   * @return The size of the audit buffer.
+   */
+  public int getAuditBufferSize()
+  {
+    return auditBufferSize;
+  }
+
+  /**
+   * Set the maximum number of audit events waiting to be written. Further
+   * events are dropped.
+   * 
+   * @param auditBufferSize
+   *          - The size of the audit buffer.
+   */
+  public void setAuditBufferSize(int auditBufferSize)
+  {
+    this.auditBufferSize = auditBufferSize;
+  }
+
+  /**
+   * Get the size of an audit log segment file.
+   * 
+   * @return The size in megabytes.
+   */
+  public int getAuditSegmentSize()
+  {
+    return auditSegmentSize;
+  }
+
+  /**
+   * Set the size of an audit log segment file.
+   * 
+   * @param auditSegmentSize
+   *          - The size in megabytes.
+   */
+  public void setAuditSegmentSize(int auditSegmentSize)
+  {
+    this.auditSegmentSize = auditSegmentSize;
+  }
+
+  /**
+   * Get the number of audit log segment files to keep.
+   * 
+   * @return The number of segment files.
+   */
+  public int getAuditSegments()
+  {
+    return auditSegments;
+  }
+
+  /**
+   * Set the number of audit log segment files to keep.
+   * 
+   * @param auditSegments
+   *          - The number of segment files.
+   */
+  public void setAuditSegments(int auditSegments)
+  {
+    this.auditSegments = auditSegments;
+  }
+
+  /**
+   * Get the number of days without a login after which an auto login user is
+   * disabled or removed.
+   * 
+   * @return The number of days or 0 if inactive users are kept.
+   */
+  public int getInactiveUserDays()
+  {
+    return inactiveUserDays;
+  }
+
+  /**
+   * Set the number of days without a login after which an auto login user is
+   * disabled or removed.
+   * 
+   * @param inactiveUserDays
+   *          - The number of days or 0 to keep inactive users.
+   */
+  public void setInactiveUserDays(int inactiveUserDays)
+  {
+    this.inactiveUserDays = inactiveUserDays;
+  }
+
+  /**
+   * Get the action applied to inactive auto login users.
+   * 
+   * @return The action, either disable or delete.
+   */
+  public String getInactiveUserAction()
+  {
+    return inactiveUserAction;
+  }
+
+  /**
+   * Set the action applied to inactive auto login users.
+   * 
+   * @param inactiveUserAction
+   *          - The action, either disable or delete.
+   */
+  public void setInactiveUserAction(String inactiveUserAction)
+  {
+    this.inactiveUserAction = inactiveUserAction;
+  }
+
+  /**
+   * Get the number of users checked by each step of the inactive user sweep.
+   * 
+   * @return The number of users per step.
+   */
+  public int getSweepBatchSize()
+  {
+    return sweepBatchSize;
+  }
+
+  /**
+   * Set the number of users checked by each step of the inactive user sweep.
+   * 
+   * @param sweepBatchSize
+   *          - The number of users per step.
+   */
+  public void setSweepBatchSize(int sweepBatchSize)
+  {
+    this.sweepBatchSize = sweepBatchSize;
+  }
+
+  /**
+   * Get the configuration values as strings, keyed by their XML element names.
+   * 
+   * @return The configuration values sorted by their names.
+   */
+  SortedMap<String, String> values()
+  {
+    SortedMap<String, String> values = new TreeMap<String, String>();
+
+    try
+    {
+      for (Map.Entry<String, Field> entry : FIELDS.entrySet())
+      {
+        values.put(entry.getKey(),
+            String.valueOf(entry.getValue().get(this)));
+      }
+    } catch (IllegalAccessException ex)
+    {
+      throw new IllegalStateException("can't read configuration", ex);
+    }
+
+    return values;
+  }
+
+  /**
+   * Create a copy of this configuration with some values changed.
+   * 
+   * @param values
+   *          - The new values as strings, keyed by their XML element names.
+   * @return The copy.
+   * @throws IllegalArgumentException
+   *           - If a name is unknown or a value can't be converted.
+   */
+  AutoLoginConfig copyWith(Map<String, String> values)
+  {
+    AutoLoginConfig copy = new AutoLoginConfig();
+
+    try
+    {
+      for (Field field : FIELDS.values())
+      {
+        field.set(copy, field.get(this));
+      }
+
+      for (Map.Entry<String, String> entry : values.entrySet())
+      {
+        Field field = FIELDS.get(entry.getKey());
+
+        if (field == null)
+        {
+          throw new IllegalArgumentException("unknown configuration value "
+              + entry.getKey());
+        }
+
+        field.set(copy, convert(entry.getKey(), field.getType(),
+            entry.getValue()));
+      }
+    } catch (IllegalAccessException ex)
+    {
+      throw new IllegalStateException("can't copy configuration", ex);
+    }
+
+    return copy;
+  }
+
+  /**
+   * Two configurations are equal if all their values are equal.
+   */
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj)
+    {
+      return true;
+    }
+
+    if (!(obj instanceof AutoLoginConfig))
+    {
+      return false;
+    }
+
+    return values().equals(((AutoLoginConfig) obj).values());
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return values().hashCode();
+  }
+
+  /**
+   * Convert a string to the type of a configuration field.
+   * 
+   * @param name
+   *          - The XML element name of the field.
+   * @param type
+   *          - The type of the field.
+   * @param value
+   *          - The string.
+   * @return The converted value.
+   * @throws IllegalArgumentException
+   *           - If the string can't be converted.
+   */
+  private static Object convert(String name, Class<?> type, String value)
+  {
+    if (type == String.class)
+    {
+      return value == null ? "" : value;
+    }
+
+    String trimmed = value == null ? "" : value.trim();
+
+    try
+    {
+      if (type == boolean.class)
+      {
+        if ("true".equalsIgnoreCase(trimmed)
+            || "false".equalsIgnoreCase(trimmed))
+        {
+          return Boolean.valueOf(trimmed);
+        }
+      } else if (type == int.class)
+      {
+        return Integer.valueOf(trimmed);
+      } else if (type == double.class)
+      {
+        Double number = Double.valueOf(trimmed);
+
+        if (!number.isNaN() && !number.isInfinite())
+        {
+          return number;
+        }
+      }
+    } catch (NumberFormatException ex)
+    {
+      // reported below
+    }
+
+    throw new IllegalArgumentException("invalid value " + value + " of "
+        + name);
+  }
+
+  /**
+   * Collect the configuration fields.
+   * 
+   * @return The fields keyed by their XML element names.
+   */
+  private static SortedMap<String, Field> fields()
+  {
+    SortedMap<String, Field> fields = new TreeMap<String, Field>();
+
+    for (Field field : AutoLoginConfig.class.getDeclaredFields())
+    {
+      XmlElement element = field.getAnnotation(XmlElement.class);
+
+      if (element != null && !Modifier.isStatic(field.getModifiers()))
+      {
+        field.setAccessible(true);
+        fields.put(element.name(), field);
+      }
+    }
+
+    return fields;
+  }
+
 }
@@ -38,13 +38,24 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Ressource for the configuration.
+ * Ressource for the configuration. The configuration carries an entity tag
+ * derived from its values, which is checked against the
+ * <code>If-None-Match</code> and <code>If-Match</code> headers of the
+ * request. Single values can be changed by posting them form encoded, using
+ * the XML element names as parameter names.
  * 
  * @author Clemens Rabe
  */
@@ -70,29 +81,135 @@ public class AutoLoginConfigRessource
   }
 
   /**
-   * Get the configuration.
+   * Get the configuration, or 304 Not Modified if the client already has the
+   * current one.
    * 
+   * @param request
+   *          - The request with the preconditions.
    * @return The configuration.
    */
   @GET
   @Produces(
   { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
-  public AutoLoginConfig getConfig()
+  public Response getConfig(@Context Request request)
   {
-    return authenticationHandler.getConfig();
+    CompiledAutoLoginConfig config = authenticationHandler.getCompiledConfig();
+    EntityTag tag = new EntityTag(config.getEntityTag());
+    ResponseBuilder builder = request.evaluatePreconditions(tag);
+
+    if (builder == null)
+    {
+      builder = Response.ok(config.getConfig());
+    }
+
+    return builder.tag(tag).build();
   }
 
   /**
-   * Set the configuration.
+   * Set the configuration. With an <code>If-Match</code> header, the
+   * configuration is only set if the current one still has the given tag.
    */
   @POST
   @Consumes(
   { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
-  public Response setConfig(@Context UriInfo uriInfo, AutoLoginConfig config)
-      throws IOException
+  public synchronized Response setConfig(@Context UriInfo uriInfo,
+      @Context Request request, AutoLoginConfig config) throws IOException
+  {
+    ResponseBuilder builder = evaluatePreconditions(request);
+
+    if (builder != null)
+    {
+      return builder.build();
+    }
+
+    return store(uriInfo, config);
+  }
+
+  /**
+   * Change single values of the configuration, all other values are kept.
+   * With an <code>If-Match</code> header, the values are only changed if the
+   * current configuration still has the given tag.
+   * 
+   * @param uriInfo
+   *          - The URI of the request.
+   * @param request
+   *          - The request with the preconditions.
+   * @param values
+   *          - The new values keyed by their XML element names.
+   * @return 201 Created, or 400 Bad Request if a value is unknown or invalid.
+   */
+  @POST
+  @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+  public synchronized Response updateConfig(@Context UriInfo uriInfo,
+      @Context Request request, MultivaluedMap<String, String> values)
+  {
+    ResponseBuilder builder = evaluatePreconditions(request);
+
+    if (builder != null)
+    {
+      return builder.build();
+    }
+
+    Map<String, String> changes = new HashMap<String, String>();
+
+    for (Map.Entry<String, List<String>> value : values.entrySet())
+    {
+      List<String> list = value.getValue();
+
+      changes.put(value.getKey(),
+          list.isEmpty() ? "" : list.get(list.size() - 1));
+    }
+
+    AutoLoginConfig config;
+
+    try
+    {
+      config = authenticationHandler.getConfig().copyWith(changes);
+    } catch (IllegalArgumentException ex)
+    {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(ex.getMessage()).type(MediaType.TEXT_PLAIN).build();
+    }
+
+    return store(uriInfo, config);
+  }
+
+  /**
+   * Evaluate the preconditions of a change against the current
+   * configuration.
+   * 
+   * @param request
+   *          - The request with the preconditions.
+   * @return The response if a precondition failed, null otherwise.
+   */
+  private ResponseBuilder evaluatePreconditions(Request request)
+  {
+    EntityTag tag = new EntityTag(authenticationHandler.getCompiledConfig()
+        .getEntityTag());
+    ResponseBuilder builder = request.evaluatePreconditions(tag);
+
+    return builder == null ? null : builder.tag(tag);
+  }
+
+  /**
+   * Store a configuration. The store is not written if the configuration is
+   * unchanged.
+   * 
+   * @param uriInfo
+   *          - The URI of the request.
+   * @param config
+   *          - The configuration.
+   * @return 201 Created with the tag of the new configuration.
+   */
+  private Response store(UriInfo uriInfo, AutoLoginConfig config)
   {
     authenticationHandler.storeConfig(config);
-    return Response.created(uriInfo.getRequestUri()).build();
+
+    return Response
+        .created(uriInfo.getRequestUri())
+        .tag(
+            new EntityTag(authenticationHandler.getCompiledConfig()
+                .getEntityTag())).build();
   }
 
 }
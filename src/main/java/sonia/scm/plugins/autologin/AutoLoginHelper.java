@@ -41,6 +41,16 @@ import java.util.Set;
 public class AutoLoginHelper
 {
 
+  /** Visitor ignoring the attributes of a DN. */
+  private static final DistinguishedNameParser.Visitor IGNORE =
+      new DistinguishedNameParser.Visitor()
+      {
+        @Override
+        public void visit(String type, String value)
+        {
+        }
+      };
+
   /**
    * Extract the username from the given string. The string contains either the
    * username or a certificate DN. In this case, the CN element is extracted and
@@ -52,24 +62,39 @@ public class AutoLoginHelper
    */
   public static String extractUsername(String remoteUser)
   {
-    String username = remoteUser;
+    return extractUsername(remoteUser, DistinguishedNameParser.Attribute.CN);
+  }
 
+  /**
+   * Extract the username from the given string. The string contains either the
+   * username or a certificate DN in the OpenSSL slash notation or in the comma
+   * separated notation of RFC 4514. In this case, the given attribute is
+   * extracted and returned as the username.
+   * 
+   * @param remoteUser
+   *          - The value of the HTTP header variable.
+   * @param attribute
+   *          - The attribute of the DN containing the user name.
+   * @return The extracted user name. If the given string is empty, the user
+   *         name 'anonymous' is returned. If the string is not a DN, the string
+   *         itself is returned. If it is a DN without the attribute, null is
+   *         returned.
+   */
+  public static String extractUsername(String remoteUser,
+      DistinguishedNameParser.Attribute attribute)
+  {
     // No X_REMOTE_USER variable
-    if (username == null || username.isEmpty())
+    if (remoteUser == null || remoteUser.isEmpty())
     {
-      username = "anonymous";
+      return "anonymous";
     }
 
-    // Check for CN= part
-    if (username.contains("CN="))
-    {
-      username = username.substring(username.indexOf("CN=") + 3);
+    String username = DistinguishedNameParser.extract(remoteUser, attribute);
 
-      // End with '/' or end of string
-      if (username.contains("/"))
-      {
-        username = username.substring(0, username.indexOf("/"));
-      }
+    if (username == null || username.isEmpty())
+    {
+      username = DistinguishedNameParser.visit(remoteUser, IGNORE) ? null
+          : remoteUser;
     }
 
     return username;
@@ -96,6 +121,29 @@ public class AutoLoginHelper
     return new String(text);
   }
 
+  /**
+   * Encode the first bytes of the given array as lower case hexadecimal
+   * string.
+   * 
+   * @param bytes
+   *          - The bytes.
+   * @param length
+   *          - The number of bytes to encode.
+   * @return The hexadecimal string.
+   */
+  public static String toHex(byte[] bytes, int length)
+  {
+    char[] text = new char[length * 2];
+
+    for (int i = 0; i < length; i++)
+    {
+      text[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+      text[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+    }
+
+    return new String(text);
+  }
+
   /**
    * Split the given comma separated string and return a set of strings.
    * 
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.google.inject.Singleton;
+
+/**
+ * Low-overhead metrics of the auto login hot path. Counters and histograms
+ * are lock-free and can be updated from any request thread.
+ * 
+ * @author Clemens Rabe
+ */
+@Singleton
+public class AutoLoginMetrics
+{
+
+  /**
+   * The outcomes counted by the filter and the authentication handler.
+   */
+  public enum Outcome
+  {
+    /** The filter logged in a user. */
+    LOGIN_SUCCESS,
+
+    /** The request did not carry the HTTP header variable. */
+    HEADER_MISSING,
+
+    /** The request did not originate from a trusted proxy. */
+    UNTRUSTED_PROXY,
+
+    /** The login through Shiro failed. */
+    LOGIN_FAILED,
+
+    /** The filter used cached principals. */
+    PRINCIPAL_CACHE_HIT,
+
+    /** The filter used a valid ticket cookie. */
+    TICKET_HIT,
+
+    /** The filter issued a ticket cookie. */
+    TICKET_ISSUED,
+
+    /** The handler authenticated an existing user. */
+    AUTHENTICATED,
+
+    /** The handler created a new user. */
+    AUTO_CREATED,
+
+    /** The header variable names another user. */
+    USER_MISMATCH,
+
+    /** The user is not an auto login user. */
+    WRONG_TYPE,
+
+    /** The user is unknown and can't be created. */
+    UNKNOWN_USER,
+
+    /** The handler used the negative cache. */
+    NEGATIVE_CACHE_HIT,
+
+    /** The user name is definitely missing in the Bloom filter. */
+    BLOOM_FILTER_MISS,
+
+    /** The Bloom filter contained a user that is no auto login user. */
+    BLOOM_FILTER_FALSE_POSITIVE,
+
+    /** The creation of a user was rejected by the rate limit. */
+    CREATION_RATE_LIMITED
+  }
+
+  /** The counters of the outcomes. */
+  private final Map<Outcome, StripedCounter> counters = new EnumMap<Outcome, StripedCounter>(
+      Outcome.class);
+
+  /** The latencies of the filter. */
+  private final LatencyHistogram filterLatency = new LatencyHistogram();
+
+  /** The latencies of the authentication handler. */
+  private final LatencyHistogram handlerLatency = new LatencyHistogram();
+
+  /**
+   * Constructor.
+   */
+  public AutoLoginMetrics()
+  {
+    for (Outcome outcome : Outcome.values())
+    {
+      counters.put(outcome, new StripedCounter());
+    }
+  }
+
+  /**
+   * Count the given outcome.
+   * 
+   * @param outcome
+   *          - The outcome.
+   */
+  public void increment(Outcome outcome)
+  {
+    counters.get(outcome).increment();
+  }
+
+  /**
+   * Get the number of times the given outcome has been counted.
+   * 
+   * @param outcome
+   *          - The outcome.
+   * @return The count.
+   */
+  public long get(Outcome outcome)
+  {
+    return counters.get(outcome).sum();
+  }
+
+  /**
+   * Get the latencies of the filter.
+   * 
+   * @return The latency histogram of the filter.
+   */
+  public LatencyHistogram getFilterLatency()
+  {
+    return filterLatency;
+  }
+
+  /**
+   * Get the latencies of the authentication handler.
+   * 
+   * @return The latency histogram of the authentication handler.
+   */
+  public LatencyHistogram getHandlerLatency()
+  {
+    return handlerLatency;
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * A named configuration of the AutoLogin plugin, used instead of the default
+ * configuration for requests to the given host names and path prefixes.
+ * 
+ * @author Clemens Rabe
+ */
+@XmlRootElement(name = "profile")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class AutoLoginProfile
+{
+
+  @XmlElement(name = "name")
+  private String name;
+
+  @XmlElement(name = "hosts")
+  private String hosts = "";
+
+  @XmlElement(name = "path-prefixes")
+  private String pathPrefixes = "";
+
+  @XmlElement(name = "config")
+  private AutoLoginConfig config = new AutoLoginConfig();
+
+  /**
+   * Get the name of the profile.
+   * 
+   * @return The name.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Set the name of the profile.
+   * 
+   * @param name
+   *          - The name, consisting of letters, digits, '-' and '_'.
+   */
+  public void setName(String name)
+  {
+    this.name = name;
+  }
+
+  /**
+   * Get the host names selecting the profile.
+   * 
+   * @return The comma separated list of host names. An empty list selects
+   *         all hosts.
+   */
+  public String getHosts()
+  {
+    return hosts;
+  }
+
+  /**
+   * Set the host names selecting the profile.
+   * 
+   * @param hosts
+   *          - The comma separated list of host names. An empty list selects
+   *          all hosts.
+   */
+  public void setHosts(String hosts)
+  {
+    this.hosts = hosts;
+  }
+
+  /**
+   * Get the path prefixes selecting the profile.
+   * 
+   * @return The comma separated list of path prefixes below the context path.
+   *         An empty list selects all paths.
+   */
+  public String getPathPrefixes()
+  {
+    return pathPrefixes;
+  }
+
+  /**
+   * Set the path prefixes selecting the profile.
+   * 
+   * @param pathPrefixes
+   *          - The comma separated list of path prefixes below the context
+   *          path, e.g. /git/dept-a. An empty list selects all paths.
+   */
+  public void setPathPrefixes(String pathPrefixes)
+  {
+    this.pathPrefixes = pathPrefixes;
+  }
+
+  /**
+   * Get the configuration of the profile.
+   * 
+   * @return The configuration.
+   */
+  public AutoLoginConfig getConfig()
+  {
+    return config;
+  }
+
+  /**
+   * Set the configuration of the profile.
+   * 
+   * @param config
+   *          - The configuration.
+   */
+  public void setConfig(AutoLoginConfig config)
+  {
+    this.config = config;
+  }
+
+  /**
+   * Two profiles are equal if their names, selectors and configurations are
+   * equal.
+   */
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj)
+    {
+      return true;
+    }
+
+    if (!(obj instanceof AutoLoginProfile))
+    {
+      return false;
+    }
+
+    AutoLoginProfile other = (AutoLoginProfile) obj;
+
+    return equal(name, other.name) && equal(hosts, other.hosts)
+        && equal(pathPrefixes, other.pathPrefixes)
+        && equal(config, other.config);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return name == null ? 0 : name.hashCode();
+  }
+
+  /**
+   * Compare two values, which may be null.
+   * 
+   * @param a
+   *          - The first value.
+   * @param b
+   *          - The second value.
+   * @return True if both are null or equal.
+   */
+  private static boolean equal(Object a, Object b)
+  {
+    return a == null ? b == null : a.equals(b);
+  }
+}
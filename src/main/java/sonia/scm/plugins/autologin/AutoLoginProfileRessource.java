@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * Ressource for the profiles, each selected by host names and path prefixes
+ * and carrying a configuration of its own.
+ * 
+ * @author Clemens Rabe
+ */
+@Singleton
+@Path("config/plugins/autologin/profiles")
+public class AutoLoginProfileRessource
+{
+
+  /** The authentication handler holding the profiles. */
+  private AutoLoginAuthenticationHandler authenticationHandler;
+
+  /**
+   * Constructor.
+   * 
+   * @param authenticationHandler
+   *          - The AutoLoginAuthenticationHandler.
+   */
+  @Inject
+  public AutoLoginProfileRessource(
+      AutoLoginAuthenticationHandler authenticationHandler)
+  {
+    this.authenticationHandler = authenticationHandler;
+  }
+
+  /**
+   * Get the names of all profiles.
+   * 
+   * @return The names.
+   */
+  @GET
+  @Produces(
+  { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
+  public AutoLoginProfiles getProfiles()
+  {
+    AutoLoginProfiles profiles = new AutoLoginProfiles();
+
+    profiles.getNames().addAll(authenticationHandler.getProfileNames());
+
+    return profiles;
+  }
+
+  /**
+   * Get a profile.
+   * 
+   * @param name
+   *          - The name of the profile.
+   * @return The profile or 404 Not Found.
+   */
+  @GET
+  @Path("{name}")
+  @Produces(
+  { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
+  public Response getProfile(@PathParam("name") String name)
+  {
+    AutoLoginProfile profile = authenticationHandler.getProfile(name);
+
+    if (profile == null)
+    {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
+
+    return Response.ok(profile).build();
+  }
+
+  /**
+   * Create or change a profile. The name of the path is used as name of the
+   * profile.
+   * 
+   * @param uriInfo
+   *          - The URI of the request.
+   * @param name
+   *          - The name of the profile.
+   * @param profile
+   *          - The profile.
+   * @return 201 Created, or 400 Bad Request if the profile is invalid.
+   */
+  @POST
+  @Path("{name}")
+  @Consumes(
+  { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
+  public Response setProfile(@Context UriInfo uriInfo,
+      @PathParam("name") String name, AutoLoginProfile profile)
+  {
+    profile.setName(name);
+
+    try
+    {
+      authenticationHandler.storeProfile(profile);
+    } catch (IllegalArgumentException ex)
+    {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(ex.getMessage()).type(MediaType.TEXT_PLAIN).build();
+    }
+
+    return Response.created(uriInfo.getRequestUri()).build();
+  }
+
+  /**
+   * Remove a profile.
+   * 
+   * @param name
+   *          - The name of the profile.
+   * @return 204 No Content, or 404 Not Found if the profile does not exist.
+   */
+  @DELETE
+  @Path("{name}")
+  public Response removeProfile(@PathParam("name") String name)
+  {
+    if (!authenticationHandler.removeProfile(name))
+    {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
+
+    return Response.noContent().build();
+  }
+
+}
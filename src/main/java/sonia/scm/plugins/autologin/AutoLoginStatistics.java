@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import sonia.scm.plugins.autologin.AutoLoginMetrics.Outcome;
+
+/**
+ * Snapshot of the metrics of the AutoLogin plugin as exposed by the
+ * {@link AutoLoginStatisticsRessource}.
+ * 
+ * @author Clemens Rabe
+ */
+@XmlRootElement(name = "statistics")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class AutoLoginStatistics
+{
+
+  @XmlElement(name = "login-success")
+  private long loginSuccess;
+
+  @XmlElement(name = "header-missing")
+  private long headerMissing;
+
+  @XmlElement(name = "untrusted-proxy")
+  private long untrustedProxy;
+
+  @XmlElement(name = "login-failed")
+  private long loginFailed;
+
+  @XmlElement(name = "principal-cache-hits")
+  private long principalCacheHits;
+
+  @XmlElement(name = "ticket-hits")
+  private long ticketHits;
+
+  @XmlElement(name = "tickets-issued")
+  private long ticketsIssued;
+
+  @XmlElement(name = "authenticated")
+  private long authenticated;
+
+  @XmlElement(name = "auto-created")
+  private long autoCreated;
+
+  @XmlElement(name = "user-mismatch")
+  private long userMismatch;
+
+  @XmlElement(name = "wrong-type")
+  private long wrongType;
+
+  @XmlElement(name = "unknown-user")
+  private long unknownUser;
+
+  @XmlElement(name = "negative-cache-hits")
+  private long negativeCacheHits;
+
+  @XmlElement(name = "creation-rate-limited")
+  private long creationRateLimited;
+
+  @XmlElement(name = "bloom-filter-misses")
+  private long bloomFilterMisses;
+
+  @XmlElement(name = "bloom-filter-false-positives")
+  private long bloomFilterFalsePositives;
+
+  @XmlElement(name = "bloom-filter-size")
+  private int bloomFilterSize;
+
+  @XmlElement(name = "bloom-filter-fpp")
+  private double bloomFilterFpp;
+
+  @XmlElement(name = "bloom-filter-expected-fpp")
+  private double bloomFilterExpectedFpp;
+
+  @XmlElement(name = "directory-size")
+  private int directorySize = -1;
+
+  @XmlElement(name = "directory-pending")
+  private int directoryPending;
+
+  @XmlElement(name = "directory-dropped")
+  private long directoryDropped;
+
+  @XmlElement(name = "profiles")
+  private int profiles;
+
+  @XmlElement(name = "membership-size")
+  private int membershipSize = -1;
+
+  @XmlElement(name = "membership-group-sets")
+  private int membershipGroupSets = -1;
+
+  @XmlElement(name = "tracked-logins")
+  private int trackedLogins;
+
+  @XmlElement(name = "swept-users")
+  private long sweptUsers;
+
+  @XmlElement(name = "sweep-passes")
+  private long sweepPasses;
+
+  @XmlElement(name = "audit-written")
+  private long auditWritten;
+
+  @XmlElement(name = "audit-dropped")
+  private long auditDropped;
+
+  @XmlElement(name = "provisioning-executed")
+  private long provisioningExecuted;
+
+  @XmlElement(name = "provisioning-coalesced")
+  private long provisioningCoalesced;
+
+  @XmlElement(name = "provisioning-timed-out")
+  private long provisioningTimedOut;
+
+  @XmlElement(name = "filter-latency")
+  private Latency filterLatency;
+
+  @XmlElement(name = "handler-latency")
+  private Latency handlerLatency;
+
+  /**
+   * Constructor for JAXB.
+   */
+  public AutoLoginStatistics()
+  {
+  }
+
+  /**
+   * Create a snapshot of the metrics of the given handler.
+   * 
+   * @param handler
+   *          - The authentication handler.
+   */
+  public AutoLoginStatistics(AutoLoginAuthenticationHandler handler)
+  {
+    AutoLoginMetrics metrics = handler.getMetrics();
+
+    loginSuccess = metrics.get(Outcome.LOGIN_SUCCESS);
+    headerMissing = metrics.get(Outcome.HEADER_MISSING);
+    untrustedProxy = metrics.get(Outcome.UNTRUSTED_PROXY);
+    loginFailed = metrics.get(Outcome.LOGIN_FAILED);
+    principalCacheHits = metrics.get(Outcome.PRINCIPAL_CACHE_HIT);
+    ticketHits = metrics.get(Outcome.TICKET_HIT);
+    ticketsIssued = metrics.get(Outcome.TICKET_ISSUED);
+    authenticated = metrics.get(Outcome.AUTHENTICATED);
+    autoCreated = metrics.get(Outcome.AUTO_CREATED);
+    userMismatch = metrics.get(Outcome.USER_MISMATCH);
+    wrongType = metrics.get(Outcome.WRONG_TYPE);
+    unknownUser = metrics.get(Outcome.UNKNOWN_USER);
+    negativeCacheHits = metrics.get(Outcome.NEGATIVE_CACHE_HIT);
+    creationRateLimited = metrics.get(Outcome.CREATION_RATE_LIMITED);
+    bloomFilterMisses = metrics.get(Outcome.BLOOM_FILTER_MISS);
+    bloomFilterFalsePositives = metrics.get(Outcome.BLOOM_FILTER_FALSE_POSITIVE);
+
+    AutoLoginComponents components = handler.getComponents();
+    UsernameBloomFilter knownUsers = components.getKnownUsers();
+
+    if (knownUsers != null)
+    {
+      bloomFilterSize = knownUsers.size();
+      bloomFilterFpp = knownUsers.getFpp();
+      bloomFilterExpectedFpp = knownUsers.getExpectedFpp();
+    }
+
+    DirectoryEnrichment enrichment = components.getEnrichment();
+
+    if (enrichment != null)
+    {
+      DirectoryIndex index = enrichment.getIndex();
+
+      directorySize = index != null ? index.size() : -1;
+      directoryPending = enrichment.getPendingCount();
+      directoryDropped = enrichment.getDroppedCount();
+    }
+
+    profiles = handler.getProfileNames().size();
+
+    GroupMembership membership = components.getMembership();
+    GroupMembershipIndex membershipIndex = membership != null ? membership
+        .getIndex() : null;
+
+    if (membershipIndex != null)
+    {
+      membershipSize = membershipIndex.size();
+      membershipGroupSets = membershipIndex.getGroupSetCount();
+    }
+
+    LastLoginTracker lastLogins = components.getLastLogins();
+
+    if (lastLogins != null)
+    {
+      trackedLogins = lastLogins.size();
+    }
+
+    UserSweeper sweeper = components.getSweeper();
+
+    if (sweeper != null)
+    {
+      sweptUsers = sweeper.getSwept();
+      sweepPasses = sweeper.getPasses();
+    }
+
+    AuditLog auditLog = components.getAuditLog();
+
+    if (auditLog != null)
+    {
+      auditWritten = auditLog.getWritten();
+      auditDropped = auditLog.getDropped();
+    }
+
+    provisioningExecuted = handler.getProvisioning().getExecuted();
+    provisioningCoalesced = handler.getProvisioning().getCoalesced();
+    provisioningTimedOut = handler.getProvisioning().getTimedOut();
+    filterLatency = new Latency(metrics.getFilterLatency().snapshot());
+    handlerLatency = new Latency(metrics.getHandlerLatency().snapshot());
+  }
+
+  /**
+   * Latencies in nanoseconds. The percentiles are upper bounds.
+   */
+  @XmlAccessorType(XmlAccessType.FIELD)
+  public static class Latency
+  {
+
+    @XmlElement(name = "count")
+    private long count;
+
+    @XmlElement(name = "mean")
+    private long mean;
+
+    @XmlElement(name = "p50")
+    private long p50;
+
+    @XmlElement(name = "p99")
+    private long p99;
+
+    @XmlElement(name = "p999")
+    private long p999;
+
+    /**
+     * Constructor for JAXB.
+     */
+    public Latency()
+    {
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param snapshot
+     *          - The snapshot of the latency histogram.
+     */
+    public Latency(LatencyHistogram.Snapshot snapshot)
+    {
+      count = snapshot.getCount();
+      mean = snapshot.getMean();
+      p50 = snapshot.getPercentile(50.0);
+      p99 = snapshot.getPercentile(99.0);
+      p999 = snapshot.getPercentile(99.9);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Ressource for the statistics of the hot path.
+ * 
+ * @author Clemens Rabe
+ */
+@Singleton
+@Path("config/plugins/autologin/statistics")
+public class AutoLoginStatisticsRessource
+{
+
+  /** The authentication handler holding the metrics. */
+  private AutoLoginAuthenticationHandler authenticationHandler;
+
+  /**
+   * Constructor.
+   * 
+   * @param authenticationHandler
+   *          - The AutoLoginAuthenticationHandler.
+   */
+  @Inject
+  public AutoLoginStatisticsRessource(
+      AutoLoginAuthenticationHandler authenticationHandler)
+  {
+    this.authenticationHandler = authenticationHandler;
+  }
+
+  /**
+   * Get the statistics.
+   * 
+   * @return The statistics.
+   */
+  @GET
+  @Produces(
+  { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
+  public AutoLoginStatistics getStatistics()
+  {
+    return new AutoLoginStatistics(authenticationHandler);
+  }
+
+}
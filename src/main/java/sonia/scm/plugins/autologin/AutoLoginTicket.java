@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * A short-lived, stateless ticket issued to clients after a successful auto
+ * login. The ticket holds the {@link PrincipalRecord} of the user, i.e. the
+ * user name, the groups and the expiry time. It is signed with HMAC-SHA256
+ * together with the header key and the entity tag of the configuration, so a
+ * ticket is only valid together with the header value it was issued for and
+ * as long as the configuration is unchanged. The key of the signature is
+ * generated once per JVM, so tickets become invalid when SCM-Manager is
+ * restarted.
+ * 
+ * @author Clemens Rabe
+ */
+public final class AutoLoginTicket
+{
+
+  /** The name of the cookie holding the ticket. */
+  public static final String COOKIE_NAME = "X-AutoLogin-Ticket";
+
+  /** The MAC algorithm. */
+  private static final String ALGORITHM = "HmacSHA256";
+
+  /** The charset of the header key and the entity tag. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** The encoding of the record and the signature. */
+  private static final BaseEncoding ENCODING = BaseEncoding.base64Url()
+      .omitPadding();
+
+  /** The key of the signature. */
+  private static final SecretKeySpec KEY = createKey();
+
+  /** The MACs of the threads, since Mac instances are not thread-safe. */
+  private static final ThreadLocal<Mac> MACS = new ThreadLocal<Mac>()
+  {
+    @Override
+    protected Mac initialValue()
+    {
+      try
+      {
+        Mac mac = Mac.getInstance(ALGORITHM);
+
+        mac.init(KEY);
+
+        return mac;
+      } catch (GeneralSecurityException ex)
+      {
+        throw new IllegalStateException("can't create " + ALGORITHM, ex);
+      }
+    }
+  };
+
+  private AutoLoginTicket()
+  {
+  }
+
+  /**
+   * Encode and sign a ticket.
+   * 
+   * @param record
+   *          - The principals of the user, expiring with the ticket.
+   * @param headerKey
+   *          - The key of the header value the ticket is issued for.
+   * @param entityTag
+   *          - The entity tag of the configuration.
+   * @return The value of the ticket cookie.
+   */
+  public static String encode(PrincipalRecord record, String headerKey,
+      String entityTag)
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+
+    try
+    {
+      DataOutputStream out = new DataOutputStream(bytes);
+
+      record.write(out);
+      out.flush();
+    } catch (IOException ex)
+    {
+      throw new IllegalStateException("can't encode ticket", ex);
+    }
+
+    byte[] payload = bytes.toByteArray();
+
+    return ENCODING.encode(payload) + "."
+        + ENCODING.encode(sign(payload, headerKey, entityTag));
+  }
+
+  /**
+   * Decode and verify a ticket. The signature is compared in constant time
+   * before the payload is parsed.
+   * 
+   * @param value
+   *          - The value of the ticket cookie.
+   * @param headerKey
+   *          - The key of the current header value.
+   * @param entityTag
+   *          - The entity tag of the current configuration.
+   * @param now
+   *          - The current time in milliseconds.
+   * @return The principals of the ticket or null if the ticket is invalid,
+   *         expired or issued for another header value or configuration.
+   */
+  public static PrincipalRecord decode(String value, String headerKey,
+      String entityTag, long now)
+  {
+    int dot = value.indexOf('.');
+
+    if (dot <= 0)
+    {
+      return null;
+    }
+
+    byte[] payload;
+    byte[] signature;
+
+    try
+    {
+      payload = ENCODING.decode(value.substring(0, dot));
+      signature = ENCODING.decode(value.substring(dot + 1));
+    } catch (IllegalArgumentException ex)
+    {
+      return null;
+    }
+
+    if (!MessageDigest.isEqual(signature, sign(payload, headerKey, entityTag)))
+    {
+      return null;
+    }
+
+    try
+    {
+      ByteBuffer buffer = ByteBuffer.wrap(payload);
+      PrincipalRecord record = PrincipalRecord.read(buffer);
+
+      // Tickets without expiry are never issued
+      if (buffer.hasRemaining() || record.getExpires() == PrincipalRecord.NEVER
+          || record.isExpired(now))
+      {
+        return null;
+      }
+
+      return record;
+    } catch (BufferUnderflowException ex)
+    {
+      return null;
+    } catch (IllegalArgumentException ex)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Sign the payload of a ticket together with the header key and the entity
+   * tag. The lengths are signed as well, so the fields can't be shifted.
+   * 
+   * @param payload
+   *          - The payload.
+   * @param headerKey
+   *          - The key of the header value.
+   * @param entityTag
+   *          - The entity tag of the configuration.
+   * @return The signature.
+   */
+  private static byte[] sign(byte[] payload, String headerKey,
+      String entityTag)
+  {
+    Mac mac = MACS.get();
+
+    update(mac, payload);
+    update(mac, headerKey.getBytes(UTF8));
+    update(mac, entityTag.getBytes(UTF8));
+
+    return mac.doFinal();
+  }
+
+  /**
+   * Add a length prefixed field to a MAC.
+   * 
+   * @param mac
+   *          - The MAC.
+   * @param field
+   *          - The field.
+   */
+  private static void update(Mac mac, byte[] field)
+  {
+    mac.update(ByteBuffer.allocate(4).putInt(field.length).array());
+    mac.update(field);
+  }
+
+  /**
+   * Create the random key of the signature.
+   * 
+   * @return The key.
+   */
+  private static SecretKeySpec createKey()
+  {
+    byte[] key = new byte[32];
+
+    new SecureRandom().nextBytes(key);
+
+    return new SecretKeySpec(key, ALGORITHM);
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.shiro.authc.UsernamePasswordToken;
+
+/**
+ * Authentication token for an identity asserted by the HTTP header variable.
+ * The token extends the {@link UsernamePasswordToken}, because the realm of
+ * SCM-Manager only accepts this type of token, but instead of a password it
+ * carries a fixed credential. The filter stores the token as request
+ * attribute while it logs in the user, so the
+ * {@link AutoLoginAuthenticationHandler} recognizes the login of the filter
+ * by the token instance of the same request. The credential itself proves
+ * nothing and is public, since a login is only trusted together with the
+ * token of its request, which clients can't set.
+ * 
+ * @author Clemens Rabe
+ */
+public class AutoLoginToken extends UsernamePasswordToken
+{
+
+  private static final long serialVersionUID = 1L;
+
+  /** The name of the request attribute holding the token of a login. */
+  public static final String ATTRIBUTE = AutoLoginToken.class.getName();
+
+  /** The fixed credential of all tokens. */
+  private static final String CREDENTIAL = "autologin-token";
+
+  /**
+   * Constructor.
+   * 
+   * @param username
+   *          - The user name asserted by the HTTP header variable.
+   * @param host
+   *          - The address of the client.
+   */
+  public AutoLoginToken(String username, String host)
+  {
+    super(username, CREDENTIAL.toCharArray(), false, host);
+  }
+
+  /**
+   * Check whether the given login is the login of the token stored in the
+   * request by the filter.
+   * 
+   * @param request
+   *          - The HTTP request.
+   * @param username
+   *          - The user name passed to the authentication handler.
+   * @param password
+   *          - The password passed to the authentication handler.
+   * @return True if the login originated from the filter.
+   */
+  public static boolean isAsserted(HttpServletRequest request,
+      String username, String password)
+  {
+    Object attribute = request.getAttribute(ATTRIBUTE);
+
+    return attribute instanceof AutoLoginToken && CREDENTIAL.equals(password)
+        && username != null
+        && username.equals(((AutoLoginToken) attribute).getUsername());
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * The identity of a TLS client certificate: the SHA-256 fingerprint, the user
+ * name extracted from the subject and the validity period. The identity is
+ * computed once per certificate and memoized by its fingerprint, so the
+ * subject is parsed only once and later requests only compare the validity
+ * period with the current time.
+ * 
+ * @author Clemens Rabe
+ */
+public final class CertificateIdentity
+{
+
+  /** The digest of the fingerprints. */
+  private static final String ALGORITHM = "SHA-256";
+
+  /** The digests of the threads, since MessageDigest is not thread-safe. */
+  private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>()
+  {
+    @Override
+    protected MessageDigest initialValue()
+    {
+      try
+      {
+        return MessageDigest.getInstance(ALGORITHM);
+      } catch (GeneralSecurityException ex)
+      {
+        throw new IllegalStateException("can't create " + ALGORITHM, ex);
+      }
+    }
+  };
+
+  /** The SHA-256 fingerprint as hexadecimal string. */
+  private final String fingerprint;
+
+  /** The subject DN in the notation of RFC 2253. */
+  private final String subject;
+
+  /** The canonical user name. */
+  private final String username;
+
+  /** The start of the validity period in milliseconds since the epoch. */
+  private final long notBefore;
+
+  /** The end of the validity period in milliseconds since the epoch. */
+  private final long notAfter;
+
+  /**
+   * Constructor.
+   * 
+   * @param fingerprint
+   *          - The SHA-256 fingerprint as hexadecimal string.
+   * @param certificate
+   *          - The certificate.
+   * @param source
+   *          - The source extracting the user name from the subject.
+   */
+  CertificateIdentity(String fingerprint, X509Certificate certificate,
+      HeaderSource source)
+  {
+    this.fingerprint = fingerprint;
+    this.subject = certificate.getSubjectX500Principal().getName(
+        X500Principal.RFC2253);
+    this.username = source.extractUsername(subject);
+    this.notBefore = certificate.getNotBefore().getTime();
+    this.notAfter = certificate.getNotAfter().getTime();
+  }
+
+  /**
+   * Compute the SHA-256 fingerprint of a certificate.
+   * 
+   * @param certificate
+   *          - The certificate.
+   * @return The fingerprint as hexadecimal string or null if the certificate
+   *         can't be encoded.
+   */
+  public static String fingerprint(X509Certificate certificate)
+  {
+    byte[] hash;
+
+    try
+    {
+      hash = DIGESTS.get().digest(certificate.getEncoded());
+    } catch (GeneralSecurityException ex)
+    {
+      return null;
+    }
+
+    return AutoLoginHelper.toHex(hash, hash.length);
+  }
+
+  /**
+   * Get the SHA-256 fingerprint.
+   * 
+   * @return The fingerprint as hexadecimal string.
+   */
+  public String getFingerprint()
+  {
+    return fingerprint;
+  }
+
+  /**
+   * Get the subject DN.
+   * 
+   * @return The subject DN in the notation of RFC 2253.
+   */
+  public String getSubject()
+  {
+    return subject;
+  }
+
+  /**
+   * Get the user name extracted from the subject.
+   * 
+   * @return The canonical user name.
+   */
+  public String getUsername()
+  {
+    return username;
+  }
+
+  /**
+   * Check whether the certificate is valid at the given time.
+   * 
+   * @param now
+   *          - The time in milliseconds since the epoch.
+   * @return True if the time is within the validity period.
+   */
+  public boolean isValid(long now)
+  {
+    return now >= notBefore && now <= notAfter;
+  }
+}
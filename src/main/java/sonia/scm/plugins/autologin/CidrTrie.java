@@ -0,0 +1,530 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.Arrays;
+
+/**
+ * Binary prefix trie of IPv4 and IPv6 networks. The trie is stored in plain
+ * arrays, and addresses are parsed and matched in a single pass without any
+ * allocation, so a lookup costs at most one step per address bit regardless
+ * of the number of networks.
+ * 
+ * @author Clemens Rabe
+ */
+public final class CidrTrie
+{
+
+  /** The index of the root node of both tries. */
+  private static final int ROOT = 0;
+
+  /** The trie of IPv4 networks. */
+  private final Nodes ipv4 = new Nodes();
+
+  /** The trie of IPv6 networks. */
+  private final Nodes ipv6 = new Nodes();
+
+  /** The number of networks. */
+  private int size;
+
+  /**
+   * Add a network in CIDR notation, e.g., <code>10.0.0.0/8</code> or
+   * <code>fd00::/8</code>. An address without prefix length is added as a
+   * single host.
+   * 
+   * @param cidr
+   *          - The network.
+   * @throws IllegalArgumentException
+   *           - If the network is not valid.
+   */
+  public void add(String cidr)
+  {
+    String value = cidr.trim();
+    int slash = value.indexOf('/');
+    String address = slash < 0 ? value : value.substring(0, slash);
+
+    if (address.indexOf(':') >= 0)
+    {
+      int length = prefixLength(value, slash, 128);
+
+      if (!ipv6(address, 0, address.length(), length))
+      {
+        throw new IllegalArgumentException("invalid IPv6 address " + cidr);
+      }
+    } else
+    {
+      long bits = parseIpv4(address, 0, address.length());
+
+      if (bits < 0L)
+      {
+        throw new IllegalArgumentException("invalid IPv4 address " + cidr);
+      }
+
+      ipv4.insert(bits << 32, 0L, prefixLength(value, slash, 32));
+    }
+
+    size++;
+  }
+
+  /**
+   * Check whether the given address belongs to one of the networks.
+   * 
+   * @param address
+   *          - The IPv4 or IPv6 address, e.g., of
+   *          {@link javax.servlet.ServletRequest#getRemoteAddr()}.
+   * @return True if the address belongs to one of the networks.
+   */
+  public boolean contains(String address)
+  {
+    if (address == null)
+    {
+      return false;
+    }
+
+    int start = 0;
+    int end = address.length();
+
+    // Strip brackets and the zone id of IPv6 addresses
+    if (end > 0 && address.charAt(0) == '[')
+    {
+      start = 1;
+      end = address.indexOf(']');
+
+      if (end < 0)
+      {
+        return false;
+      }
+    }
+
+    int zone = address.indexOf('%', start);
+
+    if (zone >= 0 && zone < end)
+    {
+      end = zone;
+    }
+
+    if (address.indexOf(':', start) < 0)
+    {
+      long bits = parseIpv4(address, start, end);
+
+      return bits >= 0L && ipv4.matches(bits << 32, 0L, 32);
+    }
+
+    return ipv6(address, start, end, -1);
+  }
+
+  /**
+   * Get the number of networks.
+   * 
+   * @return The number of networks.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Parse an IPv6 address and either insert it as network or match it against
+   * the networks. IPv4-mapped addresses are matched against the IPv4 networks
+   * as well.
+   * 
+   * @param address
+   *          - The string containing the address.
+   * @param start
+   *          - The start index of the address.
+   * @param end
+   *          - The end index (exclusive) of the address.
+   * @param insertLength
+   *          - The prefix length to insert the address as network, or -1 to
+   *          match the address.
+   * @return When inserting, true if the address is valid. When matching, true
+   *         if the address belongs to one of the networks.
+   */
+  private boolean ipv6(String address, int start, int end, int insertLength)
+  {
+    long headHigh = 0L;
+    long headLow = 0L;
+    long tailHigh = 0L;
+    long tailLow = 0L;
+    int headGroups = 0;
+    int tailGroups = 0;
+    boolean compressed = false;
+    int pos = start;
+
+    if (end - start >= 2 && address.charAt(start) == ':'
+        && address.charAt(start + 1) == ':')
+    {
+      compressed = true;
+      pos += 2;
+    }
+
+    while (pos < end)
+    {
+      int groupEnd = pos;
+      int group = 0;
+
+      while (groupEnd < end && address.charAt(groupEnd) != ':')
+      {
+        if (address.charAt(groupEnd) == '.')
+        {
+          break;
+        }
+
+        int digit = Character.digit(address.charAt(groupEnd), 16);
+
+        if (digit < 0 || groupEnd - pos >= 4)
+        {
+          return false;
+        }
+
+        group = (group << 4) | digit;
+        groupEnd++;
+      }
+
+      int groups = 1;
+
+      if (groupEnd < end && address.charAt(groupEnd) == '.')
+      {
+        // Embedded IPv4 address as last 32 bits
+        long ipv4Bits = parseIpv4(address, pos, end);
+
+        if (ipv4Bits < 0L)
+        {
+          return false;
+        }
+
+        group = (int) ipv4Bits;
+        groups = 2;
+        groupEnd = end;
+      } else if (groupEnd == pos)
+      {
+        return false;
+      }
+
+      for (int i = 0; i < groups; i++)
+      {
+        int value = groups == 2 ? (i == 0 ? group >>> 16 : group & 0xffff)
+            : group;
+
+        if (compressed)
+        {
+          tailHigh = (tailHigh << 16) | (tailLow >>> 48);
+          tailLow = (tailLow << 16) | value;
+          tailGroups++;
+        } else
+        {
+          headHigh = (headHigh << 16) | (headLow >>> 48);
+          headLow = (headLow << 16) | value;
+          headGroups++;
+        }
+      }
+
+      pos = groupEnd;
+
+      if (pos < end)
+      {
+        // Skip the colon, a double colon starts the tail
+        pos++;
+
+        if (pos < end && address.charAt(pos) == ':')
+        {
+          if (compressed)
+          {
+            return false;
+          }
+
+          compressed = true;
+          pos++;
+        } else if (pos == end)
+        {
+          return false;
+        }
+      }
+    }
+
+    int total = headGroups + tailGroups;
+
+    if (total > 8 || (!compressed && total != 8))
+    {
+      return false;
+    }
+
+    // Move the head groups to the most significant bits
+    for (int i = total; i < 8; i++)
+    {
+      headHigh = (headHigh << 16) | (headLow >>> 48);
+      headLow = headLow << 16;
+    }
+
+    for (int i = headGroups; i < total; i++)
+    {
+      headHigh = (headHigh << 16) | (headLow >>> 48);
+      headLow = headLow << 16;
+    }
+
+    long high = headHigh | tailHigh;
+    long low = headLow | tailLow;
+
+    if (insertLength >= 0)
+    {
+      ipv6.insert(high, low, insertLength);
+      return true;
+    }
+
+    if (ipv6.matches(high, low, 128))
+    {
+      return true;
+    }
+
+    // IPv4-mapped address ::ffff:a.b.c.d
+    return high == 0L && (low >>> 32) == 0xffffL
+        && ipv4.matches(low << 32, 0L, 32);
+  }
+
+  /**
+   * Parse an IPv4 address in dotted decimal notation.
+   * 
+   * @param address
+   *          - The string containing the address.
+   * @param start
+   *          - The start index of the address.
+   * @param end
+   *          - The end index (exclusive) of the address.
+   * @return The address as unsigned 32 bit value or -1 if it is not valid.
+   */
+  private static long parseIpv4(String address, int start, int end)
+  {
+    long bits = 0L;
+    int octets = 0;
+    int pos = start;
+
+    while (pos < end)
+    {
+      int octet = 0;
+      int digits = 0;
+
+      while (pos < end && address.charAt(pos) != '.')
+      {
+        char c = address.charAt(pos);
+
+        if (c < '0' || c > '9' || digits == 3)
+        {
+          return -1L;
+        }
+
+        octet = octet * 10 + (c - '0');
+        digits++;
+        pos++;
+      }
+
+      if (digits == 0 || octet > 255)
+      {
+        return -1L;
+      }
+
+      bits = (bits << 8) | octet;
+      octets++;
+
+      if (pos < end)
+      {
+        // Skip the dot, a trailing dot is invalid
+        pos++;
+
+        if (pos == end)
+        {
+          return -1L;
+        }
+      }
+    }
+
+    return octets == 4 ? bits : -1L;
+  }
+
+  /**
+   * Parse the prefix length of a network.
+   * 
+   * @param cidr
+   *          - The network.
+   * @param slash
+   *          - The index of the slash or -1 if there is no prefix length.
+   * @param max
+   *          - The maximum prefix length.
+   * @return The prefix length.
+   */
+  private static int prefixLength(String cidr, int slash, int max)
+  {
+    if (slash < 0)
+    {
+      return max;
+    }
+
+    int length;
+
+    try
+    {
+      length = Integer.parseInt(cidr.substring(slash + 1).trim());
+    } catch (NumberFormatException ex)
+    {
+      throw new IllegalArgumentException("invalid prefix length " + cidr, ex);
+    }
+
+    if (length < 0 || length > max)
+    {
+      throw new IllegalArgumentException("invalid prefix length " + cidr);
+    }
+
+    return length;
+  }
+
+  /**
+   * The nodes of a binary trie stored in parallel arrays. The bits of an
+   * address are given as two longs, most significant bit first.
+   */
+  private static final class Nodes
+  {
+
+    /** The child nodes for a zero bit, 0 if there is no child. */
+    private int[] zero = new int[16];
+
+    /** The child nodes for a one bit, 0 if there is no child. */
+    private int[] one = new int[16];
+
+    /** The flags whether a node terminates a network. */
+    private boolean[] terminal = new boolean[16];
+
+    /** The number of nodes. */
+    private int count = 1;
+
+    /**
+     * Insert a network.
+     * 
+     * @param high
+     *          - The high 64 bits of the network address.
+     * @param low
+     *          - The low 64 bits of the network address.
+     * @param length
+     *          - The prefix length.
+     */
+    private void insert(long high, long low, int length)
+    {
+      int node = ROOT;
+
+      for (int bit = 0; bit < length && !terminal[node]; bit++)
+      {
+        int[] children = bit(high, low, bit) ? one : zero;
+        int child = children[node];
+
+        if (child == 0)
+        {
+          child = allocate();
+
+          // The arrays may have been replaced by allocate()
+          children = bit(high, low, bit) ? one : zero;
+          children[node] = child;
+        }
+
+        node = child;
+      }
+
+      terminal[node] = true;
+    }
+
+    /**
+     * Check whether the address belongs to one of the networks.
+     * 
+     * @param high
+     *          - The high 64 bits of the address.
+     * @param low
+     *          - The low 64 bits of the address.
+     * @param length
+     *          - The number of bits of the address.
+     * @return True if the address belongs to one of the networks.
+     */
+    private boolean matches(long high, long low, int length)
+    {
+      int node = ROOT;
+
+      for (int bit = 0; bit < length; bit++)
+      {
+        if (terminal[node])
+        {
+          return true;
+        }
+
+        node = bit(high, low, bit) ? one[node] : zero[node];
+
+        if (node == 0)
+        {
+          return false;
+        }
+      }
+
+      return terminal[node];
+    }
+
+    /**
+     * Allocate a new node.
+     * 
+     * @return The index of the node.
+     */
+    private int allocate()
+    {
+      if (count == zero.length)
+      {
+        zero = Arrays.copyOf(zero, count * 2);
+        one = Arrays.copyOf(one, count * 2);
+        terminal = Arrays.copyOf(terminal, count * 2);
+      }
+
+      return count++;
+    }
+
+    /**
+     * Get a bit of an address.
+     * 
+     * @param high
+     *          - The high 64 bits of the address.
+     * @param low
+     *          - The low 64 bits of the address.
+     * @param bit
+     *          - The index of the bit, 0 is the most significant bit.
+     * @return True if the bit is set.
+     */
+    private static boolean bit(long high, long low, int bit)
+    {
+      if (bit < 64)
+      {
+        return (high & (1L << (63 - bit))) != 0L;
+      }
+
+      return (low & (1L << (127 - bit))) != 0L;
+    }
+  }
+}
@@ -0,0 +1,790 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.shiro.subject.PrincipalCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable snapshot of an {@link AutoLoginConfig} with all values derived
+ * from the configuration computed in advance. A new snapshot is compiled
+ * whenever the configuration changes, so request threads never have to parse
+ * configuration values and always see a consistent view.
+ * 
+ * @author Clemens Rabe
+ */
+public final class CompiledAutoLoginConfig
+{
+
+  /** The default name of the HTTP header variable. */
+  public static final String DEFAULT_VARIABLE_NAME = "X_REMOTE_USER";
+
+  /** The charset of the hashed configuration values. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** the logger for CompiledAutoLoginConfig */
+  private static final Logger logger = LoggerFactory
+      .getLogger(CompiledAutoLoginConfig.class);
+
+  /** Source of the version numbers. */
+  private static final AtomicLong versions = new AtomicLong();
+
+  /** The configuration this snapshot was compiled from. */
+  private final AutoLoginConfig config;
+
+  /** The version number of this snapshot. */
+  private final long version;
+
+  /** The entity tag of the configuration, derived from its values. */
+  private final String entityTag;
+
+  /** The trimmed name of the HTTP header variable. */
+  private final String variableName;
+
+  /** The attribute of a DN containing the user name. */
+  private final DistinguishedNameParser.Attribute usernameAttribute;
+
+  /** The ordered sources of the identity of a client. */
+  private final HeaderSource[] headerSources;
+
+  /** The rules rewriting user names to their canonical form. */
+  private final UsernameRewriter usernameRewriter;
+
+  /** The unmodifiable list of the header sources. */
+  private final List<HeaderSource> headerSourceList;
+
+  /** The trusted proxy networks or null if all clients are trusted. */
+  private final CidrTrie trustedProxies;
+
+  /** The groups of authenticated users. */
+  private final Set<String> groups;
+
+  /** The rules mapping the identity of a user to groups. */
+  private final GroupRules groupRules;
+
+  /** The flag whether unknown users are allowed to log in. */
+  private final boolean allowUnknown;
+
+  /** The flag whether requests without the HTTP header are left alone. */
+  private final boolean requireHeader;
+
+  /** The time in milliseconds to wait for the creation of a user. */
+  private final long provisioningTimeout;
+
+  /** The flag whether ticket cookies are issued. */
+  private final boolean ticketEnabled;
+
+  /** The lifetime of a ticket in milliseconds. */
+  private final long ticketLifetime;
+
+  /** The directory file for the enrichment of new users or null. */
+  private final File directoryFile;
+
+  /** The file with the groups of each user or null. */
+  private final File membershipFile;
+
+  /** The flag whether the audit log is enabled. */
+  private final boolean auditEnabled;
+
+  /** The configured directory of the audit log or null for the default. */
+  private final String auditDirectory;
+
+  /** The maximum number of audit events waiting to be written. */
+  private final int auditBufferSize;
+
+  /** The size of an audit log segment file in bytes. */
+  private final int auditSegmentSize;
+
+  /** The number of audit log segment files to keep. */
+  private final int auditSegments;
+
+  /** The time in milliseconds without a login after which a user is swept. */
+  private final long inactiveUserAge;
+
+  /** True to remove inactive users, false to disable them. */
+  private final boolean deleteInactiveUsers;
+
+  /** The number of users checked by each step of the sweep. */
+  private final int sweepBatchSize;
+
+  /** The rate limit of user creations. */
+  private final CreationRateLimiter creationRateLimiter;
+
+  /** The false-positive probability of the Bloom filter or 0. */
+  private final double bloomFilterFpp;
+
+  /** The suffix appended to the user name to build the mail address. */
+  private final String mailSuffix;
+
+  /** The cache of principals of successfully auto-logged in users. */
+  private final LruCache<String, PrincipalCollection> principalCache;
+
+  /** The cache of users the auto login plugin does not authenticate. */
+  private final LruCache<String, NegativeResult> negativeCache;
+
+  /**
+   * Constructor.
+   * 
+   * @param config
+   *          - The configuration to compile. It must not be modified
+   *          afterwards.
+   */
+  private CompiledAutoLoginConfig(AutoLoginConfig config)
+  {
+    this.config = config;
+    this.version = versions.incrementAndGet();
+    entityTag = entityTag(config);
+
+    String name = config.getVariableName();
+
+    if (name == null || name.trim().isEmpty())
+    {
+      variableName = DEFAULT_VARIABLE_NAME;
+    } else
+    {
+      variableName = name.trim();
+    }
+
+    DistinguishedNameParser.Attribute attribute = DistinguishedNameParser.Attribute
+        .fromName(config.getUsernameAttribute());
+
+    if (attribute == null)
+    {
+      logger.warn("unknown username attribute {}, using CN",
+          config.getUsernameAttribute());
+      attribute = DistinguishedNameParser.Attribute.CN;
+    }
+
+    usernameAttribute = attribute;
+
+    usernameRewriter = new UsernameRewriter(config.getUsernameRewriteRules());
+
+    List<HeaderSource> sources = HeaderSource.parse(config.getHeaderSources(),
+        variableName, usernameAttribute, usernameRewriter);
+
+    headerSources = sources.toArray(new HeaderSource[sources.size()]);
+    headerSourceList = Collections.unmodifiableList(Arrays
+        .asList(headerSources));
+
+    trustedProxies = compileTrustedProxies(config.getTrustedProxies());
+
+    if (config.getGroups() == null)
+    {
+      groups = Collections.emptySet();
+    } else
+    {
+      groups = Collections.unmodifiableSet(AutoLoginHelper.splitGroups(config
+          .getGroups()));
+    }
+
+    groupRules = new GroupRules(config.getGroupRules(), groups);
+    allowUnknown = config.getAllowUnknown();
+    requireHeader = config.getRequireHeader();
+    provisioningTimeout = Math.max(0, config.getProvisioningTimeout());
+    ticketEnabled = config.getTicketEnabled();
+    ticketLifetime = Math.max(1, config.getTicketLifetime()) * 1000L;
+    directoryFile = config.getDirectoryFile() == null
+        || config.getDirectoryFile().trim().isEmpty() ? null : new File(config
+        .getDirectoryFile().trim());
+    membershipFile = config.getMembershipFile() == null
+        || config.getMembershipFile().trim().isEmpty() ? null : new File(
+        config.getMembershipFile().trim());
+    auditEnabled = config.getAuditEnabled();
+    auditDirectory = config.getAuditDirectory() == null
+        || config.getAuditDirectory().trim().isEmpty() ? null : config
+        .getAuditDirectory().trim();
+    auditBufferSize = Math.max(1, config.getAuditBufferSize());
+    auditSegmentSize = (int) Math.min(Integer.MAX_VALUE,
+        Math.max(1, config.getAuditSegmentSize()) * 1024L * 1024L);
+    auditSegments = Math.max(1, config.getAuditSegments());
+    inactiveUserAge = Math.max(0, config.getInactiveUserDays()) * 86400000L;
+    deleteInactiveUsers = "delete".equalsIgnoreCase(config
+        .getInactiveUserAction() == null ? null : config
+        .getInactiveUserAction().trim());
+    sweepBatchSize = Math.max(1, config.getSweepBatchSize());
+    creationRateLimiter = new CreationRateLimiter(config.getCreationRate(),
+        config.getCreationBurst(), config.getCreationRatePerAddress(),
+        config.getCreationBurstPerAddress());
+    bloomFilterFpp = config.getBloomFilterFpp() > 0.0
+        && config.getBloomFilterFpp() < 1.0 ? config.getBloomFilterFpp() : 0.0;
+    mailSuffix = "@" + config.getEmailDomain();
+    principalCache = new LruCache<String, PrincipalCollection>(
+        config.getCacheSize(), config.getCacheTtl() * 1000L);
+    negativeCache = new LruCache<String, NegativeResult>(
+        config.getNegativeCacheSize(), config.getNegativeCacheTtl() * 1000L);
+  }
+
+  /**
+   * Compile the given configuration.
+   * 
+   * @param config
+   *          - The configuration to compile. It must not be modified
+   *          afterwards.
+   * @return The compiled configuration.
+   */
+  public static CompiledAutoLoginConfig compile(AutoLoginConfig config)
+  {
+    return new CompiledAutoLoginConfig(config);
+  }
+
+  /**
+   * Get the entity tag of the configuration. It only depends on the
+   * configuration values, so it stays the same across restarts.
+   * 
+   * @return The entity tag.
+   */
+  public String getEntityTag()
+  {
+    return entityTag;
+  }
+
+  /**
+   * Get the configuration this snapshot was compiled from.
+   * 
+   * @return The configuration.
+   */
+  public AutoLoginConfig getConfig()
+  {
+    return config;
+  }
+
+  /**
+   * Get the version number of this snapshot. Snapshots compiled later have
+   * higher version numbers.
+   * 
+   * @return The version number.
+   */
+  public long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Get the trimmed name of the HTTP header variable.
+   * 
+   * @return The name of the HTTP header variable.
+   */
+  public String getVariableName()
+  {
+    return variableName;
+  }
+
+  /**
+   * Get the attribute of a DN containing the user name.
+   * 
+   * @return The attribute.
+   */
+  public DistinguishedNameParser.Attribute getUsernameAttribute()
+  {
+    return usernameAttribute;
+  }
+
+  /**
+   * Get the ordered sources of the identity of a client.
+   * 
+   * @return The unmodifiable list of header sources.
+   */
+  public List<HeaderSource> getHeaderSources()
+  {
+    return headerSourceList;
+  }
+
+  /**
+   * Resolve the identity of the client of a request. The first header source
+   * with a non-empty value or a valid client certificate wins. The identity is
+   * resolved only once per request and configuration and is stored in the
+   * request.
+   * 
+   * @param request
+   *          - The HTTP request.
+   * @return The identity of the client.
+   */
+  public RemoteIdentity resolveIdentity(HttpServletRequest request)
+  {
+    Object cached = request.getAttribute(RemoteIdentity.ATTRIBUTE);
+
+    if (cached instanceof RemoteIdentity
+        && ((RemoteIdentity) cached).getVersion() == version)
+    {
+      return (RemoteIdentity) cached;
+    }
+
+    HeaderSource source = null;
+    String value = null;
+    String username = null;
+
+    for (HeaderSource candidate : headerSources)
+    {
+      if (candidate.isCertificate())
+      {
+        CertificateIdentity certificate = candidate
+            .resolveCertificate(request);
+
+        if (certificate != null)
+        {
+          source = candidate;
+          value = certificate.getFingerprint();
+          username = certificate.getUsername();
+          break;
+        }
+
+        continue;
+      }
+
+      String candidateValue = request.getHeader(candidate.getName());
+
+      if (candidateValue != null && (value == null || value.isEmpty()))
+      {
+        source = candidate;
+        value = candidateValue;
+
+        if (!value.isEmpty())
+        {
+          break;
+        }
+      }
+    }
+
+    // The client certificate is verified by the servlet container, while
+    // the HTTP headers are only trusted if sent by a trusted proxy.
+    boolean trusted = value == null || source.isCertificate()
+        || isTrusted(request.getRemoteAddr());
+    RemoteIdentity identity = new RemoteIdentity(version, source, value,
+        username, trusted);
+
+    request.setAttribute(RemoteIdentity.ATTRIBUTE, identity);
+
+    return identity;
+  }
+
+  /**
+   * Check whether the HTTP header variable of a client is trusted.
+   * 
+   * @param remoteAddr
+   *          - The address of the client.
+   * @return True if the client belongs to a trusted proxy network or no
+   *         networks are configured.
+   */
+  public boolean isTrusted(String remoteAddr)
+  {
+    return trustedProxies == null || trustedProxies.contains(remoteAddr);
+  }
+
+  /**
+   * Get the unmodifiable set of groups for authenticated users.
+   * 
+   * @return The set of groups.
+   */
+  public Set<String> getGroups()
+  {
+    return groups;
+  }
+
+  /**
+   * Get the groups of a user, including the groups of all matching group
+   * rules.
+   * 
+   * @param identity
+   *          - The identity of the client or null if the request does not
+   *          carry one.
+   * @param username
+   *          - The user name.
+   * @return The unmodifiable set of groups.
+   */
+  public Set<String> getGroups(RemoteIdentity identity, String username)
+  {
+    if (identity == null || !identity.isPresent())
+    {
+      return groupRules.getGroups(null, null, username);
+    }
+
+    return groupRules.getGroups(identity.getKey(), identity.getValue(),
+        username);
+  }
+
+  /**
+   * Get the groups of a user listed in the membership file. The groups of
+   * the file replace the global groups, the groups of the group rules are
+   * added.
+   * 
+   * @param identity
+   *          - The identity of the client or null if the request does not
+   *          carry one.
+   * @param username
+   *          - The user name.
+   * @param memberGroups
+   *          - The groups of the user in the membership file or null if the
+   *          user is not listed.
+   * @return The unmodifiable set of groups.
+   */
+  public Set<String> getGroups(RemoteIdentity identity, String username,
+      Set<String> memberGroups)
+  {
+    if (memberGroups == null)
+    {
+      return getGroups(identity, username);
+    }
+
+    if (groupRules.size() == 0)
+    {
+      return memberGroups;
+    }
+
+    Set<String> merged = new LinkedHashSet<String>(memberGroups);
+
+    for (String group : getGroups(identity, username))
+    {
+      if (!groups.contains(group))
+      {
+        merged.add(group);
+      }
+    }
+
+    return Collections.unmodifiableSet(merged);
+  }
+
+  /**
+   * Get the LDIF or CSV file with the display names and mail addresses of new
+   * users.
+   * 
+   * @return The file or null if the enrichment is disabled.
+   */
+  public File getDirectoryFile()
+  {
+    return directoryFile;
+  }
+
+  /**
+   * Get the file with the groups of each user.
+   * 
+   * @return The file or null if per-user groups are disabled.
+   */
+  public File getMembershipFile()
+  {
+    return membershipFile;
+  }
+
+  /**
+   * Get the rate limit of user creations.
+   * 
+   * @return The rate limiter.
+   */
+  public CreationRateLimiter getCreationRateLimiter()
+  {
+    return creationRateLimiter;
+  }
+
+  /**
+   * Get the false-positive probability of the Bloom filter of auto login
+   * users.
+   * 
+   * @return The false-positive probability or 0 if the filter is disabled.
+   */
+  public double getBloomFilterFpp()
+  {
+    return bloomFilterFpp;
+  }
+
+  /**
+   * Get the rules rewriting user names to their canonical form.
+   * 
+   * @return The user name rewriter.
+   */
+  public UsernameRewriter getUsernameRewriter()
+  {
+    return usernameRewriter;
+  }
+
+  /**
+   * Get the flag whether users unknown to SCM-Manager are allowed to log in.
+   * 
+   * @return The flag whether unknown users are allowed to log in.
+   */
+  public boolean getAllowUnknown()
+  {
+    return allowUnknown;
+  }
+
+  /**
+   * Get the flag whether requests without the HTTP header variable are left
+   * to the other authentication handlers.
+   * 
+   * @return The flag whether the HTTP header variable is required.
+   */
+  public boolean getRequireHeader()
+  {
+    return requireHeader;
+  }
+
+  /**
+   * Get the maximum time in milliseconds a login waits for the concurrent
+   * creation of the same user.
+   * 
+   * @return The timeout in milliseconds.
+   */
+  public long getProvisioningTimeout()
+  {
+    return provisioningTimeout;
+  }
+
+  /**
+   * Get the flag whether a signed ticket cookie is issued after a successful
+   * auto login.
+   * 
+   * @return The flag whether ticket cookies are issued.
+   */
+  public boolean getTicketEnabled()
+  {
+    return ticketEnabled;
+  }
+
+  /**
+   * Get the time a ticket cookie is valid.
+   * 
+   * @return The lifetime of a ticket in milliseconds.
+   */
+  public long getTicketLifetime()
+  {
+    return ticketLifetime;
+  }
+
+  /**
+   * Get the flag whether the audit log is enabled.
+   * 
+   * @return The flag whether the audit log is enabled.
+   */
+  public boolean getAuditEnabled()
+  {
+    return auditEnabled;
+  }
+
+  /**
+   * Get the directory of the audit log.
+   * 
+   * @param baseDirectory
+   *          - The home directory of SCM-Manager.
+   * @return The configured directory or the directory autologin-audit in the
+   *         home directory.
+   */
+  public File getAuditDirectory(File baseDirectory)
+  {
+    return auditDirectory != null ? new File(auditDirectory) : new File(
+        baseDirectory, "autologin-audit");
+  }
+
+  /**
+   * Create the audit log of this configuration.
+   * 
+   * @param baseDirectory
+   *          - The home directory of SCM-Manager.
+   * @return The audit log or null if it is disabled.
+   */
+  public AuditLog createAuditLog(File baseDirectory)
+  {
+    if (!auditEnabled)
+    {
+      return null;
+    }
+
+    return new AuditLog(getAuditDirectory(baseDirectory), auditBufferSize,
+        auditSegmentSize, auditSegments);
+  }
+
+  /**
+   * Check whether the audit log of the given configuration can be used for
+   * this configuration.
+   * 
+   * @param other
+   *          - The other configuration.
+   * @return True if both configurations use the same audit log settings.
+   */
+  public boolean hasSameAudit(CompiledAutoLoginConfig other)
+  {
+    return auditEnabled == other.auditEnabled
+        && (auditDirectory == null ? other.auditDirectory == null
+            : auditDirectory.equals(other.auditDirectory))
+        && auditBufferSize == other.auditBufferSize
+        && auditSegmentSize == other.auditSegmentSize
+        && auditSegments == other.auditSegments;
+  }
+
+  /**
+   * Get the time without a login after which an auto login user is disabled
+   * or removed.
+   * 
+   * @return The time in milliseconds or 0 if inactive users are kept.
+   */
+  public long getInactiveUserAge()
+  {
+    return inactiveUserAge;
+  }
+
+  /**
+   * Get the action applied to inactive auto login users.
+   * 
+   * @return True to remove inactive users, false to disable them.
+   */
+  public boolean getDeleteInactiveUsers()
+  {
+    return deleteInactiveUsers;
+  }
+
+  /**
+   * Get the number of users checked by each step of the inactive user sweep.
+   * 
+   * @return The number of users per step.
+   */
+  public int getSweepBatchSize()
+  {
+    return sweepBatchSize;
+  }
+
+  /**
+   * Get the mail address of the given user.
+   * 
+   * @param username
+   *          - The user name.
+   * @return The mail address.
+   */
+  public String getMail(String username)
+  {
+    return username.concat(mailSuffix);
+  }
+
+  /**
+   * Get the cache of principals of successfully auto-logged in users. The
+   * cache is keyed by the raw value of the HTTP header variable.
+   * 
+   * @return The principal cache.
+   */
+  public LruCache<String, PrincipalCollection> getPrincipalCache()
+  {
+    return principalCache;
+  }
+
+  /**
+   * Get the cache of users the auto login plugin does not authenticate. The
+   * cache is keyed by the user name.
+   * 
+   * @return The negative cache.
+   */
+  public LruCache<String, NegativeResult> getNegativeCache()
+  {
+    return negativeCache;
+  }
+
+  /**
+   * Compute the entity tag of a configuration from the first 128 bits of the
+   * SHA-256 hash of all its values.
+   * 
+   * @param config
+   *          - The configuration.
+   * @return The entity tag as hexadecimal string.
+   */
+  private static String entityTag(AutoLoginConfig config)
+  {
+    MessageDigest digest;
+
+    try
+    {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException("SHA-256 is not available", ex);
+    }
+
+    for (Map.Entry<String, String> value : config.values().entrySet())
+    {
+      digest.update(value.getKey().getBytes(UTF8));
+      digest.update((byte) '=');
+      digest.update(value.getValue().getBytes(UTF8));
+      digest.update((byte) '\n');
+    }
+
+    return AutoLoginHelper.toHex(digest.digest(), 16);
+  }
+
+  /**
+   * Compile the list of trusted proxy networks. Invalid networks are skipped.
+   * 
+   * @param networks
+   *          - The comma or space separated list of networks.
+   * @return The trie of the networks or null if the list is empty.
+   */
+  private static CidrTrie compileTrustedProxies(String networks)
+  {
+    if (networks == null || networks.trim().isEmpty())
+    {
+      return null;
+    }
+
+    CidrTrie trie = new CidrTrie();
+
+    for (String network : networks.trim().split("[,\\s]+"))
+    {
+      try
+      {
+        trie.add(network);
+      } catch (IllegalArgumentException ex)
+      {
+        logger.warn("skipping trusted proxy network: {}", ex.getMessage());
+      }
+    }
+
+    return trie;
+  }
+
+  /**
+   * The reasons for not authenticating a user.
+   */
+  public enum NegativeResult
+  {
+    /** The user is unknown to SCM-Manager. */
+    UNKNOWN,
+
+    /** The user is not an auto login user. */
+    WRONG_TYPE
+  }
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token buckets limiting the rate of user creations, globally and
+ * per client address. The buckets implement the generic cell rate algorithm:
+ * each bucket only stores the theoretical arrival time of the next request in
+ * an {@link AtomicLong}, which is advanced by one emission interval per
+ * accepted request.
+ * 
+ * @author Clemens Rabe
+ */
+public final class CreationRateLimiter
+{
+
+  /** The maximum number of tracked client addresses. */
+  static final int MAX_ADDRESSES = 10000;
+
+  /** The global bucket or null if the global rate is unlimited. */
+  private final Bucket global;
+
+  /** The emission interval per address in nanoseconds or 0 if unlimited. */
+  private final long addressInterval;
+
+  /** The burst size per address. */
+  private final int addressBurst;
+
+  /** The buckets of the client addresses. */
+  private final ConcurrentMap<String, Bucket> addresses = new ConcurrentHashMap<String, Bucket>();
+
+  /** The earliest time of the next removal of idle address buckets. */
+  private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+
+  /**
+   * Constructor.
+   * 
+   * @param rate
+   *          - The global number of creations per minute, 0 for no limit.
+   * @param burst
+   *          - The global number of creations allowed at once.
+   * @param addressRate
+   *          - The number of creations per minute and client address, 0 for
+   *          no limit.
+   * @param addressBurst
+   *          - The number of creations per client address allowed at once.
+   */
+  public CreationRateLimiter(int rate, int burst, int addressRate,
+      int addressBurst)
+  {
+    this.global = rate > 0 ? new Bucket(interval(rate), burst) : null;
+    this.addressInterval = addressRate > 0 ? interval(addressRate) : 0L;
+    this.addressBurst = Math.max(1, addressBurst);
+  }
+
+  /**
+   * Check whether the limiter restricts the creation rate at all.
+   * 
+   * @return True if a global or a per-address rate is configured.
+   */
+  public boolean isEnabled()
+  {
+    return global != null || addressInterval > 0L;
+  }
+
+  /**
+   * Try to take a token for the creation of a user.
+   * 
+   * @param address
+   *          - The address of the client or null if unknown.
+   * @return True if the user may be created.
+   */
+  public boolean tryAcquire(String address)
+  {
+    long now = System.nanoTime();
+
+    // The address is checked first, so a single flooding client can't drain
+    // the global bucket.
+    if (addressInterval > 0L && address != null)
+    {
+      Bucket bucket = addresses.get(address);
+
+      if (bucket == null)
+      {
+        if (addresses.size() >= MAX_ADDRESSES && !sweep(now))
+        {
+          return false;
+        }
+
+        Bucket created = new Bucket(addressInterval, addressBurst);
+
+        bucket = addresses.putIfAbsent(address, created);
+
+        if (bucket == null)
+        {
+          bucket = created;
+        }
+      }
+
+      if (!bucket.tryAcquire(now))
+      {
+        return false;
+      }
+
+      if (global != null && !global.tryAcquire(now))
+      {
+        // Give back the token of the address, as no user is created
+        bucket.release();
+
+        return false;
+      }
+
+      return true;
+    }
+
+    return global == null || global.tryAcquire(now);
+  }
+
+  /**
+   * Give back a token taken by {@link #tryAcquire(String)}, e.g. because the
+   * user was created by a concurrent login in the meantime.
+   * 
+   * @param address
+   *          - The address of the client or null if unknown.
+   */
+  public void release(String address)
+  {
+    if (addressInterval > 0L && address != null)
+    {
+      Bucket bucket = addresses.get(address);
+
+      if (bucket != null)
+      {
+        bucket.release();
+      }
+    }
+
+    if (global != null)
+    {
+      global.release();
+    }
+  }
+
+  /**
+   * Get the number of tracked client addresses.
+   * 
+   * @return The number of address buckets.
+   */
+  public int getAddressCount()
+  {
+    return addresses.size();
+  }
+
+  /**
+   * Remove the buckets of addresses that are full again, at most once per
+   * emission interval.
+   * 
+   * @param now
+   *          - The current time in nanoseconds.
+   * @return True if there is room for another address.
+   */
+  private boolean sweep(long now)
+  {
+    long next = nextSweep.get();
+
+    if (now - next >= 0L
+        && nextSweep.compareAndSet(next, now + addressInterval))
+    {
+      Iterator<Bucket> iterator = addresses.values().iterator();
+
+      while (iterator.hasNext())
+      {
+        if (iterator.next().isIdle(now))
+        {
+          iterator.remove();
+        }
+      }
+    }
+
+    return addresses.size() < MAX_ADDRESSES;
+  }
+
+  /**
+   * Compute the emission interval of a rate.
+   * 
+   * @param perMinute
+   *          - The number of requests per minute.
+   * @return The interval in nanoseconds.
+   */
+  private static long interval(int perMinute)
+  {
+    return Math.max(1L, TimeUnit.MINUTES.toNanos(1) / perMinute);
+  }
+
+  /**
+   * A single token bucket.
+   */
+  private static final class Bucket
+  {
+
+    /** The theoretical arrival time of the next request in nanoseconds. */
+    private final AtomicLong arrival;
+
+    /** The emission interval in nanoseconds. */
+    private final long interval;
+
+    /** The maximum time the arrival time may lie ahead of now. */
+    private final long tolerance;
+
+    private Bucket(long interval, int burst)
+    {
+      this.interval = interval;
+      this.tolerance = interval * Math.max(1, burst);
+      this.arrival = new AtomicLong(System.nanoTime() - tolerance);
+    }
+
+    /**
+     * Try to take a token.
+     * 
+     * @param now
+     *          - The current time in nanoseconds.
+     * @return True if a token was available.
+     */
+    private boolean tryAcquire(long now)
+    {
+      while (true)
+      {
+        long current = arrival.get();
+        long next = (current - now > 0L ? current : now) + interval;
+
+        if (next - now > tolerance)
+        {
+          return false;
+        }
+
+        if (arrival.compareAndSet(current, next))
+        {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Give back a token.
+     */
+    private void release()
+    {
+      arrival.addAndGet(-interval);
+    }
+
+    /**
+     * Check whether the bucket is full again.
+     * 
+     * @param now
+     *          - The current time in nanoseconds.
+     * @return True if the bucket would behave like a new one.
+     */
+    private boolean isIdle(long now)
+    {
+      return now - arrival.get() >= 0L;
+    }
+  }
+}
@@ -0,0 +1,446 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sonia.scm.user.User;
+import sonia.scm.user.UserException;
+import sonia.scm.user.UserManager;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+/**
+ * Enrichment of new users with the display name and mail address of a
+ * {@link DirectoryIndex}. A background thread loads the index and reloads it
+ * whenever the modification time of the file changes. Users created while
+ * the index is not available yet get the default values and are patched as
+ * soon as the index is loaded, so the login never waits for the file. At most
+ * {@link #MAX_PENDING} users wait for the index, further users keep their
+ * default values.
+ * 
+ * @author Clemens Rabe
+ */
+public class DirectoryEnrichment implements Closeable
+{
+
+  /** The interval in milliseconds to check the file for changes. */
+  private static final long POLL_INTERVAL = 30000L;
+
+  /** The maximum number of users waiting to be patched. */
+  public static final int MAX_PENDING = 10000;
+
+  /** The maximum number of attempts to patch a user. */
+  private static final int MAX_PATCH_ATTEMPTS = 10;
+
+  /** The maximum time in milliseconds to wait for the loader on close. */
+  private static final long CLOSE_TIMEOUT = 10000L;
+
+  /** the logger for DirectoryEnrichment */
+  private static final Logger logger = LoggerFactory
+      .getLogger(DirectoryEnrichment.class);
+
+  /** The LDIF or CSV file. */
+  private final File file;
+
+  /** The user manager. */
+  private final UserManager userManager;
+
+  /** The context to modify users with administrative privileges. */
+  private final AdministrationContext adminContext;
+
+  /** The users created with default values, waiting for the index. */
+  private final BlockingQueue<PendingUser> pending = new ArrayBlockingQueue<PendingUser>(
+      MAX_PENDING);
+
+  /** The number of users not patched because the queue was full. */
+  private final AtomicLong dropped = new AtomicLong();
+
+  /** The names of the users patched by the current batch. */
+  private final Set<String> patched = Collections
+      .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /** The background loader. */
+  private final Thread loader;
+
+  /** The current index or null if it is not loaded yet. */
+  private volatile DirectoryIndex index;
+
+  /** The flag whether the loader shall continue. */
+  private volatile boolean running = true;
+
+  /**
+   * Constructor. The background loader is started immediately.
+   * 
+   * @param file
+   *          - The LDIF or CSV file.
+   * @param userManager
+   *          - The user manager.
+   * @param adminContext
+   *          - The context to modify users with administrative privileges.
+   */
+  public DirectoryEnrichment(File file, UserManager userManager,
+      AdministrationContext adminContext)
+  {
+    this.file = file;
+    this.userManager = userManager;
+    this.adminContext = adminContext;
+
+    loader = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        pollFile();
+      }
+    }, "autologin-directory-loader");
+    loader.setDaemon(true);
+    loader.start();
+  }
+
+  /**
+   * Get the LDIF or CSV file.
+   * 
+   * @return The file.
+   */
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Get the current index.
+   * 
+   * @return The index or null if it is not loaded yet.
+   */
+  public DirectoryIndex getIndex()
+  {
+    return index;
+  }
+
+  /**
+   * Get the number of users waiting to be patched.
+   * 
+   * @return The number of pending users.
+   */
+  public int getPendingCount()
+  {
+    return pending.size();
+  }
+
+  /**
+   * Get the number of users not patched because too many users were waiting.
+   * 
+   * @return The number of dropped users.
+   */
+  public long getDroppedCount()
+  {
+    return dropped.get();
+  }
+
+  /**
+   * Check whether the given user was patched by the enrichment. Only the
+   * cached principals of this user need to be dropped for this change.
+   * 
+   * @param username
+   *          - The user name.
+   * @return True if the enrichment patched the user.
+   */
+  public boolean isPatched(String username)
+  {
+    return patched.remove(username);
+  }
+
+  /**
+   * Set the display name and mail address of a new user. If the index is not
+   * loaded yet, the user keeps its default values and is patched later.
+   * 
+   * @param user
+   *          - The new user.
+   */
+  public void enrich(User user)
+  {
+    DirectoryIndex current = index;
+
+    if (current == null)
+    {
+      if (running)
+      {
+        offer(new PendingUser(user.getName(), user.getDisplayName(),
+            user.getMail()));
+      }
+
+      return;
+    }
+
+    apply(current, user);
+  }
+
+  /**
+   * Add a user to the users waiting to be patched, unless too many users are
+   * waiting.
+   * 
+   * @param user
+   *          - The waiting user.
+   */
+  private void offer(PendingUser user)
+  {
+    if (!pending.offer(user))
+    {
+      dropped.incrementAndGet();
+      logger.debug("too many users waiting for the directory file, "
+          + "not patching {}", user.username);
+    }
+  }
+
+  /**
+   * Stop the background loader.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    running = false;
+    loader.interrupt();
+
+    try
+    {
+      loader.join(CLOSE_TIMEOUT);
+    } catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The loop of the background loader.
+   */
+  private void pollFile()
+  {
+    long loaded = -1L;
+
+    while (running)
+    {
+      long modified = file.lastModified();
+
+      if (modified != loaded && modified != 0L)
+      {
+        try
+        {
+          DirectoryIndex current = DirectoryIndex.load(file);
+
+          index = current;
+          loaded = modified;
+          logger.info("loaded {} users of directory file {}", current.size(),
+              file);
+        } catch (IOException ex)
+        {
+          logger.warn("can't load directory file ".concat(file.getPath()), ex);
+        } catch (RuntimeException ex)
+        {
+          logger.error("can't load directory file ".concat(file.getPath()), ex);
+        }
+      }
+
+      DirectoryIndex current = index;
+
+      if (current != null && !pending.isEmpty())
+      {
+        patchPending(current);
+      }
+
+      try
+      {
+        Thread.sleep(pending.isEmpty() ? POLL_INTERVAL : POLL_INTERVAL / 10);
+      } catch (InterruptedException ex)
+      {
+        // close() stops the loop
+      }
+    }
+  }
+
+  /**
+   * Patch the users created while the index was not available. Users not
+   * stored yet are retried later.
+   * 
+   * @param current
+   *          - The loaded index.
+   */
+  private void patchPending(final DirectoryIndex current)
+  {
+    final List<PendingUser> batch = new ArrayList<PendingUser>();
+    final List<PendingUser> retry = new ArrayList<PendingUser>();
+    PendingUser next;
+
+    while ((next = pending.poll()) != null)
+    {
+      if (current.getDisplayName(next.username) != null
+          || current.getMail(next.username) != null)
+      {
+        batch.add(next);
+      }
+    }
+
+    if (batch.isEmpty())
+    {
+      return;
+    }
+
+    patched.clear();
+    adminContext.runAsAdmin(new PrivilegedAction()
+    {
+      @Override
+      public void run()
+      {
+        for (PendingUser candidate : batch)
+        {
+          User user = userManager.get(candidate.username);
+
+          if (user == null)
+          {
+            if (++candidate.attempts < MAX_PATCH_ATTEMPTS)
+            {
+              retry.add(candidate);
+            }
+
+            continue;
+          }
+
+          // Don't override changes made in the meantime
+          if (!AutoLoginAuthenticationHandler.TYPE.equals(user.getType())
+              || !equal(candidate.displayName, user.getDisplayName())
+              || !equal(candidate.mail, user.getMail()))
+          {
+            continue;
+          }
+
+          apply(current, user);
+          patched.add(candidate.username);
+
+          try
+          {
+            userManager.modify(user);
+            logger.debug("patched user {} from directory file",
+                candidate.username);
+          } catch (UserException ex)
+          {
+            patched.remove(candidate.username);
+            logger.warn("can't patch user ".concat(candidate.username), ex);
+          } catch (IOException ex)
+          {
+            patched.remove(candidate.username);
+            logger.warn("can't patch user ".concat(candidate.username), ex);
+          }
+        }
+      }
+    });
+
+    for (PendingUser candidate : retry)
+    {
+      offer(candidate);
+    }
+  }
+
+  /**
+   * Set the display name and mail address of a user from the index.
+   * 
+   * @param current
+   *          - The index.
+   * @param user
+   *          - The user.
+   */
+  private static void apply(DirectoryIndex current, User user)
+  {
+    String displayName = current.getDisplayName(user.getName());
+    String mail = current.getMail(user.getName());
+
+    if (displayName != null)
+    {
+      user.setDisplayName(displayName);
+    }
+
+    if (mail != null)
+    {
+      user.setMail(mail);
+    }
+  }
+
+  /**
+   * Compare two strings that may be null.
+   * 
+   * @param a
+   *          - The first string.
+   * @param b
+   *          - The second string.
+   * @return True if both are null or equal.
+   */
+  private static boolean equal(String a, String b)
+  {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  /**
+   * A user created with default values.
+   */
+  private static final class PendingUser
+  {
+
+    /** The user name. */
+    private final String username;
+
+    /** The default display name. */
+    private final String displayName;
+
+    /** The default mail address. */
+    private final String mail;
+
+    /** The number of failed attempts to patch the user. */
+    private int attempts;
+
+    private PendingUser(String username, String displayName, String mail)
+    {
+      this.username = username;
+      this.displayName = displayName;
+      this.mail = mail;
+    }
+  }
+}
@@ -0,0 +1,401 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Immutable index of the display names and mail addresses of users, read from
+ * a LDIF or CSV export of a directory. The entries are kept in sorted arrays,
+ * so the index needs no per-entry objects and is looked up by binary search.
+ * <p>
+ * Files ending with <code>.ldif</code> are read as LDIF, using the attributes
+ * <code>uid</code>, <code>displayName</code> (or <code>cn</code>) and
+ * <code>mail</code>. All other files are read as CSV with the columns user
+ * name, display name and mail address. A first line starting with the column
+ * name <code>username</code> or <code>uid</code> is skipped.
+ * 
+ * @author Clemens Rabe
+ */
+public final class DirectoryIndex
+{
+
+  /** The charset of the file. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** The sorted user names. */
+  private final String[] usernames;
+
+  /** The display names in the order of the user names. */
+  private final String[] displayNames;
+
+  /** The mail addresses in the order of the user names. */
+  private final String[] mails;
+
+  /**
+   * Constructor.
+   * 
+   * @param entries
+   *          - The display name and mail address of each user, keyed by the
+   *          user name.
+   */
+  private DirectoryIndex(TreeMap<String, String[]> entries)
+  {
+    usernames = new String[entries.size()];
+    displayNames = new String[entries.size()];
+    mails = new String[entries.size()];
+
+    int i = 0;
+
+    for (Map.Entry<String, String[]> entry : entries.entrySet())
+    {
+      usernames[i] = entry.getKey();
+      displayNames[i] = entry.getValue()[0];
+      mails[i] = entry.getValue()[1];
+      i++;
+    }
+  }
+
+  /**
+   * Read the index from a file.
+   * 
+   * @param file
+   *          - The LDIF or CSV file.
+   * @return The index.
+   * @throws IOException
+   *           if the file can't be read.
+   */
+  public static DirectoryIndex load(File file) throws IOException
+  {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), UTF8));
+
+    try
+    {
+      TreeMap<String, String[]> entries = new TreeMap<String, String[]>();
+
+      if (file.getName().toLowerCase(Locale.ENGLISH).endsWith(".ldif"))
+      {
+        readLdif(reader, entries);
+      } else
+      {
+        readCsv(reader, entries);
+      }
+
+      return new DirectoryIndex(entries);
+    } finally
+    {
+      reader.close();
+    }
+  }
+
+  /**
+   * Get the number of users in the index.
+   * 
+   * @return The number of users.
+   */
+  public int size()
+  {
+    return usernames.length;
+  }
+
+  /**
+   * Get the display name of a user.
+   * 
+   * @param username
+   *          - The user name.
+   * @return The display name or null if it is unknown.
+   */
+  public String getDisplayName(String username)
+  {
+    int index = Arrays.binarySearch(usernames, username);
+
+    return index >= 0 ? displayNames[index] : null;
+  }
+
+  /**
+   * Get the mail address of a user.
+   * 
+   * @param username
+   *          - The user name.
+   * @return The mail address or null if it is unknown.
+   */
+  public String getMail(String username)
+  {
+    int index = Arrays.binarySearch(usernames, username);
+
+    return index >= 0 ? mails[index] : null;
+  }
+
+  /**
+   * Read a CSV file with the columns user name, display name and mail
+   * address.
+   * 
+   * @param reader
+   *          - The reader of the file.
+   * @param entries
+   *          - The map receiving the entries.
+   * @throws IOException
+   *           if the file can't be read.
+   */
+  private static void readCsv(BufferedReader reader,
+      Map<String, String[]> entries) throws IOException
+  {
+    boolean first = true;
+    String line;
+
+    while ((line = reader.readLine()) != null)
+    {
+      if (line.trim().isEmpty() || line.startsWith("#"))
+      {
+        continue;
+      }
+
+      List<String> columns = splitCsv(line);
+      String username = columns.get(0);
+
+      if (first
+          && ("username".equalsIgnoreCase(username) || "uid"
+              .equalsIgnoreCase(username)))
+      {
+        first = false;
+        continue;
+      }
+
+      first = false;
+
+      if (!username.isEmpty())
+      {
+        entries.put(username, new String[] { column(columns, 1),
+            column(columns, 2) });
+      }
+    }
+  }
+
+  /**
+   * Split a line of a CSV file. Values may be quoted with double quotes, a
+   * double quote inside a quoted value is written twice.
+   * 
+   * @param line
+   *          - The line.
+   * @return The trimmed values.
+   */
+  private static List<String> splitCsv(String line)
+  {
+    List<String> columns = new ArrayList<String>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+
+    for (int i = 0; i < line.length(); i++)
+    {
+      char c = line.charAt(i);
+
+      if (quoted)
+      {
+        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+        {
+          value.append('"');
+          i++;
+        } else if (c == '"')
+        {
+          quoted = false;
+        } else
+        {
+          value.append(c);
+        }
+      } else if (c == '"')
+      {
+        quoted = true;
+      } else if (c == ',')
+      {
+        columns.add(value.toString().trim());
+        value.setLength(0);
+      } else
+      {
+        value.append(c);
+      }
+    }
+
+    columns.add(value.toString().trim());
+
+    return columns;
+  }
+
+  /**
+   * Get a column of a CSV line.
+   * 
+   * @param columns
+   *          - The values of the line.
+   * @param index
+   *          - The index of the column.
+   * @return The value or null if it is missing or empty.
+   */
+  private static String column(List<String> columns, int index)
+  {
+    if (index >= columns.size() || columns.get(index).isEmpty())
+    {
+      return null;
+    }
+
+    return columns.get(index);
+  }
+
+  /**
+   * Read a LDIF file.
+   * 
+   * @param reader
+   *          - The reader of the file.
+   * @param entries
+   *          - The map receiving the entries.
+   * @throws IOException
+   *           if the file can't be read.
+   */
+  private static void readLdif(BufferedReader reader,
+      Map<String, String[]> entries) throws IOException
+  {
+    // uid, displayName, cn, mail of the current entry
+    String[] attributes = new String[4];
+    StringBuilder logical = null;
+    String line;
+
+    do
+    {
+      line = reader.readLine();
+
+      // Continuation lines start with a single space
+      if (line != null && line.startsWith(" ") && logical != null)
+      {
+        logical.append(line, 1, line.length());
+        continue;
+      }
+
+      if (logical != null)
+      {
+        parseLdifLine(logical.toString(), attributes);
+        logical = null;
+      }
+
+      if (line == null || line.trim().isEmpty())
+      {
+        if (attributes[0] != null)
+        {
+          entries.put(attributes[0], new String[] {
+              attributes[1] != null ? attributes[1] : attributes[2],
+              attributes[3] });
+        }
+
+        Arrays.fill(attributes, null);
+      } else if (!line.startsWith("#"))
+      {
+        logical = new StringBuilder(line);
+      }
+    } while (line != null);
+  }
+
+  /**
+   * Parse an unfolded line of a LDIF file.
+   * 
+   * @param line
+   *          - The line.
+   * @param attributes
+   *          - The attributes uid, displayName, cn and mail of the current
+   *          entry.
+   */
+  private static void parseLdifLine(String line, String[] attributes)
+  {
+    int colon = line.indexOf(':');
+
+    if (colon <= 0)
+    {
+      return;
+    }
+
+    String name = line.substring(0, colon).trim();
+    int slot;
+
+    if ("uid".equalsIgnoreCase(name))
+    {
+      slot = 0;
+    } else if ("displayName".equalsIgnoreCase(name))
+    {
+      slot = 1;
+    } else if ("cn".equalsIgnoreCase(name))
+    {
+      slot = 2;
+    } else if ("mail".equalsIgnoreCase(name))
+    {
+      slot = 3;
+    } else
+    {
+      return;
+    }
+
+    // Keep the first value of multi-valued attributes
+    if (attributes[slot] != null)
+    {
+      return;
+    }
+
+    String value;
+
+    if (colon + 1 < line.length() && line.charAt(colon + 1) == ':')
+    {
+      try
+      {
+        value = new String(BaseEncoding.base64().decode(
+            line.substring(colon + 2).trim()), UTF8);
+      } catch (IllegalArgumentException ex)
+      {
+        return;
+      }
+    } else
+    {
+      value = line.substring(colon + 1).trim();
+    }
+
+    if (!value.isEmpty())
+    {
+      attributes[slot] = value;
+    }
+  }
+}
@@ -0,0 +1,485 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Parser for distinguished names in the OpenSSL slash notation
+ * (<code>/C=DE/O=Example/CN=user</code>, the leading slash is optional) and in
+ * the comma separated notation of RFC 4514
+ * (<code>CN=user,O=Example,C=DE</code>). Escaped characters, quoted values and
+ * multi-valued RDNs are supported. The parser works on the given string
+ * directly and only allocates the returned value.
+ * 
+ * @author Clemens Rabe
+ */
+public final class DistinguishedNameParser
+{
+
+  /** The charset of hex escaped characters. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * The attributes of a distinguished name that can be extracted.
+   */
+  public enum Attribute
+  {
+    /** The common name. */
+    CN("CN", "commonName", "2.5.4.3"),
+
+    /** The user id. */
+    UID("UID", "userid", "0.9.2342.19200300.100.1.1"),
+
+    /** The email address. */
+    EMAILADDRESS("emailAddress", "E", "email", "1.2.840.113549.1.9.1"),
+
+    /** The first organizational unit. */
+    OU("OU", "organizationalUnitName", "2.5.4.11"),
+
+    /** The first organization. */
+    O("O", "organizationName", "2.5.4.10"),
+
+    /** The first domain component. */
+    DC("DC", "domainComponent", "0.9.2342.19200300.100.1.25");
+
+    /** The names of the attribute type, including its OID. */
+    private final String[] names;
+
+    private Attribute(String... names)
+    {
+      this.names = names;
+    }
+
+    /**
+     * Check whether the given region of a string names this attribute type.
+     * 
+     * @param value
+     *          - The string.
+     * @param start
+     *          - The start index of the attribute type.
+     * @param end
+     *          - The end index (exclusive) of the attribute type.
+     * @return True if the region names this attribute.
+     */
+    public boolean matches(String value, int start, int end)
+    {
+      int length = end - start;
+
+      for (String name : names)
+      {
+        if (name.length() == length
+            && value.regionMatches(true, start, name, 0, length))
+        {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    /**
+     * Get the attribute for the given name. The name is matched case
+     * insensitive against all names of the attribute type.
+     * 
+     * @param name
+     *          - The name of the attribute.
+     * @return The attribute or null if the name is unknown.
+     */
+    public static Attribute fromName(String name)
+    {
+      if (name == null)
+      {
+        return null;
+      }
+
+      String trimmed = name.trim();
+
+      for (Attribute attribute : values())
+      {
+        if (attribute.matches(trimmed, 0, trimmed.length())
+            || attribute.name().equals(trimmed.toUpperCase(Locale.ENGLISH)))
+        {
+          return attribute;
+        }
+      }
+
+      return null;
+    }
+  }
+
+  /**
+   * Receiver of the attributes of a distinguished name.
+   */
+  public interface Visitor
+  {
+    /**
+     * Called for each attribute of the distinguished name in the order of the
+     * string.
+     * 
+     * @param type
+     *          - The attribute type as given in the string.
+     * @param value
+     *          - The unescaped value of the attribute.
+     */
+    void visit(String type, String value);
+  }
+
+  private DistinguishedNameParser()
+  {
+  }
+
+  /**
+   * Extract the value of the first occurrence of the given attribute from a
+   * distinguished name.
+   * 
+   * @param dn
+   *          - The distinguished name.
+   * @param attribute
+   *          - The attribute to extract.
+   * @return The unescaped value of the attribute or null if the string is not
+   *         a distinguished name or does not contain the attribute.
+   */
+  public static String extract(String dn, Attribute attribute)
+  {
+    return parse(dn, attribute, null);
+  }
+
+  /**
+   * Pass all attributes of a distinguished name to a visitor. If the string
+   * turns out not to be a distinguished name, the visitor may already have
+   * received the attributes in front of the error.
+   * 
+   * @param dn
+   *          - The distinguished name.
+   * @param visitor
+   *          - The visitor receiving the attributes.
+   * @return True if the string is a valid distinguished name.
+   */
+  public static boolean visit(String dn, Visitor visitor)
+  {
+    return parse(dn, null, visitor) != null;
+  }
+
+  /**
+   * Parse a distinguished name. Either the value of the first occurrence of
+   * the given attribute is returned, or all attributes are passed to the
+   * visitor.
+   * 
+   * @param dn
+   *          - The distinguished name.
+   * @param attribute
+   *          - The attribute to extract or null to visit all attributes.
+   * @param visitor
+   *          - The visitor if no attribute is given.
+   * @return The unescaped value of the attribute, the given string if all
+   *         attributes were visited or null if the string is not a
+   *         distinguished name or does not contain the attribute.
+   */
+  private static String parse(String dn, Attribute attribute, Visitor visitor)
+  {
+    int length = dn.length();
+    int pos = skipSpaces(dn, 0, length);
+
+    if (pos >= length)
+    {
+      return null;
+    }
+
+    boolean slashStyle = isSlashStyle(dn, pos, length);
+
+    if (dn.charAt(pos) == '/')
+    {
+      pos++;
+    }
+
+    while (pos < length)
+    {
+      // Attribute type
+      pos = skipSpaces(dn, pos, length);
+
+      int typeStart = pos;
+      int typeEnd = pos;
+
+      while (pos < length && dn.charAt(pos) != '=')
+      {
+        char c = dn.charAt(pos);
+
+        if (isSeparator(c, slashStyle) || c == '\\')
+        {
+          // Not a distinguished name
+          return null;
+        }
+
+        pos++;
+
+        if (c != ' ')
+        {
+          typeEnd = pos;
+        }
+      }
+
+      if (pos >= length)
+      {
+        return null;
+      }
+
+      boolean matches = attribute != null
+          && attribute.matches(dn, typeStart, typeEnd);
+
+      // Attribute value
+      pos = skipSpaces(dn, pos + 1, length);
+
+      int valueStart = pos;
+      int valueEnd = pos;
+      boolean escaped = false;
+
+      if (pos < length && dn.charAt(pos) == '"')
+      {
+        valueStart = ++pos;
+
+        while (pos < length && dn.charAt(pos) != '"')
+        {
+          if (dn.charAt(pos) == '\\')
+          {
+            escaped = true;
+            pos++;
+          }
+
+          pos++;
+        }
+
+        valueEnd = Math.min(pos, length);
+
+        while (pos < length && !isSeparator(dn.charAt(pos), slashStyle))
+        {
+          pos++;
+        }
+      } else
+      {
+        while (pos < length)
+        {
+          char c = dn.charAt(pos);
+
+          if (c == '\\')
+          {
+            escaped = true;
+            pos = Math.min(pos + 2, length);
+            valueEnd = pos;
+            continue;
+          }
+
+          if (isSeparator(c, slashStyle))
+          {
+            break;
+          }
+
+          pos++;
+
+          if (c != ' ')
+          {
+            valueEnd = pos;
+          }
+        }
+      }
+
+      if (matches || attribute == null)
+      {
+        String value = escaped ? unescape(dn, valueStart, valueEnd) : dn
+            .substring(valueStart, valueEnd);
+
+        if (matches)
+        {
+          return value;
+        }
+
+        visitor.visit(dn.substring(typeStart, typeEnd), value);
+      }
+
+      // Skip the separator
+      pos++;
+    }
+
+    return attribute == null ? dn : null;
+  }
+
+  /**
+   * Check whether a distinguished name is in the OpenSSL slash notation. This
+   * is the case if it starts with a slash or if its first separator outside of
+   * quotes and escapes is a slash, e.g. <code>C=DE/CN=user</code>.
+   * 
+   * @param dn
+   *          - The distinguished name.
+   * @param pos
+   *          - The index of the first non-space character.
+   * @param length
+   *          - The length of the string.
+   * @return True if the DN is in the OpenSSL slash notation.
+   */
+  private static boolean isSlashStyle(String dn, int pos, int length)
+  {
+    boolean quoted = false;
+
+    while (pos < length)
+    {
+      char c = dn.charAt(pos);
+
+      if (c == '\\')
+      {
+        pos += 2;
+        continue;
+      }
+
+      if (c == '"')
+      {
+        quoted = !quoted;
+      } else if (!quoted)
+      {
+        if (c == '/')
+        {
+          return true;
+        }
+
+        if (isSeparator(c, false))
+        {
+          return false;
+        }
+      }
+
+      pos++;
+    }
+
+    return false;
+  }
+
+  /**
+   * Check whether the given character separates two attributes.
+   * 
+   * @param c
+   *          - The character.
+   * @param slashStyle
+   *          - True if the DN is in the OpenSSL slash notation.
+   * @return True if the character is a separator.
+   */
+  private static boolean isSeparator(char c, boolean slashStyle)
+  {
+    if (slashStyle)
+    {
+      return c == '/';
+    }
+
+    return c == ',' || c == ';' || c == '+';
+  }
+
+  /**
+   * Skip space characters.
+   * 
+   * @param value
+   *          - The string.
+   * @param pos
+   *          - The start index.
+   * @param length
+   *          - The length of the string.
+   * @return The index of the first non-space character.
+   */
+  private static int skipSpaces(String value, int pos, int length)
+  {
+    while (pos < length && value.charAt(pos) == ' ')
+    {
+      pos++;
+    }
+
+    return pos;
+  }
+
+  /**
+   * Unescape the given region of a string. Hex escaped characters are decoded
+   * as UTF-8.
+   * 
+   * @param value
+   *          - The string.
+   * @param start
+   *          - The start index of the region.
+   * @param end
+   *          - The end index (exclusive) of the region.
+   * @return The unescaped string.
+   */
+  private static String unescape(String value, int start, int end)
+  {
+    StringBuilder builder = new StringBuilder(end - start);
+    byte[] bytes = null;
+    int count = 0;
+    int pos = start;
+
+    while (pos < end)
+    {
+      char c = value.charAt(pos);
+
+      if (c == '\\' && pos + 1 < end)
+      {
+        int high = Character.digit(value.charAt(pos + 1), 16);
+        int low = pos + 2 < end ? Character.digit(value.charAt(pos + 2), 16)
+            : -1;
+
+        if (high >= 0 && low >= 0)
+        {
+          if (bytes == null)
+          {
+            bytes = new byte[(end - start) / 3];
+          }
+
+          bytes[count++] = (byte) ((high << 4) | low);
+          pos += 3;
+          continue;
+        }
+
+        c = value.charAt(pos + 1);
+        pos++;
+      }
+
+      if (count > 0)
+      {
+        builder.append(new String(bytes, 0, count, UTF8));
+        count = 0;
+      }
+
+      builder.append(c);
+      pos++;
+    }
+
+    if (count > 0)
+    {
+      builder.append(new String(bytes, 0, count, UTF8));
+    }
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-user groups of a {@link GroupMembershipIndex}. A background thread
+ * loads the index and reloads it whenever the modification time of the file
+ * changes. The new index replaces the old one atomically, so lookups never
+ * see a partially loaded file and never wait for the loader. After each swap
+ * the listener is notified, so principals cached with the groups of the old
+ * index are dropped.
+ * 
+ * @author Clemens Rabe
+ */
+public class GroupMembership implements Closeable
+{
+
+  /** The interval in milliseconds to check the file for changes. */
+  private static final long POLL_INTERVAL = 30000L;
+
+  /** The maximum time in milliseconds to wait for the loader on close. */
+  private static final long CLOSE_TIMEOUT = 10000L;
+
+  /** the logger for GroupMembership */
+  private static final Logger logger = LoggerFactory
+      .getLogger(GroupMembership.class);
+
+  /** The membership file. */
+  private final File file;
+
+  /** The listener notified after the index was replaced. */
+  private final Runnable listener;
+
+  /** The background loader. */
+  private final Thread loader;
+
+  /** The current index or null if it is not loaded yet. */
+  private volatile GroupMembershipIndex index;
+
+  /** The flag whether the loader shall continue. */
+  private volatile boolean running = true;
+
+  /**
+   * Constructor. The background loader is started immediately.
+   * 
+   * @param file
+   *          - The membership file.
+   * @param listener
+   *          - The listener notified after the index was replaced.
+   */
+  public GroupMembership(File file, Runnable listener)
+  {
+    this.file = file;
+    this.listener = listener;
+
+    loader = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        pollFile();
+      }
+    }, "autologin-membership-loader");
+    loader.setDaemon(true);
+    loader.start();
+  }
+
+  /**
+   * Get the membership file.
+   * 
+   * @return The file.
+   */
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Get the current index.
+   * 
+   * @return The index or null if it is not loaded yet.
+   */
+  public GroupMembershipIndex getIndex()
+  {
+    return index;
+  }
+
+  /**
+   * Get the groups of a user.
+   * 
+   * @param username
+   *          - The user name.
+   * @return The unmodifiable groups or null if the user is not listed or the
+   *         file is not loaded yet.
+   */
+  public Set<String> getGroups(String username)
+  {
+    GroupMembershipIndex current = index;
+
+    return current == null ? null : current.getGroups(username);
+  }
+
+  /**
+   * Stop the background loader.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    running = false;
+    loader.interrupt();
+
+    try
+    {
+      loader.join(CLOSE_TIMEOUT);
+    } catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The loop of the background loader.
+   */
+  private void pollFile()
+  {
+    long loaded = -1L;
+
+    while (running)
+    {
+      long modified = file.lastModified();
+
+      if (modified != loaded && modified != 0L)
+      {
+        try
+        {
+          GroupMembershipIndex current = GroupMembershipIndex.load(file);
+
+          index = current;
+          loaded = modified;
+          listener.run();
+          logger.info("loaded {} users with {} distinct group sets of "
+              + "membership file {}", current.size(),
+              current.getGroupSetCount(), file);
+        } catch (IOException ex)
+        {
+          logger.warn("can't load membership file ".concat(file.getPath()), ex);
+        } catch (RuntimeException ex)
+        {
+          logger.error("can't load membership file ".concat(file.getPath()),
+              ex);
+        }
+      }
+
+      try
+      {
+        Thread.sleep(POLL_INTERVAL);
+      } catch (InterruptedException ex)
+      {
+        // close() stops the loop
+      }
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable index of the group memberships of users, read from a membership
+ * file. Each line contains a user name followed by a colon, comma, semicolon
+ * or tab and the groups of the user, separated by commas, semicolons or tabs:
+ * 
+ * <pre>
+ * jdoe: developers, testers
+ * asmith,developers
+ * asmith,admins
+ * </pre>
+ * 
+ * The groups of several lines of the same user are merged. Empty lines and
+ * lines starting with <code>#</code> are ignored, as is a first line starting
+ * with the column name <code>username</code>, <code>user</code> or
+ * <code>uid</code>.
+ * <p>
+ * The user names are kept in an open addressing hash table, so a lookup takes
+ * constant time without per-entry objects. Users with the same groups share a
+ * single interned, unmodifiable group set, and the group names are interned
+ * as well, which keeps the index small for tens of thousands of users.
+ * 
+ * @author Clemens Rabe
+ */
+public final class GroupMembershipIndex
+{
+
+  /** The charset of the file. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** The separator between the user name and the groups. */
+  private static final Pattern USER_SEPARATOR = Pattern.compile("[:,;\\t]");
+
+  /** The separator between the groups. */
+  private static final Pattern GROUP_SEPARATOR = Pattern.compile("[,;\\t]");
+
+  /** The hash table of the user names, empty slots are null. */
+  private final String[] usernames;
+
+  /** The index of the group set of each slot of the hash table. */
+  private final int[] groupSetIndex;
+
+  /** The distinct group sets. */
+  private final List<Set<String>> groupSets;
+
+  /** The number of users. */
+  private final int size;
+
+  /**
+   * Constructor.
+   * 
+   * @param memberships
+   *          - The groups of each user, keyed by the user name.
+   */
+  private GroupMembershipIndex(Map<String, Set<String>> memberships)
+  {
+    // At most half of the slots are used, which keeps the probes short
+    int capacity = Integer
+        .highestOneBit(Math.max(2, memberships.size()) * 2) * 2;
+    int mask = capacity - 1;
+    Map<Set<String>, Integer> distinct = new HashMap<Set<String>, Integer>();
+
+    groupSets = new ArrayList<Set<String>>();
+    usernames = new String[capacity];
+    groupSetIndex = new int[capacity];
+    size = memberships.size();
+
+    for (Map.Entry<String, Set<String>> entry : memberships.entrySet())
+    {
+      Integer index = distinct.get(entry.getValue());
+
+      if (index == null)
+      {
+        index = Integer.valueOf(groupSets.size());
+        distinct.put(entry.getValue(), index);
+        groupSets.add(Collections.unmodifiableSet(entry.getValue()));
+      }
+
+      int slot = spread(entry.getKey().hashCode()) & mask;
+
+      while (usernames[slot] != null)
+      {
+        slot = (slot + 1) & mask;
+      }
+
+      usernames[slot] = entry.getKey();
+      groupSetIndex[slot] = index.intValue();
+    }
+  }
+
+  /**
+   * Read the index from a file.
+   * 
+   * @param file
+   *          - The membership file.
+   * @return The index.
+   * @throws IOException
+   *           if the file can't be read.
+   */
+  public static GroupMembershipIndex load(File file) throws IOException
+  {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), UTF8));
+
+    try
+    {
+      Map<String, Set<String>> memberships = new HashMap<String, Set<String>>();
+      Map<String, String> names = new HashMap<String, String>();
+      String line;
+      boolean first = true;
+
+      while ((line = reader.readLine()) != null)
+      {
+        String trimmed = line.trim();
+
+        if (trimmed.isEmpty() || trimmed.startsWith("#"))
+        {
+          continue;
+        }
+
+        String[] columns = USER_SEPARATOR.split(trimmed, 2);
+        String username = columns[0].trim();
+
+        if (first)
+        {
+          first = false;
+
+          if ("username".equalsIgnoreCase(username)
+              || "user".equalsIgnoreCase(username)
+              || "uid".equalsIgnoreCase(username))
+          {
+            continue;
+          }
+        }
+
+        if (username.isEmpty())
+        {
+          continue;
+        }
+
+        Set<String> groups = memberships.get(username);
+
+        if (groups == null)
+        {
+          groups = new LinkedHashSet<String>();
+          memberships.put(username, groups);
+        }
+
+        if (columns.length > 1)
+        {
+          for (String group : GROUP_SEPARATOR.split(columns[1]))
+          {
+            String name = group.trim();
+
+            if (!name.isEmpty())
+            {
+              groups.add(intern(names, name));
+            }
+          }
+        }
+      }
+
+      return new GroupMembershipIndex(memberships);
+    } finally
+    {
+      reader.close();
+    }
+  }
+
+  /**
+   * Get the number of users in the index.
+   * 
+   * @return The number of users.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Get the number of distinct group sets.
+   * 
+   * @return The number of group sets.
+   */
+  public int getGroupSetCount()
+  {
+    return groupSets.size();
+  }
+
+  /**
+   * Get the groups of a user.
+   * 
+   * @param username
+   *          - The user name.
+   * @return The unmodifiable groups or null if the user is not listed.
+   */
+  public Set<String> getGroups(String username)
+  {
+    int mask = usernames.length - 1;
+    int slot = spread(username.hashCode()) & mask;
+    String candidate;
+
+    while ((candidate = usernames[slot]) != null)
+    {
+      if (candidate.equals(username))
+      {
+        return groupSets.get(groupSetIndex[slot]);
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return null;
+  }
+
+  /**
+   * Get the shared instance of a group name.
+   * 
+   * @param names
+   *          - The shared instances of the names read so far.
+   * @param name
+   *          - The group name.
+   * @return The shared instance.
+   */
+  private static String intern(Map<String, String> names, String name)
+  {
+    String shared = names.get(name);
+
+    if (shared == null)
+    {
+      shared = name;
+      names.put(name, name);
+    }
+
+    return shared;
+  }
+
+  /**
+   * Spread the bits of a hash code, so user names differing only in their
+   * last characters don't collide in the low bits.
+   * 
+   * @param hash
+   *          - The hash code.
+   * @return The spread hash code.
+   */
+  private static int spread(int hash)
+  {
+    int h = hash * 0x9E3779B9;
+
+    return h ^ (h >>> 16);
+  }
+}
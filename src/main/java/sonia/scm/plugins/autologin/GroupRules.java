@@ -0,0 +1,440 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ordered list of rules mapping attributes of the client DN or the user name
+ * to groups. Each line of the rule list contains one rule in the form
+ * 
+ * <pre>
+ * SOURCE=VALUE -&gt; group1, group2
+ * SOURCE~REGEX -&gt; group-$1
+ * </pre>
+ * 
+ * The source is either an attribute type of the DN (e.g. <code>OU</code>,
+ * <code>O</code> or <code>DC</code>) or <code>username</code>. The first form
+ * compares the value case insensitive, the second form matches a regular
+ * expression against the complete value and may reference its capturing
+ * groups in the group names. Empty lines and lines starting with
+ * <code>#</code> are ignored.
+ * <p>
+ * All matching rules contribute their groups in the order of the list. The
+ * groups of an identity are memoized, so the rules are only evaluated on the
+ * first login of a client.
+ * 
+ * @author Clemens Rabe
+ */
+public final class GroupRules
+{
+
+  /** The source name of rules matching the user name. */
+  public static final String USERNAME_SOURCE = "username";
+
+  /** The separator between the condition and the groups of a rule. */
+  private static final String ARROW = "->";
+
+  /** The maximum number of memoized group sets. */
+  private static final int MEMO_SIZE = 1024;
+
+  /** The memo key prefix of identities without a header value. */
+  private static final char USERNAME_KEY = '\u0001';
+
+  /** the logger for GroupRules */
+  private static final Logger logger = LoggerFactory
+      .getLogger(GroupRules.class);
+
+  /** The compiled rules in the order of the configuration. */
+  private final List<Rule> rules;
+
+  /** The groups assigned to every user. */
+  private final Set<String> staticGroups;
+
+  /** The group sets of recent identities. */
+  private final LruCache<String, Set<String>> memo;
+
+  /**
+   * Constructor.
+   * 
+   * @param rules
+   *          - The rule list, one rule per line.
+   * @param staticGroups
+   *          - The groups assigned to every user.
+   */
+  public GroupRules(String rules, Set<String> staticGroups)
+  {
+    this.rules = compile(rules);
+    this.staticGroups = staticGroups;
+    this.memo = new LruCache<String, Set<String>>(MEMO_SIZE, 0L);
+  }
+
+  /**
+   * Get the number of valid rules.
+   * 
+   * @return The number of rules.
+   */
+  public int size()
+  {
+    return rules.size();
+  }
+
+  /**
+   * Get the groups of a user.
+   * 
+   * @param key
+   *          - The cache key of the header value or null if the request does
+   *          not carry one.
+   * @param headerValue
+   *          - The value of the HTTP header variable or null if the request
+   *          does not carry one.
+   * @param username
+   *          - The user name.
+   * @return The unmodifiable set of the static groups and the groups of all
+   *         matching rules.
+   */
+  public Set<String> getGroups(String key, String headerValue, String username)
+  {
+    if (rules.isEmpty())
+    {
+      return staticGroups;
+    }
+
+    if (key == null)
+    {
+      key = USERNAME_KEY + username;
+    }
+
+    Set<String> groups = memo.get(key);
+
+    if (groups == null)
+    {
+      groups = evaluate(headerValue, username);
+      memo.put(key, groups);
+    }
+
+    return groups;
+  }
+
+  /**
+   * Evaluate all rules for an identity.
+   * 
+   * @param headerValue
+   *          - The value of the HTTP header variable or null.
+   * @param username
+   *          - The user name.
+   * @return The unmodifiable set of groups.
+   */
+  private Set<String> evaluate(String headerValue, String username)
+  {
+    final List<String[]> attributes = new ArrayList<String[]>();
+
+    if (headerValue != null)
+    {
+      boolean valid = DistinguishedNameParser.visit(headerValue,
+          new DistinguishedNameParser.Visitor()
+          {
+            @Override
+            public void visit(String type, String value)
+            {
+              attributes.add(new String[] { type, value });
+            }
+          });
+
+      if (!valid)
+      {
+        attributes.clear();
+      }
+    }
+
+    Set<String> groups = new LinkedHashSet<String>(staticGroups);
+
+    for (Rule rule : rules)
+    {
+      if (rule.isUsername())
+      {
+        rule.apply(username, groups);
+      } else
+      {
+        for (String[] attribute : attributes)
+        {
+          if (rule.matchesType(attribute[0]))
+          {
+            rule.apply(attribute[1], groups);
+          }
+        }
+      }
+    }
+
+    return Collections.unmodifiableSet(groups);
+  }
+
+  /**
+   * Compile the rule list. Invalid rules are skipped.
+   * 
+   * @param rules
+   *          - The rule list, one rule per line.
+   * @return The compiled rules.
+   */
+  private static List<Rule> compile(String rules)
+  {
+    List<Rule> compiled = new ArrayList<Rule>();
+
+    if (rules == null)
+    {
+      return compiled;
+    }
+
+    for (String line : rules.split("\\r?\\n"))
+    {
+      String trimmed = line.trim();
+
+      if (trimmed.isEmpty() || trimmed.startsWith("#"))
+      {
+        continue;
+      }
+
+      try
+      {
+        compiled.add(Rule.parse(trimmed));
+      } catch (IllegalArgumentException ex)
+      {
+        logger.warn("skipping group rule {}: {}", trimmed, ex.getMessage());
+      }
+    }
+
+    return compiled;
+  }
+
+  /**
+   * A single compiled rule.
+   */
+  private static final class Rule
+  {
+
+    /** The known attribute of the source or null. */
+    private final DistinguishedNameParser.Attribute attribute;
+
+    /** The source as given in the rule. */
+    private final String source;
+
+    /** The value to compare or null for a regular expression. */
+    private final String value;
+
+    /** The regular expression or null for a comparison. */
+    private final Pattern pattern;
+
+    /** The group names, possibly referencing capturing groups. */
+    private final String[] groups;
+
+    private Rule(String source, String value, Pattern pattern, String[] groups)
+    {
+      this.source = source;
+      this.attribute = DistinguishedNameParser.Attribute.fromName(source);
+      this.value = value;
+      this.pattern = pattern;
+      this.groups = groups;
+    }
+
+    /**
+     * Parse a rule.
+     * 
+     * @param rule
+     *          - The trimmed rule.
+     * @return The compiled rule.
+     * @throws IllegalArgumentException
+     *           if the rule is invalid.
+     */
+    static Rule parse(String rule)
+    {
+      int arrow = rule.lastIndexOf(ARROW);
+
+      if (arrow < 0)
+      {
+        throw new IllegalArgumentException("missing " + ARROW);
+      }
+
+      String condition = rule.substring(0, arrow).trim();
+      int operator = 0;
+
+      while (operator < condition.length()
+          && condition.charAt(operator) != '='
+          && condition.charAt(operator) != '~')
+      {
+        operator++;
+      }
+
+      String source = condition.substring(0, Math.min(operator,
+          condition.length())).trim();
+
+      if (operator >= condition.length() || source.isEmpty())
+      {
+        throw new IllegalArgumentException("missing source");
+      }
+
+      String operand = condition.substring(operator + 1).trim();
+      Set<String> names = AutoLoginHelper.splitGroups(rule
+          .substring(arrow + ARROW.length()));
+
+      if (names.isEmpty())
+      {
+        throw new IllegalArgumentException("missing groups");
+      }
+
+      String[] groups = names.toArray(new String[names.size()]);
+
+      if (condition.charAt(operator) == '=')
+      {
+        return new Rule(source, operand, null, groups);
+      }
+
+      try
+      {
+        return new Rule(source, null, Pattern.compile(operand), groups);
+      } catch (PatternSyntaxException ex)
+      {
+        throw new IllegalArgumentException(ex.getDescription(), ex);
+      }
+    }
+
+    /**
+     * Check whether the rule matches the user name.
+     * 
+     * @return True if the source is the user name.
+     */
+    boolean isUsername()
+    {
+      return USERNAME_SOURCE.equalsIgnoreCase(source);
+    }
+
+    /**
+     * Check whether the rule applies to an attribute type of the DN.
+     * 
+     * @param type
+     *          - The attribute type.
+     * @return True if the type matches the source of the rule.
+     */
+    boolean matchesType(String type)
+    {
+      if (attribute != null)
+      {
+        return attribute.matches(type, 0, type.length());
+      }
+
+      return source.equalsIgnoreCase(type);
+    }
+
+    /**
+     * Add the groups of the rule if it matches the given value.
+     * 
+     * @param candidate
+     *          - The value of the source.
+     * @param result
+     *          - The set receiving the groups.
+     */
+    void apply(String candidate, Set<String> result)
+    {
+      if (pattern == null)
+      {
+        if (value.equalsIgnoreCase(candidate))
+        {
+          Collections.addAll(result, groups);
+        }
+
+        return;
+      }
+
+      Matcher matcher = pattern.matcher(candidate);
+
+      if (matcher.matches())
+      {
+        for (String group : groups)
+        {
+          result.add(expand(group, matcher));
+        }
+      }
+    }
+
+    /**
+     * Replace the references <code>$n</code> in a group name by the
+     * capturing groups of a match.
+     * 
+     * @param group
+     *          - The group name.
+     * @param matcher
+     *          - The successful matcher.
+     * @return The group name.
+     */
+    private static String expand(String group, Matcher matcher)
+    {
+      if (group.indexOf('$') < 0)
+      {
+        return group;
+      }
+
+      StringBuilder builder = new StringBuilder(group.length() + 16);
+      int pos = 0;
+
+      while (pos < group.length())
+      {
+        char c = group.charAt(pos++);
+        int index = pos < group.length() ? Character.digit(group.charAt(pos),
+            10) : -1;
+
+        if (c == '$' && index >= 0 && index <= matcher.groupCount())
+        {
+          String captured = matcher.group(index);
+
+          if (captured != null)
+          {
+            builder.append(captured);
+          }
+
+          pos++;
+        } else
+        {
+          builder.append(c);
+        }
+      }
+
+      return builder.toString();
+    }
+  }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A HTTP header carrying the identity of the client, together with the way
+ * the user name is extracted from its value. The extracted user names are
+ * memoized per source, so repeated header values are parsed only once.
+ * <p>
+ * The source {@link #CLIENT_CERTIFICATE} is no HTTP header: it takes the
+ * identity from the client certificate of a TLS connection terminated by the
+ * servlet container. Its value is the SHA-256 fingerprint of the certificate.
+ * 
+ * @author Clemens Rabe
+ */
+public final class HeaderSource
+{
+
+  /** The extraction mode using the complete header value as user name. */
+  public static final String PLAIN = "plain";
+
+  /** The name of the source using the TLS client certificate. */
+  public static final String CLIENT_CERTIFICATE = "client-certificate";
+
+  /** The request attribute holding the client certificate chain. */
+  public static final String CERTIFICATE_ATTRIBUTE = "javax.servlet.request.X509Certificate";
+
+  /** The maximum number of memoized user names. */
+  private static final int USERNAME_MEMO_SIZE = 1024;
+
+  /** The maximum number of memoized certificate identities. */
+  private static final int CERTIFICATE_MEMO_SIZE = 1024;
+
+  /** the logger for HeaderSource */
+  private static final Logger logger = LoggerFactory
+      .getLogger(HeaderSource.class);
+
+  /** The name of the HTTP header. */
+  private final String name;
+
+  /** The attribute of a DN containing the user name or null. */
+  private final DistinguishedNameParser.Attribute attribute;
+
+  /**
+   * The prefix distinguishing the values of this source in cache keys. It
+   * starts with a control character, which is not allowed in header values.
+   */
+  private final String keyPrefix;
+
+  /** The rules rewriting the extracted user names. */
+  private final UsernameRewriter rewriter;
+
+  /** The canonical user names extracted from recent header values. */
+  private final LruCache<String, String> usernameMemo;
+
+  /**
+   * The identities of recent client certificates, keyed by their
+   * fingerprints, or null if the source is a HTTP header.
+   */
+  private final LruCache<String, CertificateIdentity> certificateMemo;
+
+  /**
+   * Constructor.
+   * 
+   * @param name
+   *          - The name of the HTTP header.
+   * @param attribute
+   *          - The attribute of a DN containing the user name or null to use
+   *          the complete value.
+   * @param index
+   *          - The position of the source in the list of sources.
+   * @param rewriter
+   *          - The rules rewriting the extracted user names.
+   */
+  private HeaderSource(String name,
+      DistinguishedNameParser.Attribute attribute, int index,
+      UsernameRewriter rewriter)
+  {
+    this.name = name;
+    this.attribute = attribute;
+    this.rewriter = rewriter;
+    this.keyPrefix = index == 0 ? "" : "\u0000" + index + ":";
+    this.usernameMemo = new LruCache<String, String>(USERNAME_MEMO_SIZE, 0L);
+
+    if (CLIENT_CERTIFICATE.equalsIgnoreCase(name))
+    {
+      this.certificateMemo = new LruCache<String, CertificateIdentity>(
+          CERTIFICATE_MEMO_SIZE, 0L);
+    } else
+    {
+      this.certificateMemo = null;
+    }
+  }
+
+  /**
+   * Parse the ordered list of header sources. Each entry consists of the name
+   * of the HTTP header or {@link #CLIENT_CERTIFICATE}, optionally followed by
+   * a colon and the extraction mode: {@link #PLAIN} or the attribute of a DN
+   * containing the user name. Entries without a mode use the default
+   * attribute. Invalid entries are skipped.
+   * 
+   * @param sources
+   *          - The comma separated list of sources or null.
+   * @param defaultName
+   *          - The name of the HTTP header if the list is empty.
+   * @param defaultAttribute
+   *          - The default attribute of a DN containing the user name.
+   * @param rewriter
+   *          - The rules rewriting the extracted user names.
+   * @return The non-empty list of sources.
+   */
+  public static List<HeaderSource> parse(String sources, String defaultName,
+      DistinguishedNameParser.Attribute defaultAttribute,
+      UsernameRewriter rewriter)
+  {
+    List<HeaderSource> result = new ArrayList<HeaderSource>();
+
+    if (sources != null)
+    {
+      for (String entry : sources.split(","))
+      {
+        String trimmed = entry.trim();
+
+        if (trimmed.isEmpty())
+        {
+          continue;
+        }
+
+        int colon = trimmed.indexOf(':');
+        String name = trimmed;
+        DistinguishedNameParser.Attribute attribute = defaultAttribute;
+
+        if (colon >= 0)
+        {
+          name = trimmed.substring(0, colon).trim();
+
+          String mode = trimmed.substring(colon + 1).trim();
+
+          if (PLAIN.equalsIgnoreCase(mode))
+          {
+            attribute = null;
+          } else
+          {
+            attribute = DistinguishedNameParser.Attribute.fromName(mode);
+
+            if (attribute == null)
+            {
+              logger.warn("skipping header source {}: unknown mode {}",
+                  trimmed, mode);
+              continue;
+            }
+          }
+        }
+
+        if (name.isEmpty())
+        {
+          logger.warn("skipping header source {}: missing name", trimmed);
+          continue;
+        }
+
+        result.add(new HeaderSource(name, attribute, result.size(), rewriter));
+      }
+    }
+
+    if (result.isEmpty())
+    {
+      result.add(new HeaderSource(defaultName, defaultAttribute, 0, rewriter));
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the name of the HTTP header.
+   * 
+   * @return The name of the HTTP header.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Check whether this source uses the TLS client certificate.
+   * 
+   * @return True if the source is no HTTP header.
+   */
+  public boolean isCertificate()
+  {
+    return certificateMemo != null;
+  }
+
+  /**
+   * Get the identity of the client certificate of a request. The identity is
+   * memoized by the fingerprint of the certificate, so the subject is parsed
+   * only once per certificate. The certificate chain has been verified by the
+   * servlet container during the TLS handshake.
+   * 
+   * @param request
+   *          - The HTTP request.
+   * @return The identity or null if the request carries no certificate or
+   *         the certificate is not valid now.
+   */
+  public CertificateIdentity resolveCertificate(HttpServletRequest request)
+  {
+    Object chain = request.getAttribute(CERTIFICATE_ATTRIBUTE);
+
+    if (certificateMemo == null || !(chain instanceof X509Certificate[])
+        || ((X509Certificate[]) chain).length == 0)
+    {
+      return null;
+    }
+
+    X509Certificate certificate = ((X509Certificate[]) chain)[0];
+    String fingerprint = CertificateIdentity.fingerprint(certificate);
+
+    if (fingerprint == null)
+    {
+      logger.warn("can't encode client certificate of {}",
+          request.getRemoteAddr());
+
+      return null;
+    }
+
+    CertificateIdentity identity = certificateMemo.get(fingerprint);
+
+    if (identity == null)
+    {
+      identity = new CertificateIdentity(fingerprint, certificate, this);
+      certificateMemo.put(fingerprint, identity);
+    }
+
+    if (!identity.isValid(System.currentTimeMillis()))
+    {
+      if (logger.isDebugEnabled())
+      {
+        logger.debug("ignoring expired client certificate {}",
+            identity.getSubject());
+      }
+
+      return null;
+    }
+
+    return identity;
+  }
+
+  /**
+   * Get the attribute of a DN containing the user name.
+   * 
+   * @return The attribute or null if the complete value is the user name.
+   */
+  public DistinguishedNameParser.Attribute getAttribute()
+  {
+    return attribute;
+  }
+
+  /**
+   * Get the key identifying a header value of this source in caches. Values
+   * of the first source are used directly.
+   * 
+   * @param value
+   *          - The value of the HTTP header.
+   * @return The cache key.
+   */
+  public String getKey(String value)
+  {
+    return keyPrefix.isEmpty() ? value : keyPrefix.concat(value);
+  }
+
+  /**
+   * Extract the user name from a value of the HTTP header and rewrite it to
+   * its canonical form. The results are memoized and share the same interned
+   * user name.
+   * 
+   * @param value
+   *          - The value of the HTTP header.
+   * @return The user name or null if the value is a DN without the
+   *         attribute of the user name.
+   */
+  public String extractUsername(String value)
+  {
+    String username = usernameMemo.get(value);
+
+    if (username == null)
+    {
+      if (attribute == null)
+      {
+        username = value.isEmpty() ? "anonymous" : value;
+      } else
+      {
+        username = AutoLoginHelper.extractUsername(value, attribute);
+      }
+
+      // An empty name memoizes a DN without the attribute
+      username = username != null ? rewriter.apply(username).intern() : "";
+      usernameMemo.put(value, username);
+    }
+
+    return username.isEmpty() ? null : username;
+  }
+
+  @Override
+  public String toString()
+  {
+    return attribute == null ? name + ":" + PLAIN : name + ":"
+        + attribute.name();
+  }
+}
@@ -0,0 +1,341 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The time of the last login of each auto login user. The times are kept in
+ * memory and only updated if they are older than a minute, so repeated logins
+ * of the same user neither allocate nor write. The times are written to a
+ * compact binary file by {@link #flush()}, which is called periodically by
+ * the {@link UserSweeper} and on shutdown.
+ * <p>
+ * The file starts with a magic number, the format version and the number of
+ * records, followed by the user names as modified UTF-8 and the login times.
+ * 
+ * @author Clemens Rabe
+ */
+public class LastLoginTracker
+{
+
+  /** The name of the file in the config directory. */
+  public static final String FILENAME = "autologin-lastlogin.bin";
+
+  /** The magic number of the file. */
+  private static final int MAGIC = 0x414c4c4c;
+
+  /** The version of the file format. */
+  private static final int FORMAT = 1;
+
+  /** The resolution of the login times in milliseconds. */
+  private static final long RESOLUTION = 60000L;
+
+  /** The file of the login times. */
+  private final File file;
+
+  /** The time of the last login, keyed by the user name. */
+  private final ConcurrentMap<String, AtomicLong> lastLogins = new ConcurrentHashMap<String, AtomicLong>();
+
+  /** The flag whether the login times changed since the last flush. */
+  private volatile boolean dirty;
+
+  /** The lock serializing the flushes. */
+  private final Object flushLock = new Object();
+
+  /**
+   * Constructor.
+   * 
+   * @param file
+   *          - The file of the login times.
+   */
+  public LastLoginTracker(File file)
+  {
+    this.file = file;
+  }
+
+  /**
+   * Get the file of the login times.
+   * 
+   * @return The file.
+   */
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Record a login of the given user now.
+   * 
+   * @param username
+   *          - The user name.
+   */
+  public void record(String username)
+  {
+    record(username, System.currentTimeMillis());
+  }
+
+  /**
+   * Record a login of the given user.
+   * 
+   * @param username
+   *          - The user name.
+   * @param now
+   *          - The time of the login in milliseconds.
+   */
+  void record(String username, long now)
+  {
+    AtomicLong last = lastLogins.get(username);
+
+    if (last == null)
+    {
+      last = lastLogins.putIfAbsent(username, new AtomicLong(now));
+
+      if (last == null)
+      {
+        dirty = true;
+        return;
+      }
+    }
+
+    long previous = last.get();
+
+    if (now - previous >= RESOLUTION && last.compareAndSet(previous, now))
+    {
+      dirty = true;
+    }
+  }
+
+  /**
+   * Get the time of the last login of the given user. Users without a
+   * recorded login are treated as if they logged in now, so a user is never
+   * removed before the tracker had the chance to see a login.
+   * 
+   * @param username
+   *          - The user name.
+   * @param now
+   *          - The current time in milliseconds.
+   * @return The time of the last login in milliseconds.
+   */
+  public long getLastLogin(String username, long now)
+  {
+    AtomicLong last = lastLogins.get(username);
+
+    if (last == null)
+    {
+      last = lastLogins.putIfAbsent(username, new AtomicLong(now));
+
+      if (last == null)
+      {
+        dirty = true;
+        return now;
+      }
+    }
+
+    return last.get();
+  }
+
+  /**
+   * Forget the login time of the given user.
+   * 
+   * @param username
+   *          - The user name.
+   */
+  public void remove(String username)
+  {
+    if (lastLogins.remove(username) != null)
+    {
+      dirty = true;
+    }
+  }
+
+  /**
+   * Get the number of users with a login time.
+   * 
+   * @return The number of users.
+   */
+  public int size()
+  {
+    return lastLogins.size();
+  }
+
+  /**
+   * Load the login times of the file, if it exists. Newer times recorded in
+   * the meantime are kept.
+   * 
+   * @return The number of loaded records.
+   * @throws IOException
+   *           if the file can't be read.
+   */
+  public int load() throws IOException
+  {
+    if (!file.exists())
+    {
+      return 0;
+    }
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+
+    try
+    {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+      {
+        throw new IOException("unknown format of " + file);
+      }
+
+      int count = in.readInt();
+
+      for (int i = 0; i < count; i++)
+      {
+        String username = in.readUTF();
+        long time = in.readLong();
+        AtomicLong last = lastLogins.putIfAbsent(username, new AtomicLong(
+            time));
+
+        if (last != null && last.get() < time)
+        {
+          last.set(time);
+        }
+      }
+
+      return count;
+    } catch (EOFException ex)
+    {
+      throw new IOException("truncated file " + file, ex);
+    } finally
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * Write the login times to the file if they changed since the last flush.
+   * The file is written to a temporary file first and atomically moved over
+   * the old file afterwards, so a crash never leaves a truncated file or no
+   * file behind.
+   * 
+   * @return True if the file was written.
+   * @throws IOException
+   *           if the file can't be written.
+   */
+  public boolean flush() throws IOException
+  {
+    synchronized (flushLock)
+    {
+      if (!dirty)
+      {
+        return false;
+      }
+
+      // Logins recorded while writing mark the tracker dirty again
+      dirty = false;
+
+      try
+      {
+        write();
+      } catch (IOException ex)
+      {
+        dirty = true;
+        throw ex;
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * Write the login times to the file.
+   * 
+   * @throws IOException
+   *           if the file can't be written.
+   */
+  private void write() throws IOException
+  {
+    File parent = file.getAbsoluteFile().getParentFile();
+
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+    {
+      throw new IOException("can't create directory " + parent);
+    }
+
+    // Copy the records first, the map may change while it is written
+    List<Map.Entry<String, Long>> records = new ArrayList<Map.Entry<String, Long>>(
+        lastLogins.size());
+
+    for (Map.Entry<String, AtomicLong> entry : lastLogins.entrySet())
+    {
+      records.add(new AbstractMap.SimpleImmutableEntry<String, Long>(entry
+          .getKey(), entry.getValue().get()));
+    }
+
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(temp)));
+
+    try
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeInt(records.size());
+
+      for (Map.Entry<String, Long> record : records)
+      {
+        out.writeUTF(record.getKey());
+        out.writeLong(record.getValue());
+      }
+    } finally
+    {
+      out.close();
+    }
+
+    // Replaces the file in a single step, so there is always either the old
+    // or the new file
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+}
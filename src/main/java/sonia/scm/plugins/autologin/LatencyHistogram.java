@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies with power of two buckets. Like the
+ * {@link StripedCounter}, each thread updates its own row of buckets. The
+ * percentiles are approximated by the upper bound of their bucket.
+ * 
+ * @author Clemens Rabe
+ */
+public class LatencyHistogram
+{
+
+  /** The number of buckets, one for each bit of a long. */
+  private static final int BUCKETS = 64;
+
+  /** The buckets, one row of buckets for each stripe. */
+  private final AtomicLongArray buckets = new AtomicLongArray(
+      StripedCounter.STRIPES * BUCKETS);
+
+  /** The sum of all recorded latencies. */
+  private final StripedCounter total = new StripedCounter();
+
+  /**
+   * Record a latency.
+   * 
+   * @param nanos
+   *          - The latency in nanoseconds.
+   */
+  public void record(long nanos)
+  {
+    long value = Math.max(0L, nanos);
+    int bucket = BUCKETS - Long.numberOfLeadingZeros(value);
+
+    buckets.getAndIncrement(StripedCounter.stripe() * BUCKETS
+        + Math.min(bucket, BUCKETS - 1));
+    total.add(value);
+  }
+
+  /**
+   * Get the recorded latencies as a snapshot.
+   * 
+   * @return The snapshot.
+   */
+  public Snapshot snapshot()
+  {
+    long[] counts = new long[BUCKETS];
+    long count = 0L;
+
+    for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++)
+    {
+      for (int bucket = 0; bucket < BUCKETS; bucket++)
+      {
+        long value = buckets.get(stripe * BUCKETS + bucket);
+
+        counts[bucket] += value;
+        count += value;
+      }
+    }
+
+    return new Snapshot(counts, count, total.sum());
+  }
+
+  /**
+   * An approximate snapshot of the recorded latencies.
+   */
+  public static final class Snapshot
+  {
+
+    /** The number of latencies in each bucket. */
+    private final long[] counts;
+
+    /** The number of recorded latencies. */
+    private final long count;
+
+    /** The sum of all recorded latencies in nanoseconds. */
+    private final long sum;
+
+    private Snapshot(long[] counts, long count, long sum)
+    {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+    }
+
+    /**
+     * Get the number of recorded latencies.
+     * 
+     * @return The number of recorded latencies.
+     */
+    public long getCount()
+    {
+      return count;
+    }
+
+    /**
+     * Get the mean latency.
+     * 
+     * @return The mean latency in nanoseconds.
+     */
+    public long getMean()
+    {
+      return count == 0L ? 0L : sum / count;
+    }
+
+    /**
+     * Get the upper bound of the given percentile.
+     * 
+     * @param percentile
+     *          - The percentile between 0 and 100.
+     * @return The upper bound of the percentile in nanoseconds.
+     */
+    public long getPercentile(double percentile)
+    {
+      if (count == 0L)
+      {
+        return 0L;
+      }
+
+      long rank = (long) Math.ceil(count * percentile / 100.0);
+      long seen = 0L;
+
+      for (int bucket = 0; bucket < BUCKETS; bucket++)
+      {
+        seen += counts[bucket];
+
+        if (seen >= rank)
+        {
+          return bucket == 0 ? 0L : (bucket >= 63 ? Long.MAX_VALUE
+              : (1L << bucket) - 1L);
+        }
+      }
+
+      return Long.MAX_VALUE;
+    }
+  }
+}
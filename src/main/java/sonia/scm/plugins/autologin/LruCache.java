@@ -0,0 +1,498 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A small, bounded cache with approximate LRU eviction and an optional
+ * time-to-live for its entries. Lookups only read a concurrent map and stamp
+ * the entry with its access time, so they never take a lock. Once the cache
+ * grows beyond its maximum size, a background thread shared by all caches
+ * removes the least recently used eighth of the entries in one pass; writers
+ * may briefly push the size above the maximum meanwhile.
+ * 
+ * @author Clemens Rabe
+ * 
+ * @param <K>
+ *          - The type of the keys.
+ * @param <V>
+ *          - The type of the values.
+ */
+public class LruCache<K, V>
+{
+
+  /**
+   * Receiver of the entries of a cache.
+   * 
+   * @param <K>
+   *          - The type of the keys.
+   * @param <V>
+   *          - The type of the values.
+   */
+  public interface Visitor<K, V>
+  {
+    /**
+     * Called for each live entry of the cache.
+     * 
+     * @param key
+     *          - The key.
+     * @param value
+     *          - The value.
+     * @param remainingMillis
+     *          - The remaining time-to-live in milliseconds or -1 if the entry
+     *          never expires.
+     */
+    void visit(K key, V value, long remainingMillis);
+  }
+
+  /**
+   * The resolution of the access time in nanoseconds. A hot entry is stamped
+   * at most once per millisecond, which keeps concurrent readers from writing
+   * the same field on every lookup.
+   */
+  private static final long ACCESS_RESOLUTION = 1000000L;
+
+  /**
+   * The single thread running the eviction passes of all caches. It is
+   * started on demand and stops after a minute without evictions.
+   */
+  private static final ThreadPoolExecutor EVICTOR = createEvictor();
+
+  /** The maximum number of entries. */
+  private final int maxSize;
+
+  /** The number of entries left after an eviction pass. */
+  private final int evictedSize;
+
+  /** The time-to-live of an entry in nanoseconds, or 0 for no expiry. */
+  private final long ttlNanos;
+
+  /** The entries. */
+  private final ConcurrentHashMap<K, CacheEntry<V>> entries;
+
+  /** Set while an eviction pass is pending or running. */
+  private final AtomicBoolean evicting = new AtomicBoolean();
+
+  /** The eviction pass of this cache. */
+  private final Runnable evictor = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      try
+      {
+        evict();
+      } finally
+      {
+        evicting.set(false);
+      }
+
+      // Entries stored during the pass did not schedule another one
+      scheduleEviction();
+    }
+  };
+
+  /**
+   * Constructor.
+   * 
+   * @param maxSize
+   *          - The maximum number of entries. A value less or equal to 0
+   *          disables the cache.
+   * @param ttlMillis
+   *          - The time-to-live of an entry in milliseconds. A value less or
+   *          equal to 0 disables the expiry.
+   */
+  public LruCache(final int maxSize, long ttlMillis)
+  {
+    this.maxSize = maxSize;
+    this.evictedSize = maxSize - maxSize / 8;
+    this.ttlNanos = ttlMillis > 0 ? ttlMillis * 1000000L : 0L;
+    this.entries = new ConcurrentHashMap<K, CacheEntry<V>>(
+        Math.max(16, Math.min(maxSize, 1024)));
+  }
+
+  /**
+   * Get the value for the given key.
+   * 
+   * @param key
+   *          - The key.
+   * @return The value or null if there is no entry or the entry has expired.
+   */
+  public V get(K key)
+  {
+    if (maxSize <= 0 || key == null)
+    {
+      return null;
+    }
+
+    CacheEntry<V> entry = entries.get(key);
+
+    if (entry == null)
+    {
+      return null;
+    }
+
+    long now = System.nanoTime();
+
+    if (entry.isExpired(now))
+    {
+      entries.remove(key, entry);
+      return null;
+    }
+
+    if (now - entry.accessed > ACCESS_RESOLUTION)
+    {
+      entry.accessed = now;
+    }
+
+    return entry.value;
+  }
+
+  /**
+   * Add or replace the value for the given key.
+   * 
+   * @param key
+   *          - The key.
+   * @param value
+   *          - The value.
+   */
+  public void put(K key, V value)
+  {
+    if (maxSize <= 0 || key == null || value == null)
+    {
+      return;
+    }
+
+    long now = System.nanoTime();
+
+    store(key, new CacheEntry<V>(value, ttlNanos > 0 ? now + ttlNanos : 0L,
+        now));
+  }
+
+  /**
+   * Add or replace the value for the given key with its own time-to-live,
+   * e.g. the remaining time-to-live of a restored entry.
+   * 
+   * @param key
+   *          - The key.
+   * @param value
+   *          - The value.
+   * @param ttlMillis
+   *          - The time-to-live of the entry in milliseconds. It must be
+   *          greater than 0.
+   */
+  public void put(K key, V value, long ttlMillis)
+  {
+    if (maxSize <= 0 || key == null || value == null)
+    {
+      return;
+    }
+
+    long now = System.nanoTime();
+
+    store(key, new CacheEntry<V>(value, now + ttlMillis * 1000000L, now));
+  }
+
+  /**
+   * Pass all live entries to a visitor, starting with the least recently used
+   * one. The entries are copied first, so the visitor sees a consistent
+   * snapshot even while other threads modify the cache.
+   * 
+   * @param visitor
+   *          - The visitor.
+   */
+  public void visit(Visitor<K, V> visitor)
+  {
+    List<Stamped<K, V>> snapshot = snapshot();
+    long now = System.nanoTime();
+
+    for (Stamped<K, V> stamped : snapshot)
+    {
+      CacheEntry<V> entry = stamped.entry;
+
+      if (!entry.isExpired(now))
+      {
+        visitor.visit(stamped.key, entry.value, entry.expires == 0L ? -1L
+            : (entry.expires - now) / 1000000L);
+      }
+    }
+  }
+
+  /**
+   * Remove the entry for the given key.
+   * 
+   * @param key
+   *          - The key.
+   */
+  public void remove(K key)
+  {
+    if (key != null)
+    {
+      entries.remove(key);
+    }
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void invalidateAll()
+  {
+    entries.clear();
+  }
+
+  /**
+   * Get the current number of entries, including expired ones not yet
+   * evicted.
+   * 
+   * @return The number of entries.
+   */
+  public int size()
+  {
+    return entries.size();
+  }
+
+  /**
+   * Get the maximum number of entries.
+   * 
+   * @return The maximum number of entries.
+   */
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  /**
+   * Store an entry. The eviction pass runs on the eviction thread, so the
+   * request thread never sorts the entries.
+   * 
+   * @param key
+   *          - The key.
+   * @param entry
+   *          - The entry.
+   */
+  private void store(K key, CacheEntry<V> entry)
+  {
+    entries.put(key, entry);
+    scheduleEviction();
+  }
+
+  /**
+   * Schedule an eviction pass if the cache has grown beyond its maximum size
+   * and no pass is already pending.
+   */
+  private void scheduleEviction()
+  {
+    if (entries.size() > maxSize && evicting.compareAndSet(false, true))
+    {
+      try
+      {
+        EVICTOR.execute(evictor);
+      } catch (RejectedExecutionException ex)
+      {
+        evicting.set(false);
+      }
+    }
+  }
+
+  /**
+   * Create the thread pool of the eviction passes.
+   * 
+   * @return The thread pool.
+   */
+  private static ThreadPoolExecutor createEvictor()
+  {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1L,
+        TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory()
+        {
+          @Override
+          public Thread newThread(Runnable runnable)
+          {
+            Thread thread = new Thread(runnable, "autologin-cache-eviction");
+
+            thread.setDaemon(true);
+
+            return thread;
+          }
+        });
+
+    executor.allowCoreThreadTimeOut(true);
+
+    return executor;
+  }
+
+  /**
+   * Remove the expired entries and then the least recently used ones until
+   * only {@link #evictedSize} entries are left. Entries replaced in the
+   * meantime are kept.
+   */
+  private void evict()
+  {
+    long now = System.nanoTime();
+    List<Map.Entry<K, CacheEntry<V>>> live =
+        new ArrayList<Map.Entry<K, CacheEntry<V>>>(entries.size());
+
+    for (Map.Entry<K, CacheEntry<V>> mapEntry : entries.entrySet())
+    {
+      if (mapEntry.getValue().isExpired(now))
+      {
+        entries.remove(mapEntry.getKey(), mapEntry.getValue());
+      } else
+      {
+        live.add(mapEntry);
+      }
+    }
+
+    int excess = live.size() - evictedSize;
+
+    if (excess <= 0)
+    {
+      return;
+    }
+
+    long[] accessed = new long[live.size()];
+
+    for (int i = 0; i < accessed.length; i++)
+    {
+      accessed[i] = live.get(i).getValue().accessed - now;
+    }
+
+    Arrays.sort(accessed);
+
+    long cutoff = accessed[excess - 1];
+
+    for (Map.Entry<K, CacheEntry<V>> mapEntry : live)
+    {
+      CacheEntry<V> entry = mapEntry.getValue();
+
+      if (entry.accessed - now <= cutoff)
+      {
+        entries.remove(mapEntry.getKey(), entry);
+      }
+    }
+  }
+
+  /**
+   * Copy the entries of the cache, ordered from the least to the most
+   * recently used one. The access times are copied as well, as they may
+   * change while the copy is sorted.
+   * 
+   * @return The copied entries.
+   */
+  private List<Stamped<K, V>> snapshot()
+  {
+    List<Stamped<K, V>> snapshot = new ArrayList<Stamped<K, V>>(entries.size());
+    long now = System.nanoTime();
+
+    for (Map.Entry<K, CacheEntry<V>> mapEntry : entries.entrySet())
+    {
+      CacheEntry<V> entry = mapEntry.getValue();
+
+      snapshot.add(new Stamped<K, V>(mapEntry.getKey(), entry, entry.accessed
+          - now));
+    }
+
+    Collections.sort(snapshot);
+
+    return snapshot;
+  }
+
+  /**
+   * A cached value together with its expiry and access time.
+   */
+  private static final class CacheEntry<V>
+  {
+
+    /** The cached value. */
+    private final V value;
+
+    /** The expiry time in nanoseconds or 0 if the entry never expires. */
+    private final long expires;
+
+    /** The time of the last access in nanoseconds. */
+    private volatile long accessed;
+
+    private CacheEntry(V value, long expires, long accessed)
+    {
+      this.value = value;
+      this.expires = expires;
+      this.accessed = accessed;
+    }
+
+    private boolean isExpired(long now)
+    {
+      return expires != 0L && now - expires > 0L;
+    }
+  }
+
+  /**
+   * An entry of a snapshot with the access time it had when it was copied,
+   * relative to the time of the copy.
+   */
+  private static final class Stamped<K, V> implements
+      Comparable<Stamped<K, V>>
+  {
+
+    /** The key. */
+    private final K key;
+
+    /** The entry. */
+    private final CacheEntry<V> entry;
+
+    /** The access time relative to the time of the copy. */
+    private final long accessed;
+
+    private Stamped(K key, CacheEntry<V> entry, long accessed)
+    {
+      this.key = key;
+      this.entry = entry;
+      this.accessed = accessed;
+    }
+
+    @Override
+    public int compareTo(Stamped<K, V> other)
+    {
+      return accessed < other.accessed ? -1 : (accessed == other.accessed ? 0
+          : 1);
+    }
+  }
+}
@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+
+import sonia.scm.group.GroupNames;
+import sonia.scm.user.User;
+
+/**
+ * The principals of an auto login user in a compact binary form, as written
+ * to the {@link WarmStartSnapshot} and to an {@link AutoLoginTicket}. The
+ * user itself is not stored, only its name, so the current user of the user
+ * manager is used when the principals are restored.
+ * <p>
+ * A record consists of the expiry time, the user name and the principals,
+ * each with its realm, its kind and its values. Strings are stored as length
+ * prefixed UTF-8.
+ * 
+ * @author Clemens Rabe
+ */
+public final class PrincipalRecord
+{
+
+  /** The expiry time of records that never expire. */
+  public static final long NEVER = 0L;
+
+  /** The kind of the principal holding the id of the user. */
+  private static final int PRINCIPAL_ID = 0;
+
+  /** The kind of the principal holding the user. */
+  private static final int PRINCIPAL_USER = 1;
+
+  /** The kind of the principal holding the group names. */
+  private static final int PRINCIPAL_GROUPS = 2;
+
+  /** The charset of all strings. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** The user name. */
+  private final String username;
+
+  /** The expiry time in milliseconds or {@link #NEVER}. */
+  private final long expires;
+
+  /** The realms of the principals. */
+  private final List<String> realms;
+
+  /** The kinds of the principals. */
+  private final List<Integer> kinds;
+
+  /** The values of the principals, empty for the user. */
+  private final List<List<String>> values;
+
+  /**
+   * Constructor.
+   * 
+   * @param username
+   *          - The user name.
+   * @param expires
+   *          - The expiry time in milliseconds.
+   * @param realms
+   *          - The realms of the principals.
+   * @param kinds
+   *          - The kinds of the principals.
+   * @param values
+   *          - The values of the principals.
+   */
+  private PrincipalRecord(String username, long expires, List<String> realms,
+      List<Integer> kinds, List<List<String>> values)
+  {
+    this.username = username;
+    this.expires = expires;
+    this.realms = realms;
+    this.kinds = kinds;
+    this.values = values;
+  }
+
+  /**
+   * Create the record of the principals of a user. Only the principals of
+   * auto login users consisting of the user, its id and its group names are
+   * recorded.
+   * 
+   * @param principals
+   *          - The principals created by the realm.
+   * @param expires
+   *          - The expiry time in milliseconds or {@link #NEVER}.
+   * @return The record or null if the principals can't be recorded.
+   */
+  public static PrincipalRecord of(PrincipalCollection principals,
+      long expires)
+  {
+    User user = principals.oneByType(User.class);
+
+    if (user == null
+        || !AutoLoginAuthenticationHandler.TYPE.equals(user.getType()))
+    {
+      return null;
+    }
+
+    List<String> realms = new ArrayList<String>();
+    List<Integer> kinds = new ArrayList<Integer>();
+    List<List<String>> values = new ArrayList<List<String>>();
+
+    for (String realm : principals.getRealmNames())
+    {
+      for (Object principal : principals.fromRealm(realm))
+      {
+        List<String> value = new ArrayList<String>();
+
+        if (principal instanceof User)
+        {
+          kinds.add(PRINCIPAL_USER);
+        } else if (principal instanceof String)
+        {
+          kinds.add(PRINCIPAL_ID);
+          value.add((String) principal);
+        } else if (principal instanceof GroupNames)
+        {
+          kinds.add(PRINCIPAL_GROUPS);
+
+          for (String group : (GroupNames) principal)
+          {
+            value.add(group);
+          }
+        } else
+        {
+          return null;
+        }
+
+        realms.add(realm);
+        values.add(value);
+      }
+    }
+
+    return new PrincipalRecord(user.getName(), expires, realms, kinds, values);
+  }
+
+  /**
+   * Read a record.
+   * 
+   * @param buffer
+   *          - The buffer positioned at the record.
+   * @return The record.
+   * @throws IllegalArgumentException
+   *           if the record is corrupt.
+   * @throws java.nio.BufferUnderflowException
+   *           if the record is truncated.
+   */
+  public static PrincipalRecord read(ByteBuffer buffer)
+  {
+    long expires = buffer.getLong();
+    String username = readString(buffer);
+    int count = checkLength(buffer, buffer.getInt());
+    List<String> realms = new ArrayList<String>(count);
+    List<Integer> kinds = new ArrayList<Integer>(count);
+    List<List<String>> values = new ArrayList<List<String>>(count);
+
+    for (int i = 0; i < count; i++)
+    {
+      realms.add(readString(buffer));
+
+      int kind = buffer.get();
+
+      if (kind < PRINCIPAL_ID || kind > PRINCIPAL_GROUPS)
+      {
+        throw new IllegalArgumentException("invalid principal " + kind);
+      }
+
+      int valueCount = checkLength(buffer, buffer.getInt());
+      List<String> value = new ArrayList<String>(valueCount);
+
+      for (int j = 0; j < valueCount; j++)
+      {
+        value.add(readString(buffer));
+      }
+
+      if (kind == PRINCIPAL_ID ? valueCount != 1 : kind == PRINCIPAL_USER
+          && valueCount != 0)
+      {
+        throw new IllegalArgumentException("invalid principal values");
+      }
+
+      kinds.add(kind);
+      values.add(value);
+    }
+
+    return new PrincipalRecord(username, expires, realms, kinds, values);
+  }
+
+  /**
+   * Write the record.
+   * 
+   * @param out
+   *          - The output.
+   * @throws IOException
+   *           if the record can't be written.
+   */
+  public void write(DataOutput out) throws IOException
+  {
+    out.writeLong(expires);
+    writeString(out, username);
+    out.writeInt(kinds.size());
+
+    for (int i = 0; i < kinds.size(); i++)
+    {
+      writeString(out, realms.get(i));
+      out.writeByte(kinds.get(i));
+      out.writeInt(values.get(i).size());
+
+      for (String value : values.get(i))
+      {
+        writeString(out, value);
+      }
+    }
+  }
+
+  /**
+   * Get the user name.
+   * 
+   * @return The user name.
+   */
+  public String getUsername()
+  {
+    return username;
+  }
+
+  /**
+   * Get the expiry time.
+   * 
+   * @return The expiry time in milliseconds or {@link #NEVER}.
+   */
+  public long getExpires()
+  {
+    return expires;
+  }
+
+  /**
+   * Check whether the record has expired.
+   * 
+   * @param now
+   *          - The current time in milliseconds.
+   * @return True if the record has expired.
+   */
+  public boolean isExpired(long now)
+  {
+    return expires != NEVER && expires <= now;
+  }
+
+  /**
+   * Create the principals of the record for the current user.
+   * 
+   * @param user
+   *          - The user of the user manager.
+   * @return The principals, in the order they were recorded.
+   */
+  public PrincipalCollection toPrincipals(User user)
+  {
+    SimplePrincipalCollection principals = new SimplePrincipalCollection();
+
+    for (int i = 0; i < kinds.size(); i++)
+    {
+      List<String> value = values.get(i);
+
+      switch (kinds.get(i))
+      {
+      case PRINCIPAL_USER:
+        principals.add(user, realms.get(i));
+        break;
+
+      case PRINCIPAL_ID:
+        principals.add(value.get(0), realms.get(i));
+        break;
+
+      default:
+        principals.add(new GroupNames(value), realms.get(i));
+      }
+    }
+
+    return principals;
+  }
+
+  /**
+   * Check a length read from a buffer against the remaining bytes.
+   * 
+   * @param buffer
+   *          - The buffer.
+   * @param length
+   *          - The length.
+   * @return The length.
+   */
+  static int checkLength(ByteBuffer buffer, int length)
+  {
+    if (length < 0 || length > buffer.remaining())
+    {
+      throw new IllegalArgumentException("invalid length " + length);
+    }
+
+    return length;
+  }
+
+  /**
+   * Read a length prefixed UTF-8 string.
+   * 
+   * @param buffer
+   *          - The buffer.
+   * @return The string.
+   */
+  static String readString(ByteBuffer buffer)
+  {
+    byte[] bytes = new byte[checkLength(buffer, buffer.getInt())];
+
+    buffer.get(bytes);
+
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * Write a length prefixed UTF-8 string.
+   * 
+   * @param out
+   *          - The output.
+   * @param value
+   *          - The string.
+   * @throws IOException
+   *           if the string can't be written.
+   */
+  static void writeString(DataOutput out, String value) throws IOException
+  {
+    byte[] bytes = value.getBytes(UTF8);
+
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,473 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Immutable dispatch table selecting the compiled configuration of a request
+ * by its host name and path. The selectors of all profiles are compiled into
+ * hash tables keyed by host name and path prefix, so a request needs at most
+ * a few hash lookups for each segment of the longest configured prefix,
+ * independent of the number of profiles.
+ * <p>
+ * Profiles naming the host of the request take precedence over profiles for
+ * all hosts, and longer path prefixes take precedence over shorter ones.
+ * Requests not selecting any profile use the default configuration.
+ * 
+ * @author Clemens Rabe
+ */
+public final class ProfileTable
+{
+
+  /** The valid profile names, which are used as part of the store names. */
+  private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+  /** The host name or path prefix matching all requests. */
+  private static final String ANY = "";
+
+  /** The default configuration. */
+  private final CompiledAutoLoginConfig defaultConfig;
+
+  /** The profiles keyed by their names. */
+  private final Map<String, AutoLoginProfile> profiles;
+
+  /** The compiled configurations of the profiles keyed by their names. */
+  private final Map<String, CompiledAutoLoginConfig> compiled;
+
+  /** The configurations keyed by host name and path prefix. */
+  private final Map<String, Map<String, CompiledAutoLoginConfig>> selectors;
+
+  /** The maximum number of segments of a path prefix. */
+  private final int maxDepth;
+
+  /**
+   * Create a table without profiles.
+   * 
+   * @param defaultConfig
+   *          - The default configuration.
+   */
+  public ProfileTable(CompiledAutoLoginConfig defaultConfig)
+  {
+    this(defaultConfig, new TreeMap<String, AutoLoginProfile>(),
+        new HashMap<String, CompiledAutoLoginConfig>());
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param defaultConfig
+   *          - The default configuration.
+   * @param profiles
+   *          - The profiles keyed by their names.
+   * @param compiled
+   *          - The compiled configurations of the profiles.
+   * @throws IllegalArgumentException
+   *           - If two profiles select the same host and path prefix.
+   */
+  private ProfileTable(CompiledAutoLoginConfig defaultConfig,
+      TreeMap<String, AutoLoginProfile> profiles,
+      Map<String, CompiledAutoLoginConfig> compiled)
+  {
+    this.defaultConfig = defaultConfig;
+    this.profiles = Collections.unmodifiableMap(profiles);
+    this.compiled = compiled;
+
+    Map<String, Map<String, CompiledAutoLoginConfig>> table = new HashMap<String, Map<String, CompiledAutoLoginConfig>>();
+    Map<String, String> owners = new HashMap<String, String>();
+    int depth = 0;
+
+    for (AutoLoginProfile profile : profiles.values())
+    {
+      CompiledAutoLoginConfig config = compiled.get(profile.getName());
+
+      for (String host : hosts(profile))
+      {
+        Map<String, CompiledAutoLoginConfig> prefixes = table.get(host);
+
+        if (prefixes == null)
+        {
+          prefixes = new HashMap<String, CompiledAutoLoginConfig>();
+          table.put(host, prefixes);
+        }
+
+        for (String prefix : pathPrefixes(profile))
+        {
+          String owner = owners.put(host + " " + prefix, profile.getName());
+
+          if (owner != null)
+          {
+            throw new IllegalArgumentException("profiles " + owner + " and "
+                + profile.getName() + " select the same requests");
+          }
+
+          prefixes.put(prefix, config);
+          depth = Math.max(depth, segments(prefix));
+        }
+      }
+    }
+
+    this.selectors = table;
+    this.maxDepth = depth;
+  }
+
+  /**
+   * Create a table with another default configuration.
+   * 
+   * @param config
+   *          - The new default configuration.
+   * @return The new table.
+   */
+  public ProfileTable withDefault(CompiledAutoLoginConfig config)
+  {
+    return new ProfileTable(config, new TreeMap<String, AutoLoginProfile>(
+        profiles), compiled);
+  }
+
+  /**
+   * Create a table with a new or changed profile.
+   * 
+   * @param profile
+   *          - The profile.
+   * @return The new table.
+   * @throws IllegalArgumentException
+   *           - If the profile is invalid or selects the same requests as
+   *           another profile.
+   */
+  public ProfileTable with(AutoLoginProfile profile)
+  {
+    String name = profile.getName();
+
+    if (name == null || !NAME.matcher(name).matches())
+    {
+      throw new IllegalArgumentException("invalid profile name " + name);
+    }
+
+    if (hosts(profile).contains(ANY) && pathPrefixes(profile).contains(ANY))
+    {
+      throw new IllegalArgumentException("profile " + name
+          + " needs a host name or a path prefix");
+    }
+
+    if (profile.getConfig() == null)
+    {
+      profile.setConfig(new AutoLoginConfig());
+    }
+
+    TreeMap<String, AutoLoginProfile> newProfiles = new TreeMap<String, AutoLoginProfile>(
+        profiles);
+    Map<String, CompiledAutoLoginConfig> newCompiled = new HashMap<String, CompiledAutoLoginConfig>(
+        compiled);
+
+    newProfiles.put(name, profile);
+    newCompiled.put(name, CompiledAutoLoginConfig.compile(profile.getConfig()));
+
+    return new ProfileTable(defaultConfig, newProfiles, newCompiled);
+  }
+
+  /**
+   * Create a table without a profile.
+   * 
+   * @param name
+   *          - The name of the profile.
+   * @return The new table.
+   */
+  public ProfileTable without(String name)
+  {
+    TreeMap<String, AutoLoginProfile> newProfiles = new TreeMap<String, AutoLoginProfile>(
+        profiles);
+    Map<String, CompiledAutoLoginConfig> newCompiled = new HashMap<String, CompiledAutoLoginConfig>(
+        compiled);
+
+    newProfiles.remove(name);
+    newCompiled.remove(name);
+
+    return new ProfileTable(defaultConfig, newProfiles, newCompiled);
+  }
+
+  /**
+   * Get the default configuration.
+   * 
+   * @return The compiled default configuration.
+   */
+  public CompiledAutoLoginConfig getDefaultConfig()
+  {
+    return defaultConfig;
+  }
+
+  /**
+   * Get a profile.
+   * 
+   * @param name
+   *          - The name of the profile.
+   * @return The profile or null if it does not exist.
+   */
+  public AutoLoginProfile getProfile(String name)
+  {
+    return profiles.get(name);
+  }
+
+  /**
+   * Get the names of all profiles.
+   * 
+   * @return The sorted names.
+   */
+  public Set<String> getProfileNames()
+  {
+    return profiles.keySet();
+  }
+
+  /**
+   * Get the default configuration and the configurations of all profiles.
+   * 
+   * @return The compiled configurations.
+   */
+  public Collection<CompiledAutoLoginConfig> getConfigs()
+  {
+    List<CompiledAutoLoginConfig> configs = new ArrayList<CompiledAutoLoginConfig>(
+        compiled.size() + 1);
+
+    configs.add(defaultConfig);
+    configs.addAll(compiled.values());
+
+    return configs;
+  }
+
+  /**
+   * Select the configuration of a request.
+   * 
+   * @param request
+   *          - The HTTP request.
+   * @return The configuration of the selected profile or the default
+   *         configuration.
+   */
+  public CompiledAutoLoginConfig select(HttpServletRequest request)
+  {
+    if (selectors.isEmpty())
+    {
+      return defaultConfig;
+    }
+
+    String path = requestPath(request);
+    String host = request.getServerName();
+    CompiledAutoLoginConfig config = null;
+
+    if (host != null)
+    {
+      config = match(selectors.get(host.toLowerCase(Locale.ENGLISH)), path);
+    }
+
+    if (config == null)
+    {
+      config = match(selectors.get(ANY), path);
+    }
+
+    return config != null ? config : defaultConfig;
+  }
+
+  /**
+   * Find the longest path prefix of a host matching a path.
+   * 
+   * @param prefixes
+   *          - The configurations of the host keyed by path prefix or null.
+   * @param path
+   *          - The path of the request.
+   * @return The configuration or null if no prefix matches.
+   */
+  private CompiledAutoLoginConfig match(
+      Map<String, CompiledAutoLoginConfig> prefixes, String path)
+  {
+    if (prefixes == null)
+    {
+      return null;
+    }
+
+    int end = 0;
+
+    // Skip to the end of the deepest prefix the path may match
+    for (int depth = 0; depth < maxDepth && end < path.length(); depth++)
+    {
+      int next = path.indexOf('/', end + 1);
+
+      end = next < 0 ? path.length() : next;
+    }
+
+    while (end > 0)
+    {
+      CompiledAutoLoginConfig config = prefixes.get(path.substring(0, end));
+
+      if (config != null)
+      {
+        return config;
+      }
+
+      end = path.lastIndexOf('/', end - 1);
+    }
+
+    return prefixes.get(ANY);
+  }
+
+  /**
+   * Get the path of a request below the context path. The servlet path and
+   * the path info are decoded and normalized by the servlet container, unlike
+   * the raw request URI, so encoded or dotted paths can't bypass a profile.
+   * 
+   * @param request
+   *          - The HTTP request.
+   * @return The path.
+   */
+  private static String requestPath(HttpServletRequest request)
+  {
+    String servletPath = request.getServletPath();
+    String pathInfo = request.getPathInfo();
+
+    if (servletPath == null)
+    {
+      return pathInfo != null ? pathInfo : ANY;
+    }
+
+    return pathInfo != null ? servletPath.concat(pathInfo) : servletPath;
+  }
+
+  /**
+   * Get the normalized host names of a profile.
+   * 
+   * @param profile
+   *          - The profile.
+   * @return The host names or {@link #ANY}.
+   */
+  private static List<String> hosts(AutoLoginProfile profile)
+  {
+    List<String> hosts = new ArrayList<String>();
+
+    for (String host : split(profile.getHosts()))
+    {
+      hosts.add(host.toLowerCase(Locale.ENGLISH));
+    }
+
+    if (hosts.isEmpty())
+    {
+      hosts.add(ANY);
+    }
+
+    return hosts;
+  }
+
+  /**
+   * Get the normalized path prefixes of a profile, starting with a slash and
+   * without a trailing slash.
+   * 
+   * @param profile
+   *          - The profile.
+   * @return The path prefixes or {@link #ANY}.
+   */
+  private static List<String> pathPrefixes(AutoLoginProfile profile)
+  {
+    List<String> prefixes = new ArrayList<String>();
+
+    for (String prefix : split(profile.getPathPrefixes()))
+    {
+      String normalized = prefix.startsWith("/") ? prefix : "/" + prefix;
+      int end = normalized.length();
+
+      while (end > 0 && normalized.charAt(end - 1) == '/')
+      {
+        end--;
+      }
+
+      prefixes.add(normalized.substring(0, end));
+    }
+
+    if (prefixes.isEmpty())
+    {
+      prefixes.add(ANY);
+    }
+
+    return prefixes;
+  }
+
+  /**
+   * Count the segments of a path prefix.
+   * 
+   * @param prefix
+   *          - The normalized path prefix.
+   * @return The number of segments.
+   */
+  private static int segments(String prefix)
+  {
+    int count = 0;
+
+    for (int i = 0; i < prefix.length(); i++)
+    {
+      if (prefix.charAt(i) == '/')
+      {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Split a comma or space separated list.
+   * 
+   * @param list
+   *          - The list or null.
+   * @return The non-empty entries.
+   */
+  private static List<String> split(String list)
+  {
+    List<String> entries = new ArrayList<String>();
+
+    if (list != null)
+    {
+      for (String entry : list.split("[,\\s]+"))
+      {
+        if (!entry.isEmpty())
+        {
+          entries.add(entry);
+        }
+      }
+    }
+
+    return entries;
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+/**
+ * The identity of a client as resolved from the configured header sources.
+ * The identity is resolved once per request and stored as request attribute,
+ * so the filter and the authentication handler share the result.
+ * 
+ * @author Clemens Rabe
+ */
+public final class RemoteIdentity
+{
+
+  /** The name of the request attribute holding the resolved identity. */
+  public static final String ATTRIBUTE = RemoteIdentity.class.getName();
+
+  /** The version of the configuration the identity was resolved with. */
+  private final long version;
+
+  /** The source of the identity or null. */
+  private final HeaderSource source;
+
+  /**
+   * The value of the HTTP header, the fingerprint of the client certificate
+   * or null.
+   */
+  private final String value;
+
+  /** The flag whether the client is a trusted proxy. */
+  private final boolean trusted;
+
+  /** The cache key, computed on demand. */
+  private String key;
+
+  /** The user name, extracted on demand unless known in advance. */
+  private String username;
+
+  /**
+   * Constructor.
+   * 
+   * @param version
+   *          - The version of the configuration.
+   * @param source
+   *          - The source of the identity or null if no source is present.
+   * @param value
+   *          - The value of the HTTP header or null.
+   * @param username
+   *          - The user name or null to extract it from the value on demand.
+   * @param trusted
+   *          - The flag whether the client is a trusted proxy.
+   */
+  RemoteIdentity(long version, HeaderSource source, String value,
+      String username, boolean trusted)
+  {
+    this.version = version;
+    this.source = source;
+    this.value = value;
+    this.username = username;
+    this.trusted = trusted;
+  }
+
+  /**
+   * Get the version of the configuration the identity was resolved with.
+   * 
+   * @return The version of the configuration.
+   */
+  public long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Check whether the request carries a trusted identity.
+   * 
+   * @return True if a header source is present and the client is trusted.
+   */
+  public boolean isPresent()
+  {
+    return value != null && trusted;
+  }
+
+  /**
+   * Check whether the client is allowed to send the identity headers.
+   * 
+   * @return False if a header source is present, but the client is not a
+   *         trusted proxy.
+   */
+  public boolean isTrusted()
+  {
+    return trusted;
+  }
+
+  /**
+   * Get the source of the identity.
+   * 
+   * @return The source or null if no source is present.
+   */
+  public HeaderSource getSource()
+  {
+    return source;
+  }
+
+  /**
+   * Get the value of the HTTP header or the fingerprint of the client
+   * certificate.
+   * 
+   * @return The value or null if no source is present.
+   */
+  public String getValue()
+  {
+    return value;
+  }
+
+  /**
+   * Get the key identifying the identity in caches.
+   * 
+   * @return The key or null if no source is present.
+   */
+  public String getKey()
+  {
+    if (key == null && value != null)
+    {
+      key = source.getKey(value);
+    }
+
+    return key;
+  }
+
+  /**
+   * Get the user name of the identity.
+   * 
+   * @return The user name or null if no source is present or the DN does not
+   *         contain the attribute of the user name.
+   */
+  public String getUsername()
+  {
+    // The user name of a certificate is extracted in advance
+    if (username == null && value != null && !source.isCertificate())
+    {
+      username = source.extractUsername(value);
+    }
+
+    return username;
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer for many producers and a single consumer.
+ * Each slot carries a sequence number telling producers and the consumer
+ * whether the slot is free or filled, so neither side ever blocks. Producers
+ * fail fast if the buffer is full.
+ * 
+ * @author Clemens Rabe
+ * 
+ * @param <T>
+ *          - The type of the elements.
+ */
+public class RingBuffer<T>
+{
+
+  /** The mask to map a position to a slot. */
+  private final int mask;
+
+  /** The elements. */
+  private final AtomicReferenceArray<T> elements;
+
+  /** The sequence numbers of the slots. */
+  private final AtomicLongArray sequences;
+
+  /** The next position to write. */
+  private final AtomicLong tail = new AtomicLong();
+
+  /** The next position to read, only used by the consumer. */
+  private long head;
+
+  /**
+   * Constructor.
+   * 
+   * @param capacity
+   *          - The minimum capacity, rounded up to a power of two.
+   */
+  public RingBuffer(int capacity)
+  {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+    mask = size - 1;
+    elements = new AtomicReferenceArray<T>(size);
+    sequences = new AtomicLongArray(size);
+
+    for (int i = 0; i < size; i++)
+    {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Add an element. This method may be called by any thread.
+   * 
+   * @param element
+   *          - The element.
+   * @return False if the buffer is full.
+   */
+  public boolean offer(T element)
+  {
+    long position = tail.get();
+
+    while (true)
+    {
+      int slot = (int) position & mask;
+      long difference = sequences.get(slot) - position;
+
+      if (difference == 0L)
+      {
+        if (tail.compareAndSet(position, position + 1))
+        {
+          elements.set(slot, element);
+          sequences.lazySet(slot, position + 1);
+
+          return true;
+        }
+
+        position = tail.get();
+      } else if (difference < 0L)
+      {
+        return false;
+      } else
+      {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Remove the next element. This method must only be called by the single
+   * consumer thread.
+   * 
+   * @return The element or null if the buffer is empty.
+   */
+  public T poll()
+  {
+    int slot = (int) head & mask;
+
+    if (sequences.get(slot) != head + 1)
+    {
+      return null;
+    }
+
+    T element = elements.get(slot);
+
+    elements.lazySet(slot, null);
+    sequences.lazySet(slot, head + mask + 1);
+    head++;
+
+    return element;
+  }
+
+  /**
+   * Remove up to the given number of elements. This method must only be
+   * called by the single consumer thread.
+   * 
+   * @param target
+   *          - The list receiving the elements.
+   * @param max
+   *          - The maximum number of elements.
+   * @return The number of removed elements.
+   */
+  public int drainTo(List<T> target, int max)
+  {
+    int count = 0;
+    T element;
+
+    while (count < max && (element = poll()) != null)
+    {
+      target.add(element);
+      count++;
+    }
+
+    return count;
+  }
+
+  /**
+   * Get the capacity of the buffer.
+   * 
+   * @return The number of slots.
+   */
+  public int getCapacity()
+  {
+    return mask + 1;
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls for the same key. The first caller executes the
+ * call, while all callers arriving during the execution wait for and share its
+ * result.
+ * 
+ * @author Clemens Rabe
+ * 
+ * @param <K>
+ *          - The type of the keys.
+ * @param <V>
+ *          - The type of the results.
+ */
+public class SingleFlight<K, V>
+{
+
+  /** The calls currently in flight. */
+  private final ConcurrentMap<K, FutureTask<V>> calls = new ConcurrentHashMap<K, FutureTask<V>>();
+
+  /** The number of executed calls. */
+  private final AtomicLong executed = new AtomicLong();
+
+  /** The number of calls that shared the result of another call. */
+  private final AtomicLong coalesced = new AtomicLong();
+
+  /** The number of calls that timed out waiting for another call. */
+  private final AtomicLong timedOut = new AtomicLong();
+
+  /**
+   * Execute the given call unless a call for the same key is already in
+   * flight. In this case, wait for the result of the other call.
+   * 
+   * @param key
+   *          - The key.
+   * @param callable
+   *          - The call to execute.
+   * @param timeoutMillis
+   *          - The maximum time in milliseconds to wait for another call.
+   * @return The result of the call.
+   * @throws ExecutionException
+   *           - If the call failed.
+   * @throws TimeoutException
+   *           - If the other call did not finish in time.
+   * @throws InterruptedException
+   *           - If the thread was interrupted while waiting.
+   */
+  public V execute(K key, Callable<V> callable, long timeoutMillis)
+      throws ExecutionException, TimeoutException, InterruptedException
+  {
+    FutureTask<V> task = new FutureTask<V>(callable);
+    FutureTask<V> inFlight = calls.putIfAbsent(key, task);
+
+    if (inFlight == null)
+    {
+      executed.incrementAndGet();
+
+      try
+      {
+        task.run();
+      } finally
+      {
+        calls.remove(key, task);
+      }
+
+      return task.get();
+    }
+
+    coalesced.incrementAndGet();
+
+    try
+    {
+      return inFlight.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException ex)
+    {
+      timedOut.incrementAndGet();
+      throw ex;
+    }
+  }
+
+  /**
+   * Get the number of executed calls.
+   * 
+   * @return The number of executed calls.
+   */
+  public long getExecuted()
+  {
+    return executed.get();
+  }
+
+  /**
+   * Get the number of calls that shared the result of another call.
+   * 
+   * @return The number of coalesced calls.
+   */
+  public long getCoalesced()
+  {
+    return coalesced.get();
+  }
+
+  /**
+   * Get the number of calls that timed out waiting for another call.
+   * 
+   * @return The number of timed out calls.
+   */
+  public long getTimedOut()
+  {
+    return timedOut.get();
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free counter spreading its updates over several cells to reduce the
+ * contention between threads. Each thread updates the cell selected by its
+ * id, the value of the counter is the sum of all cells.
+ * 
+ * @author Clemens Rabe
+ */
+public class StripedCounter
+{
+
+  /** The number of cells, a power of two. */
+  static final int STRIPES = stripes();
+
+  /** The distance between two cells to keep them on separate cache lines. */
+  static final int PADDING = 8;
+
+  /** The cells. */
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  /**
+   * Increment the counter by one.
+   */
+  public void increment()
+  {
+    add(1L);
+  }
+
+  /**
+   * Add the given value to the counter.
+   * 
+   * @param value
+   *          - The value to add.
+   */
+  public void add(long value)
+  {
+    cells.getAndAdd(index(), value);
+  }
+
+  /**
+   * Get the current value of the counter. The value is not an atomic snapshot
+   * if the counter is updated concurrently.
+   * 
+   * @return The sum of all cells.
+   */
+  public long sum()
+  {
+    long sum = 0L;
+
+    for (int i = 0; i < STRIPES; i++)
+    {
+      sum += cells.get(i * PADDING);
+    }
+
+    return sum;
+  }
+
+  /**
+   * Get the stripe of the current thread.
+   * 
+   * @return The stripe.
+   */
+  static int stripe()
+  {
+    long id = Thread.currentThread().getId();
+
+    return (int) (id ^ (id >>> 16)) & (STRIPES - 1);
+  }
+
+  /**
+   * Get the index of the cell of the current thread.
+   * 
+   * @return The index of the cell.
+   */
+  private static int index()
+  {
+    return stripe() * PADDING;
+  }
+
+  /**
+   * Get the number of cells, the next power of two of the number of
+   * processors.
+   * 
+   * @return The number of cells.
+   */
+  private static int stripes()
+  {
+    int processors = Runtime.getRuntime().availableProcessors();
+
+    return Integer.highestOneBit(Math.max(1, processors - 1)) << 1;
+  }
+}
@@ -0,0 +1,475 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import sonia.scm.user.User;
+import sonia.scm.user.UserException;
+import sonia.scm.user.UserManager;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.PrivilegedAction;
+
+/**
+ * Background sweeper disabling or removing auto login users without a login
+ * for a configurable time. The users are walked in small batches sorted by
+ * name, with a pause after each batch, so the sweeper never holds the user
+ * manager for long and never takes a lock of the request threads. A cursor
+ * of the last checked name keeps the walk stable while users are added or
+ * removed; users missed this way are checked by the next pass.
+ * <p>
+ * The sweeper also writes the login times of the {@link LastLoginTracker}
+ * periodically.
+ * 
+ * @author Clemens Rabe
+ */
+public class UserSweeper implements Closeable
+{
+
+  /** The pause in milliseconds between two batches. */
+  private static final long STEP_INTERVAL = 10000L;
+
+  /** The minimum time in milliseconds between the start of two passes. */
+  private static final long PASS_INTERVAL = 3600000L;
+
+  /** The interval in milliseconds to write the login times. */
+  private static final long FLUSH_INTERVAL = 300000L;
+
+  /** The maximum time in milliseconds to wait for the sweeper on close. */
+  private static final long CLOSE_TIMEOUT = 10000L;
+
+  /** The order of the walk. */
+  private static final Comparator<User> BY_NAME = new Comparator<User>()
+  {
+    @Override
+    public int compare(User u1, User u2)
+    {
+      return u1.getName().compareTo(u2.getName());
+    }
+  };
+
+  /** the logger for UserSweeper */
+  private static final Logger logger = LoggerFactory
+      .getLogger(UserSweeper.class);
+
+  /** The user manager. */
+  private final UserManager userManager;
+
+  /** The context to change users with administrative privileges. */
+  private final AdministrationContext adminContext;
+
+  /** The login times of the users. */
+  private final LastLoginTracker tracker;
+
+  /** The time in milliseconds without a login after which a user is swept. */
+  private final long maxAge;
+
+  /** True to remove inactive users, false to disable them. */
+  private final boolean delete;
+
+  /** The number of users checked by each batch. */
+  private final int batchSize;
+
+  /** The background sweeper. */
+  private final Thread sweeper;
+
+  /** The lock to wait on between two batches. */
+  private final Object pause = new Object();
+
+  /** The flag whether the sweeper shall continue. */
+  private volatile boolean running = true;
+
+  /** The names of the users changed by the current batch. */
+  private final Set<String> changed = Collections
+      .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /** The number of disabled or removed users. */
+  private final AtomicLong swept = new AtomicLong();
+
+  /** The number of completed passes. */
+  private final AtomicLong passes = new AtomicLong();
+
+  /**
+   * Constructor. The background sweeper is started immediately.
+   * 
+   * @param userManager
+   *          - The user manager.
+   * @param adminContext
+   *          - The context to change users with administrative privileges.
+   * @param tracker
+   *          - The login times of the users.
+   * @param maxAge
+   *          - The time in milliseconds without a login after which a user is
+   *          swept.
+   * @param delete
+   *          - True to remove inactive users, false to disable them.
+   * @param batchSize
+   *          - The number of users checked by each batch.
+   */
+  public UserSweeper(UserManager userManager,
+      AdministrationContext adminContext, LastLoginTracker tracker,
+      long maxAge, boolean delete, int batchSize)
+  {
+    this.userManager = userManager;
+    this.adminContext = adminContext;
+    this.tracker = tracker;
+    this.maxAge = maxAge;
+    this.delete = delete;
+    this.batchSize = Math.max(1, batchSize);
+
+    sweeper = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        sweep();
+      }
+    }, "autologin-user-sweeper");
+    sweeper.setDaemon(true);
+    sweeper.start();
+  }
+
+  /**
+   * Get the login times of the users.
+   * 
+   * @return The tracker.
+   */
+  public LastLoginTracker getTracker()
+  {
+    return tracker;
+  }
+
+  /**
+   * Get the number of disabled or removed users.
+   * 
+   * @return The number of swept users.
+   */
+  public long getSwept()
+  {
+    return swept.get();
+  }
+
+  /**
+   * Get the number of completed passes over all users.
+   * 
+   * @return The number of passes.
+   */
+  public long getPasses()
+  {
+    return passes.get();
+  }
+
+  /**
+   * Check whether the given user was changed by the sweeper. Only the cached
+   * principals of this user need to be dropped for this change.
+   * 
+   * @param username
+   *          - The user name.
+   * @return True if the sweeper changed the user.
+   */
+  public boolean isSwept(String username)
+  {
+    return changed.remove(username);
+  }
+
+  /**
+   * Check whether this sweeper uses the given settings.
+   * 
+   * @param config
+   *          - The compiled plugin configuration.
+   * @return True if the sweeper uses the settings of the configuration.
+   */
+  public boolean hasSettings(CompiledAutoLoginConfig config)
+  {
+    return maxAge == config.getInactiveUserAge()
+        && delete == config.getDeleteInactiveUsers()
+        && batchSize == config.getSweepBatchSize();
+  }
+
+  /**
+   * Stop the background sweeper. A running batch is completed, so the user
+   * manager is never interrupted while it writes.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    running = false;
+
+    synchronized (pause)
+    {
+      pause.notifyAll();
+    }
+
+    try
+    {
+      sweeper.join(CLOSE_TIMEOUT);
+    } catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The loop of the background sweeper.
+   */
+  private void sweep()
+  {
+    long passStart = System.currentTimeMillis();
+    long nextFlush = passStart + FLUSH_INTERVAL;
+    int offset = 0;
+    String cursor = null;
+
+    while (running)
+    {
+      long now = System.currentTimeMillis();
+      long delay = STEP_INTERVAL;
+
+      if (now >= passStart)
+      {
+        try
+        {
+          Batch batch = sweepBatch(offset, cursor, now);
+
+          if (batch.complete)
+          {
+            passes.incrementAndGet();
+            logger.debug("completed pass over auto login users");
+            offset = 0;
+            cursor = null;
+            passStart += PASS_INTERVAL;
+            delay = Math.max(STEP_INTERVAL, passStart - now);
+          } else
+          {
+            // Removed users shift the following users to the front
+            offset += batch.size - batch.removed;
+            cursor = batch.last;
+          }
+        } catch (RuntimeException ex)
+        {
+          logger.error("can't sweep inactive auto login users", ex);
+        }
+      } else
+      {
+        delay = Math.min(STEP_INTERVAL, passStart - now);
+      }
+
+      if (now >= nextFlush)
+      {
+        flush();
+        nextFlush = now + FLUSH_INTERVAL;
+      }
+
+      synchronized (pause)
+      {
+        if (running)
+        {
+          try
+          {
+            pause.wait(Math.max(1L, Math.min(delay, nextFlush - now)));
+          } catch (InterruptedException ex)
+          {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+      }
+    }
+
+    flush();
+  }
+
+  /**
+   * Write the login times, if they changed.
+   */
+  private void flush()
+  {
+    try
+    {
+      tracker.flush();
+    } catch (IOException ex)
+    {
+      logger.warn("can't write login times", ex);
+    }
+  }
+
+  /**
+   * Check the next batch of users.
+   * 
+   * @param offset
+   *          - The position of the batch in the sorted users.
+   * @param cursor
+   *          - The name of the last checked user or null at the start of a
+   *          pass.
+   * @param now
+   *          - The current time in milliseconds.
+   * @return The result of the batch.
+   */
+  private Batch sweepBatch(final int offset, final String cursor,
+      final long now)
+  {
+    final Batch batch = new Batch();
+
+    changed.clear();
+    adminContext.runAsAdmin(new PrivilegedAction()
+    {
+      @Override
+      public void run()
+      {
+        Collection<User> users = userManager.getAll(BY_NAME, offset,
+            batchSize);
+
+        batch.size = users.size();
+        batch.complete = users.size() < batchSize;
+        batch.last = cursor;
+
+        for (User user : users)
+        {
+          String name = user.getName();
+
+          // Users added before the cursor shift checked users into the batch
+          if (cursor != null && name.compareTo(cursor) <= 0)
+          {
+            continue;
+          }
+
+          batch.last = name;
+
+          if (isInactive(user, now) && sweepUser(user) && delete)
+          {
+            batch.removed++;
+          }
+        }
+      }
+    });
+
+    return batch;
+  }
+
+  /**
+   * Check whether the given user is an active auto login user without a
+   * login for the maximum age.
+   * 
+   * @param user
+   *          - The user.
+   * @param now
+   *          - The current time in milliseconds.
+   * @return True if the user shall be swept.
+   */
+  private boolean isInactive(User user, long now)
+  {
+    if (!AutoLoginAuthenticationHandler.TYPE.equals(user.getType())
+        || !user.isActive())
+    {
+      return false;
+    }
+
+    long cutoff = now - maxAge;
+    Long created = user.getCreationDate();
+
+    if (created != null && created.longValue() > cutoff)
+    {
+      return false;
+    }
+
+    return tracker.getLastLogin(user.getName(), now) <= cutoff;
+  }
+
+  /**
+   * Disable or remove the given user.
+   * 
+   * @param user
+   *          - The user.
+   * @return True if the user was swept.
+   */
+  private boolean sweepUser(User user)
+  {
+    String name = user.getName();
+
+    changed.add(name);
+
+    try
+    {
+      if (delete)
+      {
+        userManager.delete(user);
+        tracker.remove(name);
+        logger.info("removed inactive auto login user {}", name);
+      } else
+      {
+        user.setActive(false);
+        userManager.modify(user);
+        logger.info("disabled inactive auto login user {}", name);
+      }
+
+      swept.incrementAndGet();
+
+      return true;
+    } catch (UserException ex)
+    {
+      logger.warn("can't sweep user ".concat(name), ex);
+    } catch (IOException ex)
+    {
+      logger.warn("can't sweep user ".concat(name), ex);
+    }
+
+    changed.remove(name);
+
+    return false;
+  }
+
+  /**
+   * The result of a batch.
+   */
+  private static class Batch
+  {
+
+    /** The number of users of the batch. */
+    private int size;
+
+    /** The number of removed users. */
+    private int removed;
+
+    /** The name of the last checked user. */
+    private String last;
+
+    /** The flag whether the batch was the last of the pass. */
+    private boolean complete;
+  }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free Bloom filter of user names. A negative answer of
+ * {@link #mightContain(String)} is definite, a positive answer is wrong with
+ * the configured false-positive probability as long as the filter holds at
+ * most its expected number of names. Names can only be added, never removed.
+ * 
+ * @author Clemens Rabe
+ */
+public class UsernameBloomFilter
+{
+
+  /** The bits of the filter. */
+  private final AtomicLongArray bits;
+
+  /** The number of bits, a multiple of 64. */
+  private final long bitCount;
+
+  /** The number of hash functions. */
+  private final int hashCount;
+
+  /** The expected number of names. */
+  private final int capacity;
+
+  /** The false-positive probability at the expected number of names. */
+  private final double fpp;
+
+  /** The number of added names that set at least one new bit. */
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * Constructor.
+   * 
+   * @param capacity
+   *          - The expected number of names.
+   * @param fpp
+   *          - The false-positive probability at the expected number of names,
+   *          between 0 and 1 (exclusive).
+   */
+  public UsernameBloomFilter(int capacity, double fpp)
+  {
+    if (!(fpp > 0.0 && fpp < 1.0))
+    {
+      throw new IllegalArgumentException("invalid false-positive probability "
+          + fpp);
+    }
+
+    this.capacity = Math.max(1, capacity);
+    this.fpp = fpp;
+
+    double ln2 = Math.log(2.0);
+    long optimalBits = (long) Math.ceil(-this.capacity * Math.log(fpp)
+        / (ln2 * ln2));
+    int words = (int) Math.min(Integer.MAX_VALUE, Math.max(1L,
+        (optimalBits + 63) / 64));
+
+    this.bits = new AtomicLongArray(words);
+    this.bitCount = words * 64L;
+    this.hashCount = Math.max(1,
+        (int) Math.round((double) bitCount / this.capacity * ln2));
+  }
+
+  /**
+   * Add a user name. Only names that set at least one new bit are counted, so
+   * adding a name again does not fill up the filter.
+   * 
+   * @param username
+   *          - The user name.
+   * @return True if the name set a new bit, false if it might have been added
+   *         before.
+   */
+  public boolean add(String username)
+  {
+    long hash = hash(username);
+    long hash2 = mix(hash);
+    boolean changed = false;
+
+    for (int i = 0; i < hashCount; i++)
+    {
+      long bit = index(hash + i * hash2);
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long current = bits.get(word);
+
+      while ((current & mask) == 0L)
+      {
+        if (bits.compareAndSet(word, current, current | mask))
+        {
+          changed = true;
+          break;
+        }
+
+        current = bits.get(word);
+      }
+    }
+
+    if (changed)
+    {
+      size.incrementAndGet();
+    }
+
+    return changed;
+  }
+
+  /**
+   * Check whether a user name might have been added.
+   * 
+   * @param username
+   *          - The user name.
+   * @return False if the name has definitely not been added.
+   */
+  public boolean mightContain(String username)
+  {
+    long hash = hash(username);
+    long hash2 = mix(hash);
+
+    for (int i = 0; i < hashCount; i++)
+    {
+      long bit = index(hash + i * hash2);
+
+      if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0L)
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Get the number of added names. Duplicates are not counted, nor are the
+   * rare names whose bits were all set already.
+   * 
+   * @return The number of added names.
+   */
+  public int size()
+  {
+    return size.get();
+  }
+
+  /**
+   * Get the expected number of names.
+   * 
+   * @return The expected number of names.
+   */
+  public int getCapacity()
+  {
+    return capacity;
+  }
+
+  /**
+   * Get the configured false-positive probability.
+   * 
+   * @return The false-positive probability at the expected number of names.
+   */
+  public double getFpp()
+  {
+    return fpp;
+  }
+
+  /**
+   * Get the false-positive probability for the current number of names.
+   * 
+   * @return The estimated false-positive probability.
+   */
+  public double getExpectedFpp()
+  {
+    return Math.pow(1.0 - Math.exp(-(double) hashCount * size() / bitCount),
+        hashCount);
+  }
+
+  /**
+   * Map a hash to a bit index.
+   * 
+   * @param hash
+   *          - The hash.
+   * @return The index of the bit.
+   */
+  private long index(long hash)
+  {
+    return (hash & Long.MAX_VALUE) % bitCount;
+  }
+
+  /**
+   * Compute the 64-bit FNV-1a hash of a string.
+   * 
+   * @param value
+   *          - The string.
+   * @return The hash.
+   */
+  private static long hash(String value)
+  {
+    long hash = 0xcbf29ce484222325L;
+
+    for (int i = 0; i < value.length(); i++)
+    {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+
+    return mix(hash);
+  }
+
+  /**
+   * Scramble the bits of a hash (finalizer of MurmurHash3).
+   * 
+   * @param hash
+   *          - The hash.
+   * @return The scrambled hash.
+   */
+  private static long mix(long hash)
+  {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    return hash;
+  }
+}
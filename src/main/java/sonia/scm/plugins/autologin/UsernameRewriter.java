@@ -0,0 +1,332 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ordered list of rules rewriting user names to their canonical form, so the
+ * different forms sent by proxies lead to the same account. Each line of the
+ * rule list contains one rule:
+ * 
+ * <pre>
+ * strip-realm             user@CORP.EXAMPLE  =&gt; user
+ * strip-domain            CORP&#92;user          =&gt; user
+ * lowercase               User               =&gt; user
+ * uppercase               user               =&gt; USER
+ * REGEX -&gt; REPLACEMENT    replace all matches, the replacement may
+ *                         reference capturing groups as $1
+ * </pre>
+ * 
+ * The rules are applied in the order of the list, each to the result of the
+ * previous one. A rule producing an empty user name is ignored. Empty lines
+ * and lines starting with <code>#</code> are ignored.
+ * <p>
+ * The rules are compiled once per configuration and the rewritten names are
+ * memoized, so repeated names are not rewritten again.
+ * 
+ * @author Clemens Rabe
+ */
+public final class UsernameRewriter
+{
+
+  /** The separator between the regular expression and the replacement. */
+  private static final String ARROW = "->";
+
+  /** The maximum number of memoized user names. */
+  private static final int MEMO_SIZE = 1024;
+
+  /** The references to capturing groups in a replacement. */
+  private static final Pattern GROUP_REFERENCE = Pattern.compile("\\$(\\d+)");
+
+  /** the logger for UsernameRewriter */
+  private static final Logger logger = LoggerFactory
+      .getLogger(UsernameRewriter.class);
+
+  /** The kinds of rules. */
+  private enum Kind
+  {
+    STRIP_REALM, STRIP_DOMAIN, LOWERCASE, UPPERCASE, REPLACE
+  }
+
+  /** The compiled rules in the order of the configuration. */
+  private final Rule[] rules;
+
+  /** The rewritten forms of recent user names. */
+  private final LruCache<String, String> memo;
+
+  /**
+   * Constructor.
+   * 
+   * @param rules
+   *          - The rule list, one rule per line.
+   */
+  public UsernameRewriter(String rules)
+  {
+    List<Rule> compiled = compile(rules);
+
+    this.rules = compiled.toArray(new Rule[compiled.size()]);
+    this.memo = new LruCache<String, String>(MEMO_SIZE, 0L);
+  }
+
+  /**
+   * Get the number of valid rules.
+   * 
+   * @return The number of rules.
+   */
+  public int size()
+  {
+    return rules.length;
+  }
+
+  /**
+   * Rewrite a user name. The results are memoized.
+   * 
+   * @param username
+   *          - The user name.
+   * @return The canonical user name.
+   */
+  public String rewrite(String username)
+  {
+    if (rules.length == 0 || username == null)
+    {
+      return username;
+    }
+
+    String rewritten = memo.get(username);
+
+    if (rewritten == null)
+    {
+      rewritten = apply(username).intern();
+      memo.put(username, rewritten);
+    }
+
+    return rewritten;
+  }
+
+  /**
+   * Apply the rules to a user name without using the memo. This is used by
+   * callers memoizing the results themselves.
+   * 
+   * @param username
+   *          - The user name.
+   * @return The canonical user name.
+   */
+  String apply(String username)
+  {
+    String name = username;
+
+    for (Rule rule : rules)
+    {
+      String next = rule.apply(name);
+
+      if (!next.isEmpty())
+      {
+        name = next;
+      }
+    }
+
+    if (logger.isTraceEnabled() && !name.equals(username))
+    {
+      logger.trace("rewrote user name {} to {}", username, name);
+    }
+
+    return name;
+  }
+
+  /**
+   * Compile the rule list. Invalid rules are skipped.
+   * 
+   * @param rules
+   *          - The rule list, one rule per line.
+   * @return The compiled rules.
+   */
+  private static List<Rule> compile(String rules)
+  {
+    List<Rule> compiled = new ArrayList<Rule>();
+
+    if (rules == null)
+    {
+      return compiled;
+    }
+
+    for (String line : rules.split("\\r?\\n"))
+    {
+      String trimmed = line.trim();
+
+      if (trimmed.isEmpty() || trimmed.startsWith("#"))
+      {
+        continue;
+      }
+
+      try
+      {
+        compiled.add(Rule.parse(trimmed));
+      } catch (IllegalArgumentException ex)
+      {
+        logger.warn("skipping rewrite rule {}: {}", trimmed, ex.getMessage());
+      }
+    }
+
+    return compiled;
+  }
+
+  /**
+   * A single compiled rule.
+   */
+  private static final class Rule
+  {
+
+    /** The kind of the rule. */
+    private final Kind kind;
+
+    /** The regular expression of a replacement or null. */
+    private final Pattern pattern;
+
+    /** The replacement or null. */
+    private final String replacement;
+
+    private Rule(Kind kind, Pattern pattern, String replacement)
+    {
+      this.kind = kind;
+      this.pattern = pattern;
+      this.replacement = replacement;
+    }
+
+    /**
+     * Parse a rule.
+     * 
+     * @param rule
+     *          - The trimmed rule.
+     * @return The compiled rule.
+     * @throws IllegalArgumentException
+     *           if the rule is invalid.
+     */
+    static Rule parse(String rule)
+    {
+      int arrow = rule.lastIndexOf(ARROW);
+
+      if (arrow < 0)
+      {
+        String name = rule.toUpperCase(Locale.ENGLISH).replace('-', '_');
+
+        for (Kind kind : Kind.values())
+        {
+          if (kind != Kind.REPLACE && kind.name().equals(name))
+          {
+            return new Rule(kind, null, null);
+          }
+        }
+
+        throw new IllegalArgumentException("unknown rule");
+      }
+
+      String regex = rule.substring(0, arrow).trim();
+      String replacement = rule.substring(arrow + ARROW.length()).trim();
+      Pattern pattern;
+
+      if (regex.isEmpty())
+      {
+        throw new IllegalArgumentException("missing regular expression");
+      }
+
+      try
+      {
+        pattern = Pattern.compile(regex);
+      } catch (PatternSyntaxException ex)
+      {
+        throw new IllegalArgumentException(ex.getDescription());
+      }
+
+      Matcher reference = GROUP_REFERENCE.matcher(replacement);
+      int groupCount = pattern.matcher("").groupCount();
+
+      while (reference.find())
+      {
+        if (Integer.parseInt(reference.group(1)) > groupCount)
+        {
+          throw new IllegalArgumentException("no group " + reference.group(1));
+        }
+      }
+
+      return new Rule(Kind.REPLACE, pattern, replacement);
+    }
+
+    /**
+     * Apply the rule to a user name.
+     * 
+     * @param name
+     *          - The user name.
+     * @return The rewritten user name, possibly empty.
+     */
+    String apply(String name)
+    {
+      int index;
+
+      switch (kind)
+      {
+      case STRIP_REALM:
+        index = name.lastIndexOf('@');
+
+        return index < 0 ? name : name.substring(0, index);
+
+      case STRIP_DOMAIN:
+        index = name.lastIndexOf('\\');
+
+        return index < 0 ? name : name.substring(index + 1);
+
+      case LOWERCASE:
+        return name.toLowerCase(Locale.ENGLISH);
+
+      case UPPERCASE:
+        return name.toUpperCase(Locale.ENGLISH);
+
+      default:
+        try
+        {
+          return pattern.matcher(name).replaceAll(replacement);
+        } catch (IllegalArgumentException ex)
+        {
+          logger.warn("can't apply rewrite rule {} to {}", pattern, name);
+
+          return name;
+        }
+      }
+    }
+  }
+}
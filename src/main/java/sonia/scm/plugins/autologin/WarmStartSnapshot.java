@@ -0,0 +1,410 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.shiro.subject.PrincipalCollection;
+
+/**
+ * Snapshot of the principal caches, used to warm them up after a restart. On
+ * shutdown the live entries of the principal cache of each profile are
+ * written to a compact binary file, together with the entity tag of the
+ * configuration they were resolved with. On startup the file is
+ * memory-mapped and only the entries of configurations with the same entity
+ * tag are kept. An entry is restored lazily on a miss of the principal cache,
+ * after its user has been looked up in the user manager again.
+ * <p>
+ * The file starts with a magic number and the format version, followed by
+ * one section per configuration: the entity tag and the entries with their
+ * header key, expiry time, user name and principals. Strings are stored as
+ * length prefixed UTF-8.
+ * 
+ * @author Clemens Rabe
+ */
+public class WarmStartSnapshot
+{
+
+  /** The name of the file in the config directory. */
+  public static final String FILENAME = "autologin-warmstart.bin";
+
+  /** The magic number of the file. */
+  private static final int MAGIC = 0x414c5753;
+
+  /** The version of the file format. */
+  private static final int FORMAT = 2;
+
+  /** The file of the snapshot. */
+  private final File file;
+
+  /** The entries not restored yet, keyed by the entity tag and header key. */
+  private final ConcurrentMap<String, ConcurrentMap<String, PrincipalRecord>> sections =
+      new ConcurrentHashMap<String, ConcurrentMap<String, PrincipalRecord>>();
+
+  /**
+   * Constructor.
+   * 
+   * @param file
+   *          - The file of the snapshot.
+   */
+  public WarmStartSnapshot(File file)
+  {
+    this.file = file;
+  }
+
+  /**
+   * Get the file of the snapshot.
+   * 
+   * @return The file.
+   */
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Load the entries of the file, if it exists. The file is memory-mapped and
+   * only the entries of the given configurations that have not expired yet
+   * are kept.
+   * 
+   * @param entityTags
+   *          - The entity tags of the current configurations.
+   * @return The number of loaded entries.
+   * @throws IOException
+   *           if the file can't be read or is corrupt.
+   */
+  public int load(Set<String> entityTags) throws IOException
+  {
+    if (!file.exists())
+    {
+      return 0;
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    ByteBuffer buffer;
+
+    try
+    {
+      FileChannel channel = raf.getChannel();
+
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally
+    {
+      raf.close();
+    }
+
+    try
+    {
+      return load(buffer, entityTags, System.currentTimeMillis());
+    } catch (BufferUnderflowException ex)
+    {
+      throw new IOException("truncated file " + file, ex);
+    } catch (IllegalArgumentException ex)
+    {
+      throw new IOException("corrupt file " + file, ex);
+    }
+  }
+
+  /**
+   * Take the entry of the given header key out of the snapshot. Each entry
+   * is restored at most once, later misses are resolved as usual.
+   * 
+   * @param entityTag
+   *          - The entity tag of the configuration of the request.
+   * @param key
+   *          - The key of the principal cache.
+   * @return The entry or null if there is none.
+   */
+  public PrincipalRecord take(String entityTag, String key)
+  {
+    Map<String, PrincipalRecord> section = sections.get(entityTag);
+
+    return section != null ? section.remove(key) : null;
+  }
+
+  /**
+   * Drop the entries of the given user.
+   * 
+   * @param username
+   *          - The user name.
+   */
+  public void remove(String username)
+  {
+    for (Map<String, PrincipalRecord> section : sections.values())
+    {
+      Iterator<PrincipalRecord> it = section.values().iterator();
+
+      while (it.hasNext())
+      {
+        if (username.equals(it.next().getUsername()))
+        {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Drop all entries.
+   */
+  public void clear()
+  {
+    sections.clear();
+  }
+
+  /**
+   * Get the number of entries not restored yet.
+   * 
+   * @return The number of entries.
+   */
+  public int size()
+  {
+    int size = 0;
+
+    for (Map<String, PrincipalRecord> section : sections.values())
+    {
+      size += section.size();
+    }
+
+    return size;
+  }
+
+  /**
+   * Write the principal caches of the given configurations to the file.
+   * Entries not restored yet are written again, unless the principal cache
+   * holds a newer entry for the same key. The file is written to a temporary
+   * file first and atomically moved over the old file afterwards.
+   * 
+   * @param configs
+   *          - The current configurations.
+   * @return The number of written entries.
+   * @throws IOException
+   *           if the file can't be written.
+   */
+  public int write(Collection<CompiledAutoLoginConfig> configs)
+      throws IOException
+  {
+    final long now = System.currentTimeMillis();
+    Map<String, Map<String, PrincipalRecord>> written =
+        new LinkedHashMap<String, Map<String, PrincipalRecord>>();
+
+    for (CompiledAutoLoginConfig config : configs)
+    {
+      String entityTag = config.getEntityTag();
+      Map<String, PrincipalRecord> section = written.get(entityTag);
+
+      if (section == null)
+      {
+        section = new LinkedHashMap<String, PrincipalRecord>();
+        written.put(entityTag, section);
+        collect(section, sections.get(entityTag), now);
+      }
+
+      final Map<String, PrincipalRecord> entries = section;
+
+      config.getPrincipalCache().visit(
+          new LruCache.Visitor<String, PrincipalCollection>()
+          {
+            @Override
+            public void visit(String key, PrincipalCollection principals,
+                long remainingMillis)
+            {
+              PrincipalRecord entry = PrincipalRecord.of(principals,
+                  remainingMillis < 0 ? PrincipalRecord.NEVER : now
+                      + remainingMillis);
+
+              if (entry != null)
+              {
+                entries.put(key, entry);
+              }
+            }
+          });
+    }
+
+    int count = 0;
+
+    for (Map<String, PrincipalRecord> section : written.values())
+    {
+      count += section.size();
+    }
+
+    write(written);
+
+    return count;
+  }
+
+  /**
+   * Copy the live entries not restored yet of a configuration.
+   * 
+   * @param section
+   *          - The entries to write.
+   * @param pending
+   *          - The entries not restored yet or null.
+   * @param now
+   *          - The current time in milliseconds.
+   */
+  private static void collect(Map<String, PrincipalRecord> section,
+      Map<String, PrincipalRecord> pending, long now)
+  {
+    if (pending != null)
+    {
+      for (Map.Entry<String, PrincipalRecord> entry : pending.entrySet())
+      {
+        if (!entry.getValue().isExpired(now))
+        {
+          section.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Write the entries to the file.
+   * 
+   * @param written
+   *          - The entries, keyed by the entity tag and the header key.
+   * @throws IOException
+   *           if the file can't be written.
+   */
+  private void write(Map<String, Map<String, PrincipalRecord>> written)
+      throws IOException
+  {
+    File parent = file.getAbsoluteFile().getParentFile();
+
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+    {
+      throw new IOException("can't create directory " + parent);
+    }
+
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(temp)));
+
+    try
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeInt(written.size());
+
+      for (Map.Entry<String, Map<String, PrincipalRecord>> section : written
+          .entrySet())
+      {
+        PrincipalRecord.writeString(out, section.getKey());
+        out.writeInt(section.getValue().size());
+
+        for (Map.Entry<String, PrincipalRecord> entry : section.getValue()
+            .entrySet())
+        {
+          PrincipalRecord.writeString(out, entry.getKey());
+          entry.getValue().write(out);
+        }
+      }
+    } finally
+    {
+      out.close();
+    }
+
+    // Replaces the file in a single step, so there is always either the old
+    // or the new file
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Load the entries of the content of a file.
+   * 
+   * @param buffer
+   *          - The content of the file.
+   * @param entityTags
+   *          - The entity tags of the current configurations.
+   * @param now
+   *          - The current time in milliseconds.
+   * @return The number of loaded entries.
+   * @throws IOException
+   *           if the file has an unknown format.
+   */
+  private int load(ByteBuffer buffer, Set<String> entityTags, long now)
+      throws IOException
+  {
+    if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT)
+    {
+      throw new IOException("unknown format of " + file);
+    }
+
+    int loaded = 0;
+    int sectionCount = PrincipalRecord.checkLength(buffer, buffer.getInt());
+
+    for (int i = 0; i < sectionCount; i++)
+    {
+      String entityTag = PrincipalRecord.readString(buffer);
+      int count = PrincipalRecord.checkLength(buffer, buffer.getInt());
+      ConcurrentMap<String, PrincipalRecord> section =
+          new ConcurrentHashMap<String, PrincipalRecord>(Math.max(16,
+              count * 2));
+
+      for (int j = 0; j < count; j++)
+      {
+        String key = PrincipalRecord.readString(buffer);
+        PrincipalRecord entry = PrincipalRecord.read(buffer);
+
+        if (!entry.isExpired(now))
+        {
+          section.put(key, entry);
+        }
+      }
+
+      // Entries of other configurations may have been resolved differently
+      if (entityTags.contains(entityTag) && !section.isEmpty())
+      {
+        sections.put(entityTag, section);
+        loaded += section.size();
+      }
+    }
+
+    return loaded;
+  }
+}
@@ -38,6 +38,34 @@ registerGeneralConfigPanel({
 	        	helpText:   'The name of the HTTP header variable. Default value is X_REMOTE_USER.',
 	        	allowBlank: false
 	        },
+	        {
+	        	xtype:      'textfield',
+	        	fieldLabel: 'Username Attribute',
+	        	name:       'username-attribute',
+	        	helpText:   'The attribute of a certificate DN containing the user name: CN, UID, emailAddress or OU. Default value is CN.',
+	        	allowBlank: false
+	        },
+	        {
+	        	xtype:      'textfield',
+	        	fieldLabel: 'Header Sources',
+	        	name:       'header-sources',
+	        	helpText:   'An ordered, comma separated list of HTTP headers carrying the identity, each optionally followed by :plain or :ATTRIBUTE (e.g. SSL_CLIENT_S_DN:UID, X-Forwarded-User:plain). client-certificate uses the TLS client certificate instead of a header (e.g. client-certificate:CN). The first header with a value is used. Leave empty to use the HTTP Header Variable.',
+	        	allowBlank: true
+	        },
+	        {
+	        	xtype:      'textarea',
+	        	fieldLabel: 'Username Rewrite Rules',
+	        	name:       'username-rewrite-rules',
+	        	helpText:   'Rules rewriting the user names to their canonical form, one rule per line, applied in order: strip-realm (user@REALM), strip-domain (DOMAIN\\user), lowercase, uppercase or REGEX -> REPLACEMENT.',
+	        	allowBlank: true
+	        },
+	        {
+	        	xtype:      'textfield',
+	        	fieldLabel: 'Trusted Proxies',
+	        	name:       'trusted-proxies',
+	        	helpText:   'A comma separated list of networks in CIDR notation (e.g. 10.0.0.0/8, ::1/128). The HTTP header variable is only accepted from these networks. Leave empty to accept it from all clients.',
+	        	allowBlank: true
+	        },
 	        {
 	        	xtype:      'textfield',
 	        	fieldLabel: 'Groups',
@@ -45,6 +73,13 @@ registerGeneralConfigPanel({
 	        	helpText:   'A comma separated list of groups added to an auto login authenticated user.',
 	        	allowBlank: true
 	        },
+	        {
+	        	xtype:      'textarea',
+	        	fieldLabel: 'Group Rules',
+	        	name:       'group-rules',
+	        	helpText:   'Rules mapping the DN or the user name to additional groups, one rule per line: SOURCE=VALUE -> groups or SOURCE~REGEX -> groups. SOURCE is a DN attribute like OU, O or DC, or username. Group names may reference capturing groups of the regular expression as $1.',
+	        	allowBlank: true
+	        },
 	        {
 	        	xtype:      'checkbox',
 	            fieldLabel: "Allow Unknown Users",
@@ -52,12 +87,214 @@ registerGeneralConfigPanel({
 	            inputValue: 'true',
 	            helpText:   'If enabled, users unknown to the SCM-Manager database are allowed to log in.'
 	        },
+	        {
+	        	xtype:      'checkbox',
+	            fieldLabel: "Require Header",
+	            name:       'require-header',
+	            inputValue: 'true',
+	            helpText:   'If enabled, requests without the HTTP header variable, e.g. hooks, are left to the other authentication handlers, so auto login users cannot log in with a password.'
+	        },
 	        {
 	        	xtype:      'textfield',
 	        	fieldLabel: 'Email Domain',
 	        	name:       'email-domain',
 	        	helpText:   'The email domain for new users created by this plugin.',
 	        	allowBlank: false
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Provisioning Timeout',
+	        	name:       'provisioning-timeout',
+	        	helpText:   'The time in milliseconds a login waits for the concurrent creation of the same user.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Cache Size',
+	        	name:       'cache-size',
+	        	helpText:   'The maximum number of auto-logged in users kept in the cache. Set to 0 to disable the cache.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Cache TTL',
+	        	name:       'cache-ttl',
+	        	helpText:   'The time in seconds an auto-logged in user is kept in the cache.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'checkbox',
+	            fieldLabel: "Issue Tickets",
+	            name:       'ticket-enabled',
+	            inputValue: 'true',
+	            helpText:   'If enabled, a signed ticket cookie is issued after a successful auto login, so further requests of the client skip the login through the realm.'
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Ticket Lifetime',
+	        	name:       'ticket-lifetime',
+	        	helpText:   'The time in seconds a ticket cookie is valid.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   1
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Negative Cache Size',
+	        	name:       'negative-cache-size',
+	        	helpText:   'The maximum number of unknown users and users of other types kept in the negative cache. Set to 0 to disable the cache.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Negative Cache TTL',
+	        	name:       'negative-cache-ttl',
+	        	helpText:   'The time in seconds a user is kept in the negative cache.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'checkbox',
+	            fieldLabel: "Warm Start",
+	            name:       'warm-start',
+	            inputValue: 'true',
+	            helpText:   'If enabled, the cached users are saved on shutdown and restored on startup.'
+	        },
+	        {
+	        	xtype:      'textfield',
+	        	fieldLabel: 'Directory File',
+	        	name:       'directory-file',
+	        	helpText:   'A LDIF or CSV (username, display name, mail) export of your directory. New users get their display name and mail address from this file. Leave empty to disable.',
+	        	allowBlank: true
+	        },
+	        {
+	        	xtype:      'textfield',
+	        	fieldLabel: 'Membership File',
+	        	name:       'membership-file',
+	        	helpText:   'A file with the groups of each user, one user per line (username: group1, group2). Listed users get these groups instead of the global groups. Leave empty to disable.',
+	        	allowBlank: true
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Creation Rate',
+	        	name:       'creation-rate',
+	        	helpText:   'The maximum number of users created per minute. 0 disables the limit.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Creation Burst',
+	        	name:       'creation-burst',
+	        	helpText:   'The number of users that may be created at once.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Creation Rate per Address',
+	        	name:       'creation-rate-per-address',
+	        	helpText:   'The maximum number of users created per minute for a single client address. 0 disables the limit.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Creation Burst per Address',
+	        	name:       'creation-burst-per-address',
+	        	helpText:   'The number of users that may be created at once for a single client address.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Bloom Filter FPP',
+	        	name:       'bloom-filter-fpp',
+	        	helpText:   'The false-positive probability of the Bloom filter of auto login users, e.g. 0.01. Names missing in the filter are rejected without a lookup in the user manager. 0 disables the filter.',
+	        	allowBlank: false,
+	        	allowDecimals: true,
+	        	decimalPrecision: 6,
+	        	minValue:   0,
+	        	maxValue:   0.5
+	        },
+	        {
+	        	xtype:      'checkbox',
+	            fieldLabel: "Audit Log",
+	            name:       'audit-enabled',
+	            inputValue: 'true',
+	            helpText:   'If enabled, every auto login decision is written to an audit log.'
+	        },
+	        {
+	        	xtype:      'textfield',
+	        	fieldLabel: 'Audit Directory',
+	        	name:       'audit-directory',
+	        	helpText:   'The directory of the audit log files. Leave empty to use the directory autologin-audit in the SCM-Manager home directory.',
+	        	allowBlank: true
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Audit Buffer Size',
+	        	name:       'audit-buffer-size',
+	        	helpText:   'The number of records buffered in memory. Records are dropped if the buffer is full.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   1
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Audit Segment Size',
+	        	name:       'audit-segment-size',
+	        	helpText:   'The maximum size of an audit log file in MB.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   1
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Audit Segments',
+	        	name:       'audit-segments',
+	        	helpText:   'The number of audit log files kept. Older files are deleted.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   1
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Inactive User Days',
+	        	name:       'inactive-user-days',
+	        	helpText:   'The number of days without a login after which an auto login user is disabled or deleted. 0 keeps inactive users.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   0
+	        },
+	        {
+	        	xtype:      'textfield',
+	        	fieldLabel: 'Inactive User Action',
+	        	name:       'inactive-user-action',
+	        	helpText:   'The action applied to inactive auto login users: disable or delete.',
+	        	allowBlank: false
+	        },
+	        {
+	        	xtype:      'numberfield',
+	        	fieldLabel: 'Sweep Batch Size',
+	        	name:       'sweep-batch-size',
+	        	helpText:   'The number of users checked at once while searching for inactive users.',
+	        	allowBlank: false,
+	        	allowDecimals: false,
+	        	minValue:   1
 	        }],
 	 onSubmit: function(values) {
 		 this.el.mask( 'Submit ...' );
@@ -65,13 +302,18 @@ registerGeneralConfigPanel({
 			 url:            restUrl + 'config/plugins/autologin.json',
 			 method:         'POST',
 			 jsonData:       values,
+			 headers:        this.etag ? { 'If-Match': this.etag } : {},
 			 scope:          this,
 			 disableCaching: true,
 			 success:        function( response ) {
+				 this.etag = response.getResponseHeader( 'ETag' );
 				 this.el.unmask();
 			 },
-			 failure:        function() {
+			 failure:        function( response ) {
 				 this.el.unmask();
+				 if ( response.status == 412 ) {
+					 alert( 'The configuration was changed in the meantime, please reload it.' );
+				 }
 			 }
 		 } );
 	 },
@@ -86,6 +328,7 @@ registerGeneralConfigPanel({
 			 disableCaching: true,
 			 success:        function( response ) {
 				 var obj = Ext.decode( response.responseText );
+				 this.etag = response.getResponseHeader( 'ETag' );
 				 this.load( obj );
 				 clearTimeout( tid );
 				 element.unmask();
@@ -0,0 +1,502 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sonia.scm.SCMContextProvider;
+
+import sonia.scm.plugins.autologin.AutoLoginMetrics.Outcome;
+import sonia.scm.store.Store;
+import sonia.scm.store.StoreFactory;
+import sonia.scm.user.User;
+import sonia.scm.user.UserManager;
+import sonia.scm.web.security.AdministrationContext;
+import sonia.scm.web.security.AuthenticationResult;
+import sonia.scm.web.security.AuthenticationState;
+import sonia.scm.web.security.PrivilegedAction;
+
+/**
+ * Unit tests of the {@link AutoLoginAuthenticationHandler}.
+ * 
+ * @author Clemens Rabe
+ */
+public class AutoLoginAuthenticationHandlerTest
+{
+
+  /** The home directory of SCM-Manager. */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** The users of the user manager, keyed by their names. */
+  private final Map<String, User> users = new HashMap<String, User>();
+
+  /** The metrics of the handler. */
+  private final AutoLoginMetrics metrics = new AutoLoginMetrics();
+
+  /** The stores of the handler. */
+  private final MemoryStoreFactory storeFactory = new MemoryStoreFactory();
+
+  /** The handler. */
+  private final AutoLoginAuthenticationHandler handler = new AutoLoginAuthenticationHandler(
+      userManager(), storeFactory, adminContext(), metrics);
+
+  @Test
+  public void testHookWithoutHeader()
+  {
+    addAutoLoginUser("jdoe");
+    handler.setConfig(new AutoLoginConfig());
+
+    AuthenticationResult result = handler.authenticate(request(null), null,
+        "jdoe", "any password");
+
+    assertSame(AuthenticationState.SUCCESS, result.getState());
+  }
+
+  @Test
+  public void testNoCreationWithoutHeader()
+  {
+    AutoLoginConfig config = new AutoLoginConfig();
+
+    config.setAllowUnknown(true);
+    handler.setConfig(config);
+
+    AuthenticationResult result = handler.authenticate(request(null), null,
+        "jdoe", "any password");
+
+    assertSame(AuthenticationState.NOT_FOUND, result.getState());
+    assertFalse(users.containsKey("jdoe"));
+  }
+
+  @Test
+  public void testRequireHeader()
+  {
+    AutoLoginConfig config = new AutoLoginConfig();
+
+    addAutoLoginUser("jdoe");
+    config.setRequireHeader(true);
+    handler.setConfig(config);
+
+    AuthenticationResult result = handler.authenticate(request(null), null,
+        "jdoe", "any password");
+
+    assertSame(AuthenticationState.NOT_FOUND, result.getState());
+    assertEquals(1L, metrics.get(Outcome.HEADER_MISSING));
+  }
+
+  @Test
+  public void testRequireHeaderWithHeader()
+  {
+    AutoLoginConfig config = new AutoLoginConfig();
+
+    addAutoLoginUser("jdoe");
+    config.setRequireHeader(true);
+    handler.setConfig(config);
+
+    AuthenticationResult result = handler.authenticate(request("jdoe"), null,
+        "jdoe", "any password");
+
+    assertSame(AuthenticationState.SUCCESS, result.getState());
+    assertEquals(0L, metrics.get(Outcome.HEADER_MISSING));
+  }
+
+  @Test
+  public void testRemoveProfile()
+  {
+    AutoLoginProfile profile = new AutoLoginProfile();
+
+    profile.setName("ci");
+    profile.setHosts("ci.example.com");
+    handler.setConfig(new AutoLoginConfig());
+    assertTrue(handler.storeProfile(profile));
+    assertEquals("ci", profileStore("ci").get().getName());
+
+    assertTrue(handler.removeProfile("ci"));
+    assertNull(handler.getProfile("ci"));
+    assertFalse(handler.getProfileNames().contains("ci"));
+
+    // A later profile of the same name must not start from the old one
+    assertNull(profileStore("ci").get().getName());
+  }
+
+  @Test
+  public void testWarmStart() throws IOException
+  {
+    addAutoLoginUser("jdoe");
+    handler.init(contextProvider());
+    handler.getCompiledConfig().getPrincipalCache()
+        .put("CN=jdoe", principals("jdoe"));
+    handler.close();
+
+    AutoLoginAuthenticationHandler restarted = new AutoLoginAuthenticationHandler(
+        userManager(), storeFactory, adminContext(), metrics);
+
+    restarted.init(contextProvider());
+
+    try
+    {
+      CompiledAutoLoginConfig config = restarted.getCompiledConfig();
+
+      assertNull(config.getPrincipalCache().get("CN=jdoe"));
+
+      PrincipalCollection principals = restarted.restorePrincipals(config,
+          "CN=jdoe");
+
+      assertEquals("jdoe", principals.oneByType(User.class).getName());
+      assertSame(principals, config.getPrincipalCache().get("CN=jdoe"));
+      assertNull(restarted.restorePrincipals(config, "CN=unknown"));
+    } finally
+    {
+      restarted.close();
+    }
+  }
+
+  @Test
+  public void testWarmStartOfDisabledUser() throws IOException
+  {
+    addAutoLoginUser("jdoe");
+    handler.init(contextProvider());
+    handler.getCompiledConfig().getPrincipalCache()
+        .put("CN=jdoe", principals("jdoe"));
+    handler.close();
+    users.get("jdoe").setActive(false);
+
+    AutoLoginAuthenticationHandler restarted = new AutoLoginAuthenticationHandler(
+        userManager(), storeFactory, adminContext(), metrics);
+
+    restarted.init(contextProvider());
+
+    try
+    {
+      assertNull(restarted.restorePrincipals(restarted.getCompiledConfig(),
+          "CN=jdoe"));
+    } finally
+    {
+      restarted.close();
+    }
+  }
+
+  @Test
+  public void testWarmStartWithChangedConfig() throws IOException
+  {
+    addAutoLoginUser("jdoe");
+    handler.init(contextProvider());
+    handler.getCompiledConfig().getPrincipalCache()
+        .put("CN=jdoe", principals("jdoe"));
+    handler.close();
+
+    AutoLoginConfig config = new AutoLoginConfig();
+
+    config.setGroups("others");
+    storeFactory.getStore(AutoLoginConfig.class,
+        AutoLoginAuthenticationHandler.STORETYPE).set(config);
+
+    AutoLoginAuthenticationHandler restarted = new AutoLoginAuthenticationHandler(
+        userManager(), storeFactory, adminContext(), metrics);
+
+    restarted.init(contextProvider());
+
+    try
+    {
+      assertNull(restarted.restorePrincipals(restarted.getCompiledConfig(),
+          "CN=jdoe"));
+    } finally
+    {
+      restarted.close();
+    }
+  }
+
+  @Test
+  public void testRestoreTicketPrincipals()
+  {
+    addAutoLoginUser("jdoe");
+
+    long now = System.currentTimeMillis();
+    PrincipalRecord record = PrincipalRecord.of(principals("jdoe"),
+        now + 60000L);
+
+    assertEquals("jdoe", handler.restorePrincipals(record, now)
+        .oneByType(User.class).getName());
+    assertNull(handler.restorePrincipals(record, now + 60000L));
+    assertNull(handler.restorePrincipals(null, now));
+
+    users.get("jdoe").setActive(false);
+    assertNull(handler.restorePrincipals(record, now));
+
+    users.get("jdoe").setActive(true);
+    users.get("jdoe").setType("xml");
+    assertNull(handler.restorePrincipals(record, now));
+  }
+
+  /**
+   * Create the principals the realm of SCM-Manager creates for a user.
+   * 
+   * @param name
+   *          - The user name.
+   * @return The principals.
+   */
+  private PrincipalCollection principals(String name)
+  {
+    SimplePrincipalCollection principals = new SimplePrincipalCollection();
+
+    principals.add(name, "scm");
+    principals.add(users.get(name).clone(), "scm");
+
+    return principals;
+  }
+
+  /**
+   * Create a context provider with the temporary folder as home directory.
+   * 
+   * @return The context provider.
+   */
+  private SCMContextProvider contextProvider()
+  {
+    return proxy(SCMContextProvider.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        if ("getBaseDirectory".equals(method.getName()))
+        {
+          return folder.getRoot();
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Create an administration context running the actions directly.
+   * 
+   * @return The administration context.
+   */
+  private static AdministrationContext adminContext()
+  {
+    return proxy(AdministrationContext.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        if (args[0] instanceof PrivilegedAction)
+        {
+          ((PrivilegedAction) args[0]).run();
+        }
+
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Get the store of a profile.
+   * 
+   * @param name
+   *          - The name of the profile.
+   * @return The store.
+   */
+  private Store<AutoLoginProfile> profileStore(String name)
+  {
+    return storeFactory.getStore(AutoLoginProfile.class,
+        AutoLoginAuthenticationHandler.PROFILE_STORETYPE_PREFIX + name);
+  }
+
+  /**
+   * Add an auto login user to the user manager.
+   * 
+   * @param name
+   *          - The user name.
+   */
+  private void addAutoLoginUser(String name)
+  {
+    User user = new User();
+
+    user.setName(name);
+    user.setType(AutoLoginAuthenticationHandler.TYPE);
+    users.put(name, user);
+  }
+
+  /**
+   * Create a user manager backed by the users of the test.
+   * 
+   * @return The user manager.
+   */
+  private UserManager userManager()
+  {
+    return proxy(UserManager.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        if ("get".equals(method.getName()))
+        {
+          User user = users.get(args[0]);
+
+          return user == null ? null : user.clone();
+        } else if ("create".equals(method.getName()))
+        {
+          User user = (User) args[0];
+
+          users.put(user.getName(), user);
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Create a request from a local client.
+   * 
+   * @param remoteUser
+   *          - The value of the HTTP header variable or null.
+   * @return The request.
+   */
+  private static HttpServletRequest request(final String remoteUser)
+  {
+    final Map<String, Object> attributes = new HashMap<String, Object>();
+
+    return proxy(HttpServletRequest.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        String name = method.getName();
+
+        if ("getHeader".equals(name))
+        {
+          return "X_REMOTE_USER".equals(args[0]) ? remoteUser : null;
+        } else if ("getRemoteAddr".equals(name))
+        {
+          return "127.0.0.1";
+        } else if ("getAttribute".equals(name))
+        {
+          return attributes.get(args[0]);
+        } else if ("setAttribute".equals(name))
+        {
+          attributes.put((String) args[0], args[1]);
+        }
+
+        return defaultValue(method);
+      }
+    });
+  }
+
+  /**
+   * Get the default value of the return type of the given method.
+   * 
+   * @param method
+   *          - The method.
+   * @return The default value.
+   */
+  private static Object defaultValue(Method method)
+  {
+    Class<?> type = method.getReturnType();
+
+    if (type == boolean.class)
+    {
+      return Boolean.FALSE;
+    } else if (type == int.class)
+    {
+      return Integer.valueOf(0);
+    } else if (type == long.class)
+    {
+      return Long.valueOf(0L);
+    }
+
+    return null;
+  }
+
+  /**
+   * Create a dynamic proxy.
+   * 
+   * @param type
+   *          - The interface to implement.
+   * @param handler
+   *          - The invocation handler.
+   * @return The proxy.
+   */
+  private static <T> T proxy(Class<T> type, InvocationHandler handler)
+  {
+    return type.cast(Proxy.newProxyInstance(
+        AutoLoginAuthenticationHandlerTest.class.getClassLoader(),
+        new Class<?>[] { type }, handler));
+  }
+
+  /**
+   * Factory of stores keeping their object in memory. Stores of the same name
+   * share their object.
+   */
+  private static final class MemoryStoreFactory implements StoreFactory
+  {
+
+    /** The stored objects keyed by the name of their store. */
+    private final Map<String, Object> objects = new HashMap<String, Object>();
+
+    @Override
+    public <T> Store<T> getStore(final Class<T> type, final String name)
+    {
+      return new Store<T>()
+      {
+        @Override
+        public T get()
+        {
+          return type.cast(objects.get(name));
+        }
+
+        @Override
+        public void set(T object)
+        {
+          objects.put(name, object);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import sonia.scm.plugins.autologin.AutoLoginMetrics.Outcome;
+
+/**
+ * Unit tests of the {@link AutoLoginMetrics}.
+ * 
+ * @author Clemens Rabe
+ */
+public class AutoLoginMetricsTest
+{
+
+  @Test
+  public void testOutcomesAreSeparate()
+  {
+    AutoLoginMetrics metrics = new AutoLoginMetrics();
+
+    metrics.increment(Outcome.LOGIN_SUCCESS);
+    metrics.increment(Outcome.LOGIN_SUCCESS);
+    metrics.increment(Outcome.HEADER_MISSING);
+
+    assertEquals(2L, metrics.get(Outcome.LOGIN_SUCCESS));
+    assertEquals(1L, metrics.get(Outcome.HEADER_MISSING));
+
+    for (Outcome outcome : Outcome.values())
+    {
+      if (outcome != Outcome.LOGIN_SUCCESS && outcome != Outcome.HEADER_MISSING)
+      {
+        assertEquals(0L, metrics.get(outcome));
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws InterruptedException
+  {
+    final AutoLoginMetrics metrics = new AutoLoginMetrics();
+    final Outcome[] outcomes = Outcome.values();
+    final int rounds = 10000;
+    Thread[] threads = new Thread[8];
+
+    for (int t = 0; t < threads.length; t++)
+    {
+      threads[t] = new Thread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          for (int i = 0; i < rounds; i++)
+          {
+            for (Outcome outcome : outcomes)
+            {
+              metrics.increment(outcome);
+            }
+
+            metrics.getHandlerLatency().record(i);
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+
+    for (Outcome outcome : outcomes)
+    {
+      assertEquals(outcome.name(), Long.valueOf((long) threads.length * rounds),
+          Long.valueOf(metrics.get(outcome)));
+    }
+
+    assertEquals((long) threads.length * rounds, metrics.getHandlerLatency()
+        .snapshot().getCount());
+    assertEquals(0L, metrics.getFilterLatency().snapshot().getCount());
+  }
+}
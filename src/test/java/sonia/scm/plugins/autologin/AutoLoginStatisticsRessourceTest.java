@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+
+import javax.xml.bind.JAXB;
+
+import org.junit.Test;
+
+import sonia.scm.plugins.autologin.AutoLoginMetrics.Outcome;
+import sonia.scm.store.Store;
+import sonia.scm.store.StoreFactory;
+
+/**
+ * Unit tests of the {@link AutoLoginStatisticsRessource}.
+ * 
+ * @author Clemens Rabe
+ */
+public class AutoLoginStatisticsRessourceTest
+{
+
+  @Test
+  public void testStatistics()
+  {
+    AutoLoginMetrics metrics = new AutoLoginMetrics();
+    AutoLoginStatisticsRessource ressource = new AutoLoginStatisticsRessource(
+        new AutoLoginAuthenticationHandler(null, new MemoryStoreFactory(),
+            null, metrics));
+
+    metrics.increment(Outcome.LOGIN_SUCCESS);
+    metrics.increment(Outcome.LOGIN_SUCCESS);
+    metrics.increment(Outcome.HEADER_MISSING);
+    metrics.getFilterLatency().record(1000L);
+
+    String xml = marshal(ressource.getStatistics());
+
+    assertTrue(xml, xml.contains("<login-success>2</login-success>"));
+    assertTrue(xml, xml.contains("<header-missing>1</header-missing>"));
+    assertTrue(xml, xml.contains("<wrong-type>0</wrong-type>"));
+    assertTrue(xml, xml.contains("<filter-latency><count>1</count>"
+        + "<mean>1000</mean><p50>1023</p50><p99>1023</p99>"
+        + "<p999>1023</p999></filter-latency>"));
+    assertTrue(xml, xml.contains("<handler-latency><count>0</count>"));
+
+    // Disabled components are reported as -1
+    assertTrue(xml, xml.contains("<directory-size>-1</directory-size>"));
+    assertTrue(xml, xml.contains("<membership-size>-1</membership-size>"));
+  }
+
+  @Test
+  public void testSnapshot()
+  {
+    AutoLoginMetrics metrics = new AutoLoginMetrics();
+    AutoLoginStatisticsRessource ressource = new AutoLoginStatisticsRessource(
+        new AutoLoginAuthenticationHandler(null, new MemoryStoreFactory(),
+            null, metrics));
+    AutoLoginStatistics statistics = ressource.getStatistics();
+
+    metrics.increment(Outcome.LOGIN_SUCCESS);
+
+    // A returned snapshot does not change with the metrics
+    assertTrue(marshal(statistics).contains("<login-success>0</login-success>"));
+    assertTrue(marshal(ressource.getStatistics()).contains(
+        "<login-success>1</login-success>"));
+  }
+
+  /**
+   * Marshal the statistics to XML without line breaks.
+   * 
+   * @param statistics
+   *          - The statistics.
+   * @return The XML.
+   */
+  private static String marshal(AutoLoginStatistics statistics)
+  {
+    StringWriter writer = new StringWriter();
+
+    JAXB.marshal(statistics, writer);
+
+    return writer.toString().replaceAll(">\\s+<", "><");
+  }
+
+  /**
+   * Factory of stores keeping their object in memory.
+   */
+  private static final class MemoryStoreFactory implements StoreFactory
+  {
+    @Override
+    public <T> Store<T> getStore(Class<T> type, String name)
+    {
+      return new Store<T>()
+      {
+
+        /** The stored object. */
+        private T object;
+
+        @Override
+        public T get()
+        {
+          return object;
+        }
+
+        @Override
+        public void set(T object)
+        {
+          this.object = object;
+        }
+      };
+    }
+  }
+}
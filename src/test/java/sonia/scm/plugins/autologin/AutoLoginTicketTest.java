@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.junit.Test;
+
+import sonia.scm.group.GroupNames;
+import sonia.scm.user.User;
+
+/**
+ * Unit tests of the {@link AutoLoginTicket}.
+ * 
+ * @author Clemens Rabe
+ */
+public class AutoLoginTicketTest
+{
+
+  /** The header key of the tickets. */
+  private static final String KEY = "CN=jdoe";
+
+  /** The entity tag of the tickets. */
+  private static final String TAG = "0123456789abcdef";
+
+  /** The current time of the tests. */
+  private final long now = System.currentTimeMillis();
+
+  @Test
+  public void testRoundTrip()
+  {
+    String value = AutoLoginTicket.encode(record(now + 60000L), KEY, TAG);
+    PrincipalRecord record = AutoLoginTicket.decode(value, KEY, TAG, now);
+
+    assertEquals("jdoe", record.getUsername());
+    assertEquals(now + 60000L, record.getExpires());
+
+    User user = user();
+    PrincipalCollection principals = record.toPrincipals(user);
+    List<String> groups = new ArrayList<String>();
+
+    for (String group : principals.oneByType(GroupNames.class))
+    {
+      groups.add(group);
+    }
+
+    assertEquals("jdoe", principals.getPrimaryPrincipal());
+    assertSame(user, principals.oneByType(User.class));
+    assertEquals(Arrays.asList("developers", "testers"), groups);
+  }
+
+  @Test
+  public void testCookieValue()
+  {
+    String value = AutoLoginTicket.encode(record(now + 60000L), KEY, TAG);
+
+    assertEquals(value, value.replaceAll("[^A-Za-z0-9_.-]", ""));
+  }
+
+  @Test
+  public void testOtherHeader()
+  {
+    String value = AutoLoginTicket.encode(record(now + 60000L), KEY, TAG);
+
+    assertNull(AutoLoginTicket.decode(value, "CN=asmith", TAG, now));
+  }
+
+  @Test
+  public void testOtherConfiguration()
+  {
+    String value = AutoLoginTicket.encode(record(now + 60000L), KEY, TAG);
+
+    assertNull(AutoLoginTicket.decode(value, KEY, "fedcba9876543210", now));
+  }
+
+  @Test
+  public void testExpired()
+  {
+    String value = AutoLoginTicket.encode(record(now + 60000L), KEY, TAG);
+
+    assertNotNull(AutoLoginTicket.decode(value, KEY, TAG, now + 59999L));
+    assertNull(AutoLoginTicket.decode(value, KEY, TAG, now + 60000L));
+  }
+
+  @Test
+  public void testWithoutExpiry()
+  {
+    String value = AutoLoginTicket.encode(record(PrincipalRecord.NEVER), KEY,
+        TAG);
+
+    assertNull(AutoLoginTicket.decode(value, KEY, TAG, now));
+  }
+
+  @Test
+  public void testTampered()
+  {
+    String value = AutoLoginTicket.encode(record(now + 60000L), KEY, TAG);
+    int dot = value.indexOf('.');
+    String other = AutoLoginTicket.encode(record(now + 120000L), KEY, TAG);
+
+    // Payload of one ticket with the signature of another
+    assertNull(AutoLoginTicket.decode(
+        other.substring(0, other.indexOf('.')) + value.substring(dot), KEY,
+        TAG, now));
+
+    // Flipped character of the signature
+    char first = value.charAt(dot + 1);
+
+    assertNull(AutoLoginTicket.decode(value.substring(0, dot + 1)
+        + (first == 'A' ? 'B' : 'A') + value.substring(dot + 2), KEY, TAG,
+        now));
+  }
+
+  @Test
+  public void testMalformed()
+  {
+    assertNull(AutoLoginTicket.decode("", KEY, TAG, now));
+    assertNull(AutoLoginTicket.decode("abc", KEY, TAG, now));
+    assertNull(AutoLoginTicket.decode(".abc", KEY, TAG, now));
+    assertNull(AutoLoginTicket.decode("a!b.c?d", KEY, TAG, now));
+    assertNull(AutoLoginTicket.decode("abcd.", KEY, TAG, now));
+  }
+
+  /**
+   * Create the record of the principals of an auto login user.
+   * 
+   * @param expires
+   *          - The expiry time in milliseconds.
+   * @return The record.
+   */
+  private static PrincipalRecord record(long expires)
+  {
+    SimplePrincipalCollection principals = new SimplePrincipalCollection();
+    User user = user();
+
+    principals.add(user.getId(), "scm");
+    principals.add(user, "scm");
+    principals.add(new GroupNames(Arrays.asList("developers", "testers")),
+        "scm");
+
+    return PrincipalRecord.of(principals, expires);
+  }
+
+  /**
+   * Create an auto login user.
+   * 
+   * @return The user.
+   */
+  private static User user()
+  {
+    User user = new User("jdoe");
+
+    user.setType(AutoLoginAuthenticationHandler.TYPE);
+
+    return user;
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link AutoLoginToken}.
+ * 
+ * @author Clemens Rabe
+ */
+public class AutoLoginTokenTest
+{
+
+  @Test
+  public void testAsserted()
+  {
+    AutoLoginToken token = new AutoLoginToken("jdoe", "127.0.0.1");
+    String password = new String(token.getPassword());
+
+    assertTrue(AutoLoginToken.isAsserted(request(token), "jdoe", password));
+  }
+
+  @Test
+  public void testSameCredentialForAllTokens()
+  {
+    assertTrue(new String(new AutoLoginToken("jdoe", null).getPassword())
+        .equals(new String(new AutoLoginToken("asmith", null).getPassword())));
+  }
+
+  @Test
+  public void testNotAsserted()
+  {
+    AutoLoginToken token = new AutoLoginToken("jdoe", "127.0.0.1");
+    String password = new String(token.getPassword());
+
+    // The credential is useless without the token of the request
+    assertFalse(AutoLoginToken.isAsserted(request(null), "jdoe", password));
+    assertFalse(AutoLoginToken.isAsserted(request("jdoe"), "jdoe", password));
+    assertFalse(AutoLoginToken.isAsserted(request(token), "asmith", password));
+    assertFalse(AutoLoginToken.isAsserted(request(token), "jdoe", "secret"));
+    assertFalse(AutoLoginToken.isAsserted(request(token), "jdoe", null));
+    assertFalse(AutoLoginToken.isAsserted(request(token), null, password));
+  }
+
+  /**
+   * Create a request holding the given value as token attribute.
+   * 
+   * @param attribute
+   *          - The value of the token attribute or null.
+   * @return The request.
+   */
+  private static HttpServletRequest request(final Object attribute)
+  {
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        AutoLoginTokenTest.class.getClassLoader(),
+        new Class<?>[] { HttpServletRequest.class }, new InvocationHandler()
+        {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args)
+          {
+            if ("getAttribute".equals(method.getName())
+                && AutoLoginToken.ATTRIBUTE.equals(args[0]))
+            {
+              return attribute;
+            }
+
+            return null;
+          }
+        });
+  }
+}
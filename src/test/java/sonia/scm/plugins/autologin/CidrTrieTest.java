@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link CidrTrie}.
+ * 
+ * @author Clemens Rabe
+ */
+public class CidrTrieTest
+{
+
+  @Test
+  public void testIpv4Network()
+  {
+    CidrTrie trie = new CidrTrie();
+
+    trie.add("10.0.0.0/8");
+    trie.add("192.168.1.0/24");
+
+    assertEquals(2, trie.size());
+    assertTrue(trie.contains("10.1.2.3"));
+    assertTrue(trie.contains("192.168.1.255"));
+    assertFalse(trie.contains("11.0.0.1"));
+    assertFalse(trie.contains("192.168.2.1"));
+  }
+
+  @Test
+  public void testIpv4Host()
+  {
+    CidrTrie trie = new CidrTrie();
+
+    trie.add(" 127.0.0.1 ");
+
+    assertTrue(trie.contains("127.0.0.1"));
+    assertFalse(trie.contains("127.0.0.2"));
+  }
+
+  @Test
+  public void testIpv4Default()
+  {
+    CidrTrie trie = new CidrTrie();
+
+    trie.add("0.0.0.0/0");
+
+    assertTrue(trie.contains("1.2.3.4"));
+    assertTrue(trie.contains("255.255.255.255"));
+  }
+
+  @Test
+  public void testIpv6Network()
+  {
+    CidrTrie trie = new CidrTrie();
+
+    trie.add("fd00::/8");
+
+    assertTrue(trie.contains("fd12::1"));
+    assertTrue(trie.contains("[fd12::1]"));
+    assertTrue(trie.contains("fd12::1%eth0"));
+    assertFalse(trie.contains("fe80::1"));
+    assertFalse(trie.contains("10.0.0.1"));
+  }
+
+  @Test
+  public void testIpv6Host()
+  {
+    CidrTrie trie = new CidrTrie();
+
+    trie.add("::1");
+
+    assertTrue(trie.contains("::1"));
+    assertTrue(trie.contains("0:0:0:0:0:0:0:1"));
+    assertFalse(trie.contains("::2"));
+  }
+
+  @Test
+  public void testIpv4MappedAddress()
+  {
+    CidrTrie trie = new CidrTrie();
+
+    trie.add("10.0.0.0/8");
+
+    assertTrue(trie.contains("::ffff:10.1.2.3"));
+    assertFalse(trie.contains("::ffff:11.1.2.3"));
+  }
+
+  @Test
+  public void testInvalidAddresses()
+  {
+    CidrTrie trie = new CidrTrie();
+
+    trie.add("10.0.0.0/8");
+
+    assertFalse(trie.contains(null));
+    assertFalse(trie.contains(""));
+    assertFalse(trie.contains("10.0.0"));
+    assertFalse(trie.contains("10.0.0.256"));
+    assertFalse(trie.contains("[fd00::1"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidIpv4Network()
+  {
+    new CidrTrie().add("300.0.0.0/8");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPrefixLength()
+  {
+    new CidrTrie().add("10.0.0.0/33");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidIpv6Network()
+  {
+    new CidrTrie().add("fd00:::1/8");
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link CreationRateLimiter}. The rates are one creation
+ * per minute, so no token is refilled while a test runs.
+ * 
+ * @author Clemens Rabe
+ */
+public class CreationRateLimiterTest
+{
+
+  @Test
+  public void testDisabled()
+  {
+    CreationRateLimiter limiter = new CreationRateLimiter(0, 0, 0, 0);
+
+    assertFalse(limiter.isEnabled());
+
+    for (int i = 0; i < 100; i++)
+    {
+      assertTrue(limiter.tryAcquire("10.0.0.1"));
+    }
+
+    assertEquals(0, limiter.getAddressCount());
+  }
+
+  @Test
+  public void testGlobalBurst()
+  {
+    CreationRateLimiter limiter = new CreationRateLimiter(1, 2, 0, 0);
+
+    assertTrue(limiter.isEnabled());
+    assertTrue(limiter.tryAcquire("10.0.0.1"));
+    assertTrue(limiter.tryAcquire("10.0.0.2"));
+    assertFalse(limiter.tryAcquire("10.0.0.3"));
+    assertFalse(limiter.tryAcquire(null));
+  }
+
+  @Test
+  public void testAddressBurst()
+  {
+    CreationRateLimiter limiter = new CreationRateLimiter(0, 0, 1, 2);
+
+    assertTrue(limiter.tryAcquire("10.0.0.1"));
+    assertTrue(limiter.tryAcquire("10.0.0.1"));
+    assertFalse(limiter.tryAcquire("10.0.0.1"));
+    assertTrue(limiter.tryAcquire("10.0.0.2"));
+    assertEquals(2, limiter.getAddressCount());
+
+    // Requests without address are only limited globally
+    assertTrue(limiter.tryAcquire(null));
+  }
+
+  @Test
+  public void testRelease()
+  {
+    CreationRateLimiter limiter = new CreationRateLimiter(1, 1, 1, 1);
+
+    assertTrue(limiter.tryAcquire("10.0.0.1"));
+    assertFalse(limiter.tryAcquire("10.0.0.1"));
+    limiter.release("10.0.0.1");
+    assertTrue(limiter.tryAcquire("10.0.0.1"));
+  }
+
+  @Test
+  public void testGlobalRejectionKeepsAddressToken()
+  {
+    CreationRateLimiter limiter = new CreationRateLimiter(1, 1, 1, 1);
+
+    assertTrue(limiter.tryAcquire("10.0.0.2"));
+
+    // Rejected by the global bucket, so the address keeps its token
+    assertFalse(limiter.tryAcquire("10.0.0.1"));
+    limiter.release("10.0.0.2");
+    assertTrue(limiter.tryAcquire("10.0.0.1"));
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import sonia.scm.plugins.autologin.DistinguishedNameParser.Attribute;
+
+/**
+ * Unit tests of the {@link DistinguishedNameParser}.
+ * 
+ * @author Clemens Rabe
+ */
+public class DistinguishedNameParserTest
+{
+
+  @Test
+  public void testCommaStyle()
+  {
+    assertEquals("carol",
+        DistinguishedNameParser.extract("CN=carol,O=Example", Attribute.CN));
+    assertEquals("Example",
+        DistinguishedNameParser.extract("CN=carol, O=Example", Attribute.O));
+  }
+
+  @Test
+  public void testSlashStyle()
+  {
+    assertEquals("bob", DistinguishedNameParser.extract(
+        "/C=DE/O=Example/CN=bob", Attribute.CN));
+    assertEquals("alice",
+        DistinguishedNameParser.extract("C=DE/CN=alice", Attribute.CN));
+  }
+
+  @Test
+  public void testFirstOccurrence()
+  {
+    assertEquals("dev", DistinguishedNameParser.extract(
+        "CN=carol,OU=dev,OU=people,O=Example", Attribute.OU));
+  }
+
+  @Test
+  public void testAttributeAliases()
+  {
+    assertEquals("eve",
+        DistinguishedNameParser.extract("commonName=eve,O=x", Attribute.CN));
+    assertEquals("eve",
+        DistinguishedNameParser.extract("2.5.4.3=eve,O=x", Attribute.CN));
+    assertEquals("eve",
+        DistinguishedNameParser.extract("cn=eve,o=x", Attribute.CN));
+    assertEquals("eve@example.com", DistinguishedNameParser.extract(
+        "E=eve@example.com,CN=eve", Attribute.EMAILADDRESS));
+  }
+
+  @Test
+  public void testQuotedValue()
+  {
+    assertEquals("a/b",
+        DistinguishedNameParser.extract("CN=\"a/b\",O=x", Attribute.CN));
+    assertEquals("Doe, John", DistinguishedNameParser.extract(
+        "CN=\"Doe, John\",O=x", Attribute.CN));
+  }
+
+  @Test
+  public void testEscapedValue()
+  {
+    assertEquals("Doe, John", DistinguishedNameParser.extract(
+        "CN=Doe\\, John,O=x", Attribute.CN));
+    assertEquals("J\u00fcrgen", DistinguishedNameParser.extract(
+        "CN=J\\C3\\BCrgen,O=x", Attribute.CN));
+  }
+
+  @Test
+  public void testMissingAttribute()
+  {
+    assertNull(DistinguishedNameParser.extract("O=Example,C=DE", Attribute.CN));
+  }
+
+  @Test
+  public void testNoDistinguishedName()
+  {
+    assertNull(DistinguishedNameParser.extract("dave", Attribute.CN));
+    assertNull(DistinguishedNameParser.extract("", Attribute.CN));
+    assertFalse(DistinguishedNameParser.visit("dave", new Collector()));
+  }
+
+  @Test
+  public void testVisit()
+  {
+    Collector collector = new Collector();
+
+    assertTrue(DistinguishedNameParser.visit("CN=carol,OU=dev,O=Example",
+        collector));
+    assertEquals("[CN=carol, OU=dev, O=Example]",
+        collector.attributes.toString());
+  }
+
+  @Test
+  public void testFromName()
+  {
+    assertSame(Attribute.CN, Attribute.fromName("cn"));
+    assertSame(Attribute.CN, Attribute.fromName(" commonName "));
+    assertSame(Attribute.EMAILADDRESS, Attribute.fromName("email"));
+    assertNull(Attribute.fromName("surname"));
+    assertNull(Attribute.fromName(null));
+  }
+
+  /**
+   * Visitor collecting the attributes as <code>type=value</code>.
+   */
+  private static final class Collector implements
+      DistinguishedNameParser.Visitor
+  {
+
+    /** The collected attributes. */
+    private final List<String> attributes = new ArrayList<String>();
+
+    @Override
+    public void visit(String type, String value)
+    {
+      attributes.add(type + "=" + value);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests of the {@link GroupMembershipIndex}.
+ * 
+ * @author Clemens Rabe
+ */
+public class GroupMembershipIndexTest
+{
+
+  /** The directory of the membership files. */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSeparators() throws IOException
+  {
+    GroupMembershipIndex index = load("jdoe: developers, testers\n"
+        + "asmith,admins;developers\n" + "bwayne\tops\tadmins\n");
+
+    assertEquals(3, index.size());
+    assertEquals("[developers, testers]", index.getGroups("jdoe").toString());
+    assertEquals("[admins, developers]", index.getGroups("asmith").toString());
+    assertEquals("[ops, admins]", index.getGroups("bwayne").toString());
+    assertNull(index.getGroups("nobody"));
+  }
+
+  @Test
+  public void testMergedLines() throws IOException
+  {
+    GroupMembershipIndex index = load("asmith,developers\nasmith,admins\n");
+
+    assertEquals(1, index.size());
+    assertEquals("[developers, admins]", index.getGroups("asmith").toString());
+  }
+
+  @Test
+  public void testIgnoredLines() throws IOException
+  {
+    GroupMembershipIndex index = load("username,groups\n" + "# comment\n"
+        + "\n" + ": orphans\n" + "jdoe: developers\n");
+
+    assertEquals(1, index.size());
+    assertNull(index.getGroups("username"));
+    assertEquals("[developers]", index.getGroups("jdoe").toString());
+  }
+
+  @Test
+  public void testUserWithoutGroups() throws IOException
+  {
+    GroupMembershipIndex index = load("jdoe\n");
+
+    assertEquals(1, index.size());
+    assertEquals(0, index.getGroups("jdoe").size());
+  }
+
+  @Test
+  public void testSharedGroupSets() throws IOException
+  {
+    StringBuilder content = new StringBuilder();
+
+    for (int i = 0; i < 1000; i++)
+    {
+      content.append("user").append(i).append(": ")
+          .append(i % 2 == 0 ? "even" : "odd").append(", all\n");
+    }
+
+    GroupMembershipIndex index = load(content.toString());
+
+    assertEquals(1000, index.size());
+    assertEquals(2, index.getGroupSetCount());
+    assertSame(index.getGroups("user0"), index.getGroups("user998"));
+    assertEquals("[odd, all]", index.getGroups("user999").toString());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testUnmodifiable() throws IOException
+  {
+    load("jdoe: developers\n").getGroups("jdoe").add("admins");
+  }
+
+  /**
+   * Write a membership file and read the index from it.
+   * 
+   * @param content
+   *          - The content of the file.
+   * @return The index.
+   * @throws IOException
+   *           if the file can't be written or read.
+   */
+  private GroupMembershipIndex load(String content) throws IOException
+  {
+    File file = folder.newFile();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+    try
+    {
+      writer.write(content);
+    } finally
+    {
+      writer.close();
+    }
+
+    return GroupMembershipIndex.load(file);
+  }
+}
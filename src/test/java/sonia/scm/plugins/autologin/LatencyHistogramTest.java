@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link LatencyHistogram}.
+ * 
+ * @author Clemens Rabe
+ */
+public class LatencyHistogramTest
+{
+
+  @Test
+  public void testEmpty()
+  {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+    assertEquals(0L, snapshot.getCount());
+    assertEquals(0L, snapshot.getMean());
+    assertEquals(0L, snapshot.getPercentile(50.0));
+    assertEquals(0L, snapshot.getPercentile(99.9));
+  }
+
+  @Test
+  public void testBucketBounds()
+  {
+    assertEquals(0L, single(0L));
+    assertEquals(0L, single(-5L));
+    assertEquals(1L, single(1L));
+    assertEquals(3L, single(2L));
+    assertEquals(3L, single(3L));
+    assertEquals(1023L, single(1000L));
+    assertEquals(1023L, single(1023L));
+    assertEquals(2047L, single(1024L));
+    assertEquals(Long.MAX_VALUE, single(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testPercentiles()
+  {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    for (int i = 0; i < 99; i++)
+    {
+      histogram.record(10L);
+    }
+
+    histogram.record(1000000L);
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    assertEquals(100L, snapshot.getCount());
+    assertEquals((99L * 10L + 1000000L) / 100L, snapshot.getMean());
+    assertEquals(15L, snapshot.getPercentile(50.0));
+    assertEquals(15L, snapshot.getPercentile(99.0));
+    assertEquals(1048575L, snapshot.getPercentile(99.9));
+    assertEquals(1048575L, snapshot.getPercentile(100.0));
+  }
+
+  @Test
+  public void testConcurrentRecords() throws InterruptedException
+  {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    final int records = 50000;
+    Thread[] threads = new Thread[8];
+
+    for (int t = 0; t < threads.length; t++)
+    {
+      threads[t] = new Thread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          for (int i = 0; i < records; i++)
+          {
+            histogram.record(100L);
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+    assertEquals((long) threads.length * records, snapshot.getCount());
+    assertEquals(100L, snapshot.getMean());
+    assertEquals(127L, snapshot.getPercentile(99.9));
+  }
+
+  /**
+   * Get the upper bound of the bucket of a single latency.
+   * 
+   * @param nanos
+   *          - The latency in nanoseconds.
+   * @return The upper bound of its bucket.
+   */
+  private static long single(long nanos)
+  {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    histogram.record(nanos);
+
+    return histogram.snapshot().getPercentile(100.0);
+  }
+}
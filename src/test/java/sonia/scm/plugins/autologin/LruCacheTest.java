@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link LruCache}.
+ * 
+ * @author Clemens Rabe
+ */
+public class LruCacheTest
+{
+
+  @Test
+  public void testDisabled()
+  {
+    LruCache<String, String> cache = new LruCache<String, String>(0, 0L);
+
+    cache.put("a", "1");
+
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testPutGetRemove()
+  {
+    LruCache<String, String> cache = new LruCache<String, String>(10, 0L);
+
+    cache.put("a", "1");
+    cache.put("b", "2");
+    cache.put("a", "3");
+
+    assertEquals("3", cache.get("a"));
+    assertEquals("2", cache.get("b"));
+    assertNull(cache.get(null));
+    assertEquals(2, cache.size());
+
+    cache.remove("a");
+    assertNull(cache.get("a"));
+
+    cache.invalidateAll();
+    assertNull(cache.get("b"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testExpiry() throws InterruptedException
+  {
+    LruCache<String, String> cache = new LruCache<String, String>(10, 1L);
+
+    cache.put("a", "1");
+    Thread.sleep(20L);
+
+    assertNull(cache.get("a"));
+  }
+
+  @Test
+  public void testExpiryOfEntry() throws InterruptedException
+  {
+    LruCache<String, String> cache = new LruCache<String, String>(10, 0L);
+
+    cache.put("a", "1", 1L);
+    cache.put("b", "2", 60000L);
+    cache.put("c", "3");
+    Thread.sleep(20L);
+
+    assertNull(cache.get("a"));
+    assertEquals("2", cache.get("b"));
+    assertEquals("3", cache.get("c"));
+  }
+
+  @Test
+  public void testVisitOrder() throws InterruptedException
+  {
+    LruCache<String, String> cache = new LruCache<String, String>(10, 0L);
+    final List<String> keys = new ArrayList<String>();
+
+    cache.put("a", "1");
+    Thread.sleep(5L);
+    cache.put("b", "2");
+    Thread.sleep(5L);
+    cache.put("c", "3");
+    Thread.sleep(5L);
+    cache.get("a");
+
+    cache.visit(new LruCache.Visitor<String, String>()
+    {
+      @Override
+      public void visit(String key, String value, long remainingMillis)
+      {
+        assertEquals(-1L, remainingMillis);
+        keys.add(key);
+      }
+    });
+
+    assertEquals("[b, c, a]", keys.toString());
+  }
+
+  @Test
+  public void testEviction() throws InterruptedException
+  {
+    LruCache<String, String> cache = new LruCache<String, String>(8, 0L);
+
+    for (int i = 0; i < 100; i++)
+    {
+      cache.put("k" + i, "v" + i);
+    }
+
+    // The entries are evicted in the background
+    long deadline = System.currentTimeMillis() + 5000L;
+
+    while (cache.size() > cache.getMaxSize()
+        && System.currentTimeMillis() < deadline)
+    {
+      Thread.sleep(10L);
+    }
+
+    assertTrue(cache.size() <= cache.getMaxSize());
+    assertEquals("v99", cache.get("k99"));
+  }
+}
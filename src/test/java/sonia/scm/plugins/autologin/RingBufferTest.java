@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link RingBuffer}.
+ * 
+ * @author Clemens Rabe
+ */
+public class RingBufferTest
+{
+
+  @Test
+  public void testCapacity()
+  {
+    assertEquals(2, new RingBuffer<String>(0).getCapacity());
+    assertEquals(2, new RingBuffer<String>(2).getCapacity());
+    assertEquals(4, new RingBuffer<String>(3).getCapacity());
+    assertEquals(8, new RingBuffer<String>(8).getCapacity());
+  }
+
+  @Test
+  public void testOrder()
+  {
+    RingBuffer<String> buffer = new RingBuffer<String>(4);
+
+    assertNull(buffer.poll());
+    assertTrue(buffer.offer("a"));
+    assertTrue(buffer.offer("b"));
+    assertEquals("a", buffer.poll());
+    assertEquals("b", buffer.poll());
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  public void testFull()
+  {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+
+    for (int i = 0; i < 4; i++)
+    {
+      assertTrue(buffer.offer(Integer.valueOf(i)));
+    }
+
+    assertFalse(buffer.offer(Integer.valueOf(4)));
+    assertEquals(Integer.valueOf(0), buffer.poll());
+    assertTrue(buffer.offer(Integer.valueOf(4)));
+  }
+
+  @Test
+  public void testWrapAround()
+  {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(2);
+
+    for (int i = 0; i < 100; i++)
+    {
+      assertTrue(buffer.offer(Integer.valueOf(i)));
+      assertEquals(Integer.valueOf(i), buffer.poll());
+    }
+  }
+
+  @Test
+  public void testDrainTo()
+  {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(8);
+    List<Integer> target = new ArrayList<Integer>();
+
+    for (int i = 0; i < 5; i++)
+    {
+      buffer.offer(Integer.valueOf(i));
+    }
+
+    assertEquals(3, buffer.drainTo(target, 3));
+    assertEquals(2, buffer.drainTo(target, 10));
+    assertEquals(0, buffer.drainTo(target, 10));
+    assertEquals("[0, 1, 2, 3, 4]", target.toString());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException
+  {
+    final int producers = 4;
+    final int count = 10000;
+    final RingBuffer<Integer> buffer = new RingBuffer<Integer>(64);
+    Thread[] threads = new Thread[producers];
+
+    for (int p = 0; p < producers; p++)
+    {
+      final int offset = p * count;
+
+      threads[p] = new Thread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          for (int i = 0; i < count; i++)
+          {
+            while (!buffer.offer(Integer.valueOf(offset + i)))
+            {
+              Thread.yield();
+            }
+          }
+        }
+      });
+      threads[p].start();
+    }
+
+    boolean[] seen = new boolean[producers * count];
+    int[] last = new int[producers];
+    int received = 0;
+
+    for (int p = 0; p < producers; p++)
+    {
+      last[p] = -1;
+    }
+
+    while (received < seen.length)
+    {
+      Integer element = buffer.poll();
+
+      if (element == null)
+      {
+        Thread.yield();
+        continue;
+      }
+
+      int value = element.intValue();
+      int producer = value / count;
+
+      assertFalse(seen[value]);
+      // The elements of each producer keep their order
+      assertTrue(value % count > last[producer]);
+      seen[value] = true;
+      last[producer] = value % count;
+      received++;
+    }
+
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+
+    assertNull(buffer.poll());
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link StripedCounter}.
+ * 
+ * @author Clemens Rabe
+ */
+public class StripedCounterTest
+{
+
+  @Test
+  public void testStripes()
+  {
+    assertEquals(0, StripedCounter.STRIPES & (StripedCounter.STRIPES - 1));
+    assertEquals(true, StripedCounter.STRIPES >= 2);
+  }
+
+  @Test
+  public void testSum()
+  {
+    StripedCounter counter = new StripedCounter();
+
+    assertEquals(0L, counter.sum());
+    counter.increment();
+    counter.add(41L);
+    assertEquals(42L, counter.sum());
+    counter.add(-2L);
+    assertEquals(40L, counter.sum());
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws InterruptedException
+  {
+    final StripedCounter counter = new StripedCounter();
+    final int increments = 100000;
+    Thread[] threads = new Thread[8];
+
+    for (int t = 0; t < threads.length; t++)
+    {
+      threads[t] = new Thread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          for (int i = 0; i < increments; i++)
+          {
+            counter.increment();
+          }
+        }
+      });
+      threads[t].start();
+    }
+
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+
+    assertEquals((long) threads.length * increments, counter.sum());
+  }
+}
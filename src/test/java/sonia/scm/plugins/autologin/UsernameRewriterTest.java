@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of the {@link UsernameRewriter}.
+ * 
+ * @author Clemens Rabe
+ */
+public class UsernameRewriterTest
+{
+
+  @Test
+  public void testNoRules()
+  {
+    UsernameRewriter rewriter = new UsernameRewriter(null);
+
+    assertEquals(0, rewriter.size());
+    assertEquals("User@CORP", rewriter.rewrite("User@CORP"));
+    assertNull(rewriter.rewrite(null));
+  }
+
+  @Test
+  public void testBuiltinRules()
+  {
+    assertEquals("user",
+        new UsernameRewriter("strip-realm").rewrite("user@CORP.EXAMPLE"));
+    assertEquals("user",
+        new UsernameRewriter("strip-domain").rewrite("CORP\\user"));
+    assertEquals("user", new UsernameRewriter("lowercase").rewrite("User"));
+    assertEquals("USER", new UsernameRewriter("uppercase").rewrite("user"));
+    assertEquals("user", new UsernameRewriter("STRIP_REALM").rewrite("user@X"));
+  }
+
+  @Test
+  public void testReplace()
+  {
+    UsernameRewriter rewriter = new UsernameRewriter("^ext-(.*)$ -> $1-guest");
+
+    assertEquals("jdoe-guest", rewriter.rewrite("ext-jdoe"));
+    assertEquals("jdoe", rewriter.rewrite("jdoe"));
+  }
+
+  @Test
+  public void testOrder()
+  {
+    UsernameRewriter rewriter = new UsernameRewriter(
+        "strip-domain\nstrip-realm\r\nlowercase");
+
+    assertEquals(3, rewriter.size());
+    assertEquals("jdoe", rewriter.rewrite("CORP\\JDoe@CORP.EXAMPLE"));
+  }
+
+  @Test
+  public void testEmptyResultIgnored()
+  {
+    UsernameRewriter rewriter = new UsernameRewriter(".* ->");
+
+    assertEquals("jdoe", rewriter.rewrite("jdoe"));
+  }
+
+  @Test
+  public void testInvalidRulesSkipped()
+  {
+    UsernameRewriter rewriter = new UsernameRewriter("# comment\n\n"
+        + "unknown\n" + "([ -> x\n" + "(a) -> $2\n" + " -> x\n" + "lowercase");
+
+    assertEquals(1, rewriter.size());
+    assertEquals("jdoe", rewriter.rewrite("JDoe"));
+  }
+
+  @Test
+  public void testMemoized()
+  {
+    UsernameRewriter rewriter = new UsernameRewriter("lowercase");
+    String first = rewriter.rewrite(new String("JDoe"));
+
+    assertSame(first, rewriter.rewrite(new String("JDoe")));
+  }
+}
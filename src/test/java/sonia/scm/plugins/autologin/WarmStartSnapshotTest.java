@@ -0,0 +1,299 @@
+/**
+ * Copyright (c) 2013, Clemens Rabe
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. Neither the name of SCM-Manager; nor the names of its
+ *    contributors may be used to endorse or promote products derived from this
+ *    software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package sonia.scm.plugins.autologin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sonia.scm.group.GroupNames;
+import sonia.scm.user.User;
+
+/**
+ * Unit tests of the {@link WarmStartSnapshot}.
+ * 
+ * @author Clemens Rabe
+ */
+public class WarmStartSnapshotTest
+{
+
+  /** The directory of the snapshot. */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** The compiled default configuration. */
+  private final CompiledAutoLoginConfig config = CompiledAutoLoginConfig
+      .compile(new AutoLoginConfig());
+
+  @Test
+  public void testRoundTrip() throws IOException
+  {
+    config.getPrincipalCache().put("CN=jdoe",
+        principals(user("jdoe", AutoLoginAuthenticationHandler.TYPE)));
+
+    assertEquals(1, snapshot().write(configs()));
+
+    WarmStartSnapshot snapshot = snapshot();
+
+    assertEquals(1, snapshot.load(tags()));
+
+    PrincipalRecord entry = snapshot.take(config.getEntityTag(),
+        "CN=jdoe");
+
+    assertEquals("jdoe", entry.getUsername());
+    assertFalse(entry.isExpired(System.currentTimeMillis()));
+
+    User user = user("jdoe", AutoLoginAuthenticationHandler.TYPE);
+    PrincipalCollection principals = entry.toPrincipals(user);
+
+    assertEquals("jdoe", principals.getPrimaryPrincipal());
+    assertSame(user, principals.oneByType(User.class));
+    List<String> groups = new ArrayList<String>();
+
+    for (String group : principals.oneByType(GroupNames.class))
+    {
+      groups.add(group);
+    }
+
+    assertEquals(Arrays.asList("developers", "testers"), groups);
+    assertEquals(Collections.singleton("scm"), principals.getRealmNames());
+
+    // Each entry is restored only once
+    assertNull(snapshot.take(config.getEntityTag(), "CN=jdoe"));
+    assertEquals(0, snapshot.size());
+  }
+
+  @Test
+  public void testOtherConfiguration() throws IOException
+  {
+    config.getPrincipalCache().put("CN=jdoe",
+        principals(user("jdoe", AutoLoginAuthenticationHandler.TYPE)));
+    snapshot().write(configs());
+
+    AutoLoginConfig changed = new AutoLoginConfig();
+
+    changed.setGroups("others");
+
+    WarmStartSnapshot snapshot = snapshot();
+
+    assertEquals(0, snapshot.load(Collections.singleton(CompiledAutoLoginConfig
+        .compile(changed).getEntityTag())));
+    assertNull(snapshot.take(config.getEntityTag(), "CN=jdoe"));
+  }
+
+  @Test
+  public void testSkippedPrincipals() throws IOException
+  {
+    SimplePrincipalCollection unknown = new SimplePrincipalCollection();
+
+    unknown.add(user("asmith", AutoLoginAuthenticationHandler.TYPE), "scm");
+    unknown.add(Long.valueOf(42L), "scm");
+
+    config.getPrincipalCache().put("CN=bwayne",
+        principals(user("bwayne", "xml")));
+    config.getPrincipalCache().put("CN=asmith", unknown);
+
+    assertEquals(0, snapshot().write(configs()));
+  }
+
+  @Test
+  public void testPendingEntries() throws IOException
+  {
+    config.getPrincipalCache().put("CN=jdoe",
+        principals(user("jdoe", AutoLoginAuthenticationHandler.TYPE)));
+    config.getPrincipalCache().put("CN=asmith",
+        principals(user("asmith", AutoLoginAuthenticationHandler.TYPE)));
+    snapshot().write(configs());
+
+    // A restart before the entries were used keeps them
+    CompiledAutoLoginConfig restarted = CompiledAutoLoginConfig
+        .compile(new AutoLoginConfig());
+    WarmStartSnapshot snapshot = snapshot();
+
+    snapshot.load(tags());
+    snapshot.take(restarted.getEntityTag(), "CN=asmith");
+
+    assertEquals(1,
+        snapshot.write(Collections.singletonList(restarted)));
+
+    snapshot = snapshot();
+    snapshot.load(tags());
+
+    assertEquals("jdoe", snapshot.take(config.getEntityTag(), "CN=jdoe")
+        .getUsername());
+    assertNull(snapshot.take(config.getEntityTag(), "CN=asmith"));
+  }
+
+  @Test
+  public void testRemove() throws IOException
+  {
+    config.getPrincipalCache().put("CN=jdoe",
+        principals(user("jdoe", AutoLoginAuthenticationHandler.TYPE)));
+    config.getPrincipalCache().put("uid=jdoe",
+        principals(user("jdoe", AutoLoginAuthenticationHandler.TYPE)));
+    config.getPrincipalCache().put("CN=asmith",
+        principals(user("asmith", AutoLoginAuthenticationHandler.TYPE)));
+    snapshot().write(configs());
+
+    WarmStartSnapshot snapshot = snapshot();
+
+    assertEquals(3, snapshot.load(tags()));
+    snapshot.remove("jdoe");
+    assertEquals(1, snapshot.size());
+    snapshot.clear();
+    assertEquals(0, snapshot.size());
+  }
+
+  @Test
+  public void testExpiry()
+  {
+    PrincipalCollection principals = principals(user("jdoe",
+        AutoLoginAuthenticationHandler.TYPE));
+    long now = System.currentTimeMillis();
+
+    assertTrue(PrincipalRecord.of(principals, now).isExpired(now));
+    assertFalse(PrincipalRecord.of(principals, now + 1000L)
+        .isExpired(now));
+    assertFalse(PrincipalRecord.of(principals,
+        PrincipalRecord.NEVER).isExpired(now));
+  }
+
+  @Test
+  public void testMissingFile() throws IOException
+  {
+    assertEquals(0, snapshot().load(tags()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedFile() throws IOException
+  {
+    config.getPrincipalCache().put("CN=jdoe",
+        principals(user("jdoe", AutoLoginAuthenticationHandler.TYPE)));
+    snapshot().write(configs());
+
+    File file = snapshot().getFile();
+    FileOutputStream out = new FileOutputStream(file, true);
+
+    try
+    {
+      out.getChannel().truncate(file.length() - 3);
+    } finally
+    {
+      out.close();
+    }
+
+    snapshot().load(tags());
+  }
+
+  /**
+   * Create a snapshot in the temporary folder.
+   * 
+   * @return The snapshot.
+   */
+  private WarmStartSnapshot snapshot()
+  {
+    return new WarmStartSnapshot(new File(folder.getRoot(),
+        WarmStartSnapshot.FILENAME));
+  }
+
+  /**
+   * Get the configurations of the snapshot.
+   * 
+   * @return The default configuration.
+   */
+  private List<CompiledAutoLoginConfig> configs()
+  {
+    return Collections.singletonList(config);
+  }
+
+  /**
+   * Get the entity tags of the configurations.
+   * 
+   * @return The entity tag of the default configuration.
+   */
+  private Set<String> tags()
+  {
+    return Collections.singleton(config.getEntityTag());
+  }
+
+  /**
+   * Create a user.
+   * 
+   * @param name
+   *          - The user name.
+   * @param type
+   *          - The type of the user.
+   * @return The user.
+   */
+  private static User user(String name, String type)
+  {
+    User user = new User(name);
+
+    user.setType(type);
+
+    return user;
+  }
+
+  /**
+   * Create the principals the realm of SCM-Manager creates for a user.
+   * 
+   * @param user
+   *          - The user.
+   * @return The principals.
+   */
+  private static PrincipalCollection principals(User user)
+  {
+    SimplePrincipalCollection principals = new SimplePrincipalCollection();
+
+    principals.add(user.getId(), "scm");
+    principals.add(user, "scm");
+    principals.add(new GroupNames(Arrays.asList("developers", "testers")),
+        "scm");
+
+    return principals;
+  }
+}